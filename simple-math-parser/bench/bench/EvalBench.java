@@ -0,0 +1,67 @@
+package bench;
+
+/**
+ * Times the ways a prepared expression can be calculated against each other, on
+ * statements of growing size with the variables x and y. The tree walk is the
+ * mathNode.Evaluator that evaluate() uses before it tiers up.
+ * <p>
+ * Compile src first and then this folder:
+ * <pre>
+ * javac -d out $(find src -name '*.java' -not -path 'src/test/*')
+ * javac -cp out -d out bench/bench/*.java
+ * java -cp out bench.EvalBench
+ * </pre>
+ * @author kevinrobell
+ *
+ */
+public class EvalBench
+{
+   private static final int[] SIZES = {10, 100, 1000};
+   private static final String[] OPERATORS = {" + ", " * ", " - ", " / "};
+   private static final double[] VALUES = {1.25, -3.5};
+
+   public static void main(String[] args)
+   {
+      Harness.printHeader("backend", "value");
+      for(int size : SIZES)
+      {
+         mathTree.MathTree calcTree = new mathTree.MathTree();
+         calcTree.setVariables(true);
+         if(!calcTree.init(statement(size)))
+            throw new IllegalStateException(calcTree.getDiagnostic().getMessage());
+         mathTree.PreparedExpression expr = calcTree.prepare("x", "y");
+
+         mathNode.Expression tree = expr.getTree();
+         mathNode.Evaluator evaluator = new mathNode.Evaluator();
+         Harness.print("tree walk", size, () -> {
+            evaluator.evaluate(tree, VALUES);
+            return Double.doubleToRawLongBits(evaluator.getDouble());
+         });
+
+         mathNode.CompiledExpression compiled = expr.compile();
+         Harness.print("bytecode", size, () -> Double.doubleToRawLongBits(compiled.evalDouble(VALUES)));
+
+         mathNode.Program program = expr.toProgram();
+         Harness.print("program", size, () -> Double.doubleToRawLongBits(program.evalDouble(VALUES)));
+      }
+   }
+
+   /**
+    * @return x + 2 * y - 4 ... with size values, where every other value is a variable so
+    * the optimizer cannot fold the numbers together.
+    */
+   private static String statement(int size)
+   {
+      StringBuilder statement = new StringBuilder();
+      for(int i = 0; i < size; i++)
+      {
+         if(i > 0)
+            statement.append(OPERATORS[i % OPERATORS.length]);
+         if(i % 2 == 0)
+            statement.append(i % 4 == 0 ? "x" : "y");
+         else
+            statement.append(i % 9 + 1);
+      }
+      return statement.toString();
+   }
+}
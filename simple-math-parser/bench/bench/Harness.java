@@ -0,0 +1,66 @@
+package bench;
+import java.util.function.LongSupplier;
+
+/**
+ * Times work the same way for every benchmark in this folder. The work is first run
+ * until a round of calls takes a tenth of a second, then for a second more so the JIT
+ * has compiled it, and then for a few timed rounds. The fastest round is reported,
+ * because the slower ones are slowed down by things outside the code, like the GC.
+ * @author kevinrobell
+ *
+ */
+class Harness
+{
+   private static final long ROUND_NANOS = 100000000L;
+   private static final long WARM_UP_NANOS = 1000000000L;
+   private static final int ROUNDS = 5;
+
+   private static long sink = 0; //Results of the work, so the JIT cannot drop it
+
+   /**
+    * @param work Returns something that depends on the work it did.
+    * @return The time of one call in nanoseconds.
+    */
+   static double time(LongSupplier work)
+   {
+      int calls = 1;
+      while(run(work, calls) < ROUND_NANOS)
+         calls *= 2;
+
+      long end = System.nanoTime() + WARM_UP_NANOS;
+      while(System.nanoTime() < end)
+         run(work, calls);
+
+      long best = Long.MAX_VALUE;
+      for(int i = 0; i < ROUNDS; i++)
+         best = Math.min(best, run(work, calls));
+      return (double) best / calls;
+   }
+
+   /**
+    * Times work and prints a row of the table with the time of one call and the time for
+    * each of size parts of the input.
+    */
+   static void print(String name, int size, LongSupplier work)
+   {
+      double nanos = time(work);
+      System.out.printf("%-24s %9d %14.1f %10.2f%n", name, size, nanos, nanos / size);
+   }
+
+   static void printHeader(String rowName, String partName)
+   {
+      System.out.printf("%-24s %9s %14s %10s%n", rowName, "size", "ns/call", "ns/" + partName);
+   }
+
+   private static long run(LongSupplier work, int calls)
+   {
+      long total = 0;
+      long start = System.nanoTime();
+      for(int i = 0; i < calls; i++)
+         total += work.getAsLong();
+      long time = System.nanoTime() - start;
+
+      sink += total;
+      return time;
+   }
+}
@@ -0,0 +1,88 @@
+package bench;
+
+/**
+ * Times MathTree.init() on flat and deeply nested statements of growing size. The tree
+ * builder keeps its own stack, so the time for each value should stay about the same as
+ * the statements grow, and the deepest statements should not overflow the thread stack.
+ * <p>
+ * Compile src first and then this folder:
+ * <pre>
+ * javac -d out $(find src -name '*.java' -not -path 'src/test/*')
+ * javac -cp out -d out bench/bench/*.java
+ * java -cp out bench.ParseBench
+ * </pre>
+ * @author kevinrobell
+ *
+ */
+public class ParseBench
+{
+   private static final int[] SIZES = {1000, 10000, 100000};
+   private static final String[] OPERATORS = {" + ", " * ", " - ", " / ", " ^ "};
+
+   public static void main(String[] args)
+   {
+      Harness.printHeader("input", "value");
+      for(int size : SIZES)
+      {
+         time("flat sum", size, flat(size, new String[] {" + "}));
+         time("flat mixed precedence", size, flat(size, OPERATORS));
+         time("power chain", size, flat(size, new String[] {" ^ "}));
+         time("nested on the left", size, nestedLeft(size));
+         time("nested on the right", size, nestedRight(size));
+      }
+   }
+
+   private static void time(String name, int size, String statement)
+   {
+      mathTree.MathTree calcTree = new mathTree.MathTree();
+      if(!calcTree.init(statement))
+         throw new IllegalStateException(name + ": " + calcTree.getDiagnostic().getMessage());
+
+      Harness.print(name, size, () -> calcTree.init(statement) ? 1 : 0);
+   }
+
+   /**
+    * @return 1 + 2 * 3 ... with size values and the operators used in turn.
+    */
+   private static String flat(int size, String[] operators)
+   {
+      StringBuilder statement = new StringBuilder();
+      for(int i = 0; i < size; i++)
+      {
+         if(i > 0)
+            statement.append(operators[i % operators.length]);
+         statement.append(i % 9 + 1);
+      }
+      return statement.toString();
+   }
+
+   /**
+    * @return ((1 + 2) * 3) ... with size values, so every group is the left side of the
+    * next one.
+    */
+   private static String nestedLeft(int size)
+   {
+      StringBuilder statement = new StringBuilder();
+      for(int i = 1; i < size; i++)
+         statement.append('(');
+      statement.append(1);
+      for(int i = 1; i < size; i++)
+         statement.append(OPERATORS[i % 4]).append(i % 9 + 1).append(')');
+      return statement.toString();
+   }
+
+   /**
+    * @return 1 + (2 * (3 ...)) with size values, so the right side of the tree is as deep
+    * as the statement is long.
+    */
+   private static String nestedRight(int size)
+   {
+      StringBuilder statement = new StringBuilder();
+      for(int i = 0; i < size - 1; i++)
+         statement.append(i % 9 + 1).append(OPERATORS[i % 4]).append('(');
+      statement.append(size % 9 + 1);
+      for(int i = 0; i < size - 1; i++)
+         statement.append(')');
+      return statement.toString();
+   }
+}
@@ -9,35 +9,20 @@ public class Add extends Operator
 {
    public Add() { precedence = 3; }
    
-   public Number calculate()
-   {
-      Number leftNum = getLeftNode().calculate();
-      Number rightNum = getRightNode().calculate();
-      
-      //Do integer addition if both nodes below are integers.
-      if(leftNum instanceof Integer && rightNum instanceof Integer)
-         return leftNum.intValue() + rightNum.intValue();
-      
-      //Otherwise do decimal addition.
-      return leftNum.doubleValue() + rightNum.doubleValue();
-   }
+   public char getSymbol() { return '+'; }
    
-   public String toString()
-   {
-      String str = getLeftNode().toString() + " + " + getRightNode().toString();
-      
-      if(isParens())
-         return '(' + str + ')';
-      else
-         return str;
-   }
+   //Do integer addition if both nodes below are integers.
+   public boolean isIntOperation() { return true; }
+   
+   protected int combine(int leftNum, int rightNum) { return leftNum + rightNum; }
+   
+   //Otherwise do decimal addition.
+   protected double combine(double leftNum, double rightNum) { return leftNum + rightNum; }
    
-   @Override
-   public Object clone() throws CloneNotSupportedException
+   protected void combine(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
    {
-      Add clone = (Add) super.clone();
-      clone.setLeftNode((Expression) this.getLeftNode().clone());
-      clone.setRightNode((Expression) this.getRightNode().clone());
-      return clone;
+      for(int i = 0; i < count; i++)
+         out[outStart + i] = left[leftStart + i] + right[rightStart + i];
    }
 }
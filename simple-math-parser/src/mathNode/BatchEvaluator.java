@@ -0,0 +1,512 @@
+package mathNode;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates a tree with variables for many rows of values at once. The values come in
+ * columns, one double[] for each slot, and the tree is lowered to a list of steps that
+ * each run one operator over a chunk of rows, so the tree is walked once instead of once
+ * per row and the loops inside the operators can be vectorized by the JIT. Chunks are
+ * small enough for their temporary columns to stay in the cache, however many rows
+ * there are.
+ * <p>
+ * Every part of the tree without variables has to be folded to one constant first, like
+ * the Optimizer does, because all the math is decimal math. Trees that are not like
+ * that, or have nodes it does not know, are calculated row by row with an Evaluator.
+ * <p>
+ * If the jdk.incubator.vector module and the VectorKernels class are there, the steps
+ * they support are run with VectorKernels on the JDK Vector API, and the rest with the
+ * loops of the operators. A power of 2 is done as a multiplication, which gives the
+ * same bits as Math.pow().
+ * <p>
+ * The step that calculates the subtree of a Shared node writes its own chunk, which the
+ * steps for the other places of the subtree read, so it is calculated once.
+ * <p>
+ * A BatchEvaluator does not change, so it can be used by any number of threads. Each
+ * call makes its own temporary chunks, which lets a ForkJoinPool calculate parts of the
+ * rows at the same time. Rows do not depend on each other, so the answers are the same
+ * as when they are calculated in order.
+ * @author kevinrobell
+ *
+ */
+public class BatchEvaluator
+{
+   public static final int CHUNK_SIZE = 1024;
+   //Rows times nodes a task of a parallel evaluate() should do at least.
+   public static final int TASK_WORK = 1 << 20;
+
+   //Where the values of an operand are.
+   private static final byte COLUMN = 0; //A column of values, indexed by slot
+   private static final byte CONSTANT = 1; //A chunk filled with a constant
+   private static final byte TEMP = 2; //A temporary chunk, indexed by stack depth
+   private static final byte SHARED = 3; //The chunk of a Shared node, indexed by its index
+
+   private static final BatchKernels VECTOR_KERNELS = loadVectorKernels();
+
+   private Expression rootNode;
+   private int variableCount;
+   private boolean rowByRow = false;
+   private BatchKernels kernels; //Null to only use the operators
+
+   //Steps in the order they run. A step without an operator negates a column.
+   private Operator[] operators = new Operator[8];
+   private byte[] leftKinds = new byte[8];
+   private int[] leftIndexes = new int[8];
+   private byte[] rightKinds = new byte[8];
+   private int[] rightIndexes = new int[8];
+   private int[] outIndexes = new int[8]; //Temporary chunk the step writes, or ~index of a shared one
+   private int stepCount = 0;
+
+   private double[] constants = new double[4];
+   private int constantCount = 0;
+   private int tempCount = 0;
+   private int sharedCount = 0;
+   private int nodeCount = 0;
+
+   //Operands of the Shared nodes that are lowered, by index.
+   private boolean[] isLowered = new boolean[0];
+   private byte[] sharedKinds = new byte[0];
+   private int[] sharedIndexes = new int[0];
+
+   private Mult square = new Mult(); //Step for x ^ 2
+
+   //The operand of the root if it is not an operator.
+   private byte rootKind;
+   private int rootIndex;
+
+   /**
+    * Lowers the tree below rootNode. It uses the Vector API if it is there.
+    * @param rootNode Root of a tree whose variables have slots.
+    */
+   public BatchEvaluator(Expression rootNode)
+   {
+      this(rootNode, true);
+   }
+
+   /**
+    * Lowers the tree below rootNode.
+    * @param rootNode Root of a tree whose variables have slots.
+    * @param vectorize Whether to use the Vector API if it is there.
+    */
+   public BatchEvaluator(Expression rootNode, boolean vectorize)
+   {
+      if(!rootNode.checkTree())
+         throw new IllegalArgumentException("The tree is not complete");
+
+      this.rootNode = rootNode;
+      kernels = vectorize ? VECTOR_KERNELS : null;
+      lower(rootNode);
+   }
+
+   /**
+    * @return Whether the jdk.incubator.vector module is there to be used.
+    */
+   public static boolean isVectorAvailable() { return VECTOR_KERNELS != null; }
+
+   /**
+    * @return Whether this BatchEvaluator uses the Vector API.
+    */
+   public boolean isVectorized() { return kernels != null; }
+
+   /**
+    * Loads VectorKernels by name, so nothing links to the Vector API when the module
+    * was not added or VectorKernels was not compiled.
+    */
+   private static BatchKernels loadVectorKernels()
+   {
+      if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+         return null;
+
+      try
+      {
+         return (BatchKernels) Class.forName("mathNode.VectorKernels").getDeclaredConstructor().newInstance();
+      }
+      catch(ReflectiveOperationException | LinkageError e)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * @return The number of columns evaluate() needs.
+    */
+   public int getVariableCount() { return variableCount; }
+
+   /**
+    * Calculates the rows from up to but not including to. Row i of the answer is put in
+    * out[i].
+    * @param columns Values of the variables by slot, then by row.
+    * @param out
+    * @param from
+    * @param to
+    */
+   public void evaluate(double[][] columns, double[] out, int from, int to)
+   {
+      check(columns, out, from, to);
+      run(columns, out, from, to);
+   }
+
+   /**
+    * Calculates the rows from up to but not including to with the threads of pool. The
+    * rows are split into tasks with about TASK_WORK nodes to calculate each, so bigger
+    * trees get fewer rows per task.
+    * @param columns Values of the variables by slot, then by row.
+    * @param out
+    * @param from
+    * @param to
+    * @param pool
+    */
+   public void evaluate(double[][] columns, double[] out, int from, int to, ForkJoinPool pool)
+   {
+      check(columns, out, from, to);
+
+      int rowsPerTask = Math.max(1, TASK_WORK / nodeCount / CHUNK_SIZE) * CHUNK_SIZE;
+      if(to - from <= rowsPerTask)
+         run(columns, out, from, to);
+      else
+         pool.invoke(new BatchTask(columns, out, from, to, rowsPerTask));
+   }
+
+   private void check(double[][] columns, double[] out, int from, int to)
+   {
+      if(columns.length < variableCount)
+         throw new IllegalArgumentException("Expected " + variableCount + " columns but got " + columns.length);
+      if(from < 0 || from > to || to > out.length)
+         throw new IndexOutOfBoundsException("Rows " + from + " to " + to + " of " + out.length);
+      for(int i = 0; i < variableCount; i++)
+      {
+         if(columns[i].length < to)
+            throw new IndexOutOfBoundsException("Column " + i + " has only " + columns[i].length + " rows");
+      }
+   }
+
+   private void run(double[][] columns, double[] out, int from, int to)
+   {
+      if(from == to)
+         return;
+      if(rowByRow)
+      {
+         evaluateRows(columns, out, from, to);
+         return;
+      }
+      if(stepCount == 0)
+      {
+         evaluateLeaf(columns, out, from, to);
+         return;
+      }
+
+      int chunk = Math.min(CHUNK_SIZE, to - from);
+      double[][] temps = new double[tempCount][chunk];
+      double[][] sharedChunks = new double[sharedCount][chunk];
+      double[][] constantChunks = new double[constantCount][chunk];
+      for(int i = 0; i < constantCount; i++)
+         Arrays.fill(constantChunks[i], constants[i]);
+
+      for(int start = from; start < to; start += chunk)
+      {
+         int count = Math.min(chunk, to - start);
+
+         for(int step = 0; step < stepCount; step++)
+         {
+            double[] left = operand(leftKinds[step], leftIndexes[step], columns, constantChunks, temps, sharedChunks);
+            int leftStart = leftKinds[step] == COLUMN ? start : 0;
+            double[] result;
+            if(step == stepCount - 1)
+               result = out;
+            else
+               result = outIndexes[step] >= 0 ? temps[outIndexes[step]] : sharedChunks[~outIndexes[step]];
+            int resultStart = step == stepCount - 1 ? start : 0;
+
+            if(operators[step] == null)
+            {
+               if(kernels != null)
+                  kernels.negate(left, leftStart, result, resultStart, count);
+               else
+               {
+                  for(int i = 0; i < count; i++)
+                     result[resultStart + i] = -left[leftStart + i];
+               }
+            }
+            else
+            {
+               double[] right = operand(rightKinds[step], rightIndexes[step], columns, constantChunks, temps,
+                     sharedChunks);
+               int rightStart = rightKinds[step] == COLUMN ? start : 0;
+               if(kernels == null
+                     || !kernels.combine(operators[step], left, leftStart, right, rightStart, result, resultStart, count))
+                  operators[step].combine(left, leftStart, right, rightStart, result, resultStart, count);
+            }
+         }
+      }
+   }
+
+   /**
+    * Splits its rows in half until they are few enough for one task.
+    */
+   private class BatchTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private double[][] columns;
+      private double[] out;
+      private int from;
+      private int to;
+      private int rowsPerTask;
+
+      BatchTask(double[][] columns, double[] out, int from, int to, int rowsPerTask)
+      {
+         this.columns = columns;
+         this.out = out;
+         this.from = from;
+         this.to = to;
+         this.rowsPerTask = rowsPerTask;
+      }
+
+      protected void compute()
+      {
+         if(to - from <= rowsPerTask)
+         {
+            run(columns, out, from, to);
+            return;
+         }
+
+         //Split on a chunk, so only the last task has a part of one.
+         int middle = from + ((to - from) / 2 + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE;
+         invokeAll(new BatchTask(columns, out, from, middle, rowsPerTask),
+               new BatchTask(columns, out, middle, to, rowsPerTask));
+      }
+   }
+
+   private static double[] operand(byte kind, int index, double[][] columns, double[][] constantChunks,
+         double[][] temps, double[][] sharedChunks)
+   {
+      switch(kind)
+      {
+         case COLUMN: return columns[index];
+         case CONSTANT: return constantChunks[index];
+         case SHARED: return sharedChunks[index];
+         default: return temps[index];
+      }
+   }
+
+   /**
+    * Copies the column or constant the whole tree is.
+    */
+   private void evaluateLeaf(double[][] columns, double[] out, int from, int to)
+   {
+      if(rootKind == CONSTANT)
+         Arrays.fill(out, from, to, constants[rootIndex]);
+      else
+         System.arraycopy(columns[rootIndex], from, out, from, to - from);
+   }
+
+   /**
+    * Calculates the tree once for each row.
+    */
+   private void evaluateRows(double[][] columns, double[] out, int from, int to)
+   {
+      Evaluator evaluator = new Evaluator();
+      double[] values = new double[variableCount];
+
+      for(int row = from; row < to; row++)
+      {
+         for(int i = 0; i < variableCount; i++)
+            values[i] = columns[i][row];
+
+         evaluator.evaluate(rootNode, values);
+         out[row] = evaluator.getDouble();
+      }
+   }
+
+   /**
+    * Writes the steps for the tree in the same order calculate() visits the nodes. Each
+    * operand waits on a stack until its operator is written, and the result of a step
+    * goes in the temporary chunk of its depth on the stack.
+    */
+   private void lower(Expression rootNode)
+   {
+      NodeStack stack = new NodeStack();
+      byte[] kinds = new byte[16];
+      int[] indexes = new int[16];
+      int depth = 0;
+
+      //Shared nodes being lowered, with the size of the stack when they were reached.
+      Shared[] pending = new Shared[4];
+      int[] pendingDepths = new int[4];
+      int pendingCount = 0;
+
+      Expression node = rootNode;
+      while(true)
+      {
+         while(true)
+         {
+            if(node instanceof Operator)
+            {
+               stack.push((Operator) node);
+               nodeCount++;
+               stack.visit();
+               node = ((Operator) node).getLeftNode();
+            }
+            else if(node.getClass() == Shared.class && !isLowered((Shared) node))
+            {
+               if(pendingCount == pending.length)
+               {
+                  pending = Arrays.copyOf(pending, pendingCount * 2);
+                  pendingDepths = Arrays.copyOf(pendingDepths, pendingCount * 2);
+               }
+               pending[pendingCount] = (Shared) node;
+               pendingDepths[pendingCount++] = stack.size();
+               node = ((Shared) node).getNode();
+            }
+            else
+               break;
+         }
+
+         nodeCount++;
+         if(depth == kinds.length)
+         {
+            kinds = Arrays.copyOf(kinds, depth * 2);
+            indexes = Arrays.copyOf(indexes, depth * 2);
+         }
+
+         if(node.getClass() == Int.class)
+         {
+            kinds[depth] = CONSTANT;
+            indexes[depth] = addConstant(((Int) node).getValue());
+         }
+         else if(node.getClass() == Dec.class)
+         {
+            kinds[depth] = CONSTANT;
+            indexes[depth] = addConstant(((Dec) node).getValue());
+         }
+         else if(node.getClass() == Variable.class)
+         {
+            Variable variable = (Variable) node;
+            if(variable.getSlot() < 0)
+               throw new IllegalArgumentException("Variable " + variable.getName() + " has no slot");
+            variableCount = Math.max(variableCount, variable.getSlot() + 1);
+            kinds[depth] = COLUMN;
+            indexes[depth] = variable.getSlot();
+
+            if(variable.isNegative())
+            {
+               addStep(null, COLUMN, variable.getSlot(), COLUMN, 0, depth);
+               kinds[depth] = TEMP;
+               indexes[depth] = depth;
+            }
+         }
+         else if(node.getClass() == Shared.class)
+         {
+            kinds[depth] = sharedKinds[((Shared) node).getIndex()];
+            indexes[depth] = sharedIndexes[((Shared) node).getIndex()];
+         }
+         else
+            rowByRow = true;
+         depth++;
+         while(pendingCount > 0 && pendingDepths[pendingCount - 1] == stack.size())
+            lowerShared(pending[--pendingCount], kinds, indexes, depth - 1);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            depth--;
+            int left = depth - 1;
+
+            //Integer math of two constants was not folded.
+            if(kinds[left] == CONSTANT && kinds[depth] == CONSTANT)
+               rowByRow = true;
+
+            Operator operator = stack.pop();
+            if(operator.getClass() == Pow.class && kinds[depth] == CONSTANT && constants[indexes[depth]] == 2)
+               addStep(square, kinds[left], indexes[left], kinds[left], indexes[left], left);
+            else
+               addStep(operator, kinds[left], indexes[left], kinds[depth], indexes[depth], left);
+            kinds[left] = TEMP;
+            indexes[left] = left;
+            while(pendingCount > 0 && pendingDepths[pendingCount - 1] == stack.size())
+               lowerShared(pending[--pendingCount], kinds, indexes, left);
+         }
+
+         if(node == null)
+            break;
+      }
+
+      if(stepCount == 0)
+      {
+         rootKind = kinds[0];
+         rootIndex = indexes[0];
+      }
+   }
+
+   private boolean isLowered(Shared node)
+   {
+      return node.getIndex() < isLowered.length && isLowered[node.getIndex()];
+   }
+
+   /**
+    * Keeps the operand of a Shared node whose subtree was just lowered. If the last step
+    * calculated it, the step writes a chunk of its own instead, so later steps can read
+    * it after the temporary chunk is used again.
+    */
+   private void lowerShared(Shared node, byte[] kinds, int[] indexes, int depth)
+   {
+      int index = node.getIndex();
+      if(index >= sharedKinds.length)
+      {
+         int length = Math.max(index + 1, sharedKinds.length * 2);
+         isLowered = Arrays.copyOf(isLowered, length);
+         sharedKinds = Arrays.copyOf(sharedKinds, length);
+         sharedIndexes = Arrays.copyOf(sharedIndexes, length);
+      }
+
+      if(kinds[depth] == TEMP && stepCount > 0 && outIndexes[stepCount - 1] == depth)
+      {
+         outIndexes[stepCount - 1] = ~index;
+         sharedCount = Math.max(sharedCount, index + 1);
+         kinds[depth] = SHARED;
+         indexes[depth] = index;
+      }
+
+      isLowered[index] = true;
+      sharedKinds[index] = kinds[depth];
+      sharedIndexes[index] = indexes[depth];
+   }
+
+   private int addConstant(double value)
+   {
+      if(constantCount == constants.length)
+         constants = Arrays.copyOf(constants, constantCount * 2);
+      constants[constantCount] = value;
+      return constantCount++;
+   }
+
+   private void addStep(Operator operator, byte leftKind, int leftIndex, byte rightKind, int rightIndex,
+         int outIndex)
+   {
+      if(stepCount == operators.length)
+      {
+         operators = Arrays.copyOf(operators, stepCount * 2);
+         leftKinds = Arrays.copyOf(leftKinds, stepCount * 2);
+         leftIndexes = Arrays.copyOf(leftIndexes, stepCount * 2);
+         rightKinds = Arrays.copyOf(rightKinds, stepCount * 2);
+         rightIndexes = Arrays.copyOf(rightIndexes, stepCount * 2);
+         outIndexes = Arrays.copyOf(outIndexes, stepCount * 2);
+      }
+
+      operators[stepCount] = operator;
+      leftKinds[stepCount] = leftKind;
+      leftIndexes[stepCount] = leftIndex;
+      rightKinds[stepCount] = rightKind;
+      rightIndexes[stepCount] = rightIndex;
+      outIndexes[stepCount] = outIndex;
+      tempCount = Math.max(tempCount, outIndex + 1);
+      stepCount++;
+   }
+}
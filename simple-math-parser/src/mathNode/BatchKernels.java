@@ -0,0 +1,23 @@
+package mathNode;
+
+/**
+ * Loops a BatchEvaluator can run its steps with instead of the loops of the operators,
+ * for example to use SIMD instructions. They have to give exactly the same bits as the
+ * operators do.
+ * @author kevinrobell
+ *
+ */
+interface BatchKernels
+{
+   /**
+    * Does the decimal math of operator on count values, like Operator.combine().
+    * @return false if the operator is not supported, in which case nothing is written.
+    */
+   boolean combine(Operator operator, double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count);
+
+   /**
+    * Puts the negative of count values in out.
+    */
+   void negate(double[] in, int inStart, double[] out, int outStart, int count);
+}
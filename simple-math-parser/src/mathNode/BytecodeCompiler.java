@@ -0,0 +1,620 @@
+package mathNode;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Compiles trees of math nodes into JVM bytecode. Each tree becomes a hidden class
+ * that extends CompiledExpression with straight-line code for the math, so the JIT
+ * can compile it like any other arithmetic. Hidden classes are not tied to a class
+ * loader, so a compiled expression is unloaded once it is no longer used.
+ * <p>
+ * The class file is written by hand. Values are pushed in the same order calculate()
+ * visits the nodes, integers are widened with i2d where an operator does decimal math,
+ * and Pow calls Pow.power(), so results are exactly the same as calculate(). Subtrees
+ * that would make a method too big for the JIT are moved into their own static
+ * methods. Trees that cannot be compiled are given an InterpretedExpression instead.
+ * <p>
+ * Variables are read from the array of values with daload. Each Shared subtree gets a
+ * static method that keeps its answer in a frame array, and these are called first, in
+ * the order the subtrees are finished, so the places a Shared node appears only read the
+ * frame. The answers do not depend on the order the math is done in, because nothing in
+ * a tree has side effects.
+ * <p>
+ * A BytecodeCompiler is not thread safe, but the expressions it compiles are.
+ * @author kevinrobell
+ *
+ */
+public class BytecodeCompiler
+{
+   private static final int METHOD_LIMIT = 2000; //Bytes of code per method, well under the JIT limit
+   private static final int CLASS_LIMIT = 65535; //Most constants or methods in a class file
+
+   private static final String CLASS_NAME = "mathNode/GeneratedExpression";
+   private static final String SUPER_NAME = "mathNode/CompiledExpression";
+
+   //Opcodes
+   private static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f;
+   private static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14;
+   private static final int ALOAD_0 = 0x2a, ASTORE_2 = 0x4d, DALOAD = 0x31, DASTORE = 0x52;
+   private static final int I2D = 0x87, D2I = 0x8e, DNEG = 0x77;
+   private static final int IADD = 0x60, DADD = 0x63, ISUB = 0x64, DSUB = 0x67;
+   private static final int IMUL = 0x68, DMUL = 0x6b, DDIV = 0x6f;
+   private static final int IRETURN = 0xac, DRETURN = 0xaf, RETURN = 0xb1;
+   private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+   private MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+   //State of the compile in progress
+   private IdentityHashMap<Expression, NodeInfo> nodeInfo = new IdentityHashMap<>();
+   private ArrayList<Operator> methods = new ArrayList<>(); //Roots of the outlined methods
+   private ArrayList<Shared> shared = new ArrayList<>(); //Shared nodes in the order they are finished
+   private int frameSize; //Number of Shared answers
+   private ConstantPool constants;
+
+   /**
+    * What the compiler knows about one node.
+    */
+   private static class NodeInfo
+   {
+      boolean isInt;
+      int size; //Bytes of code in the method of its parent
+      int method = -1; //Index in methods if it has its own method
+   }
+
+   /**
+    * Compiles the tree below rootNode.
+    * @param rootNode Root of a tree that passes checkTree().
+    * @return CompiledExpression that calculates the same result as the tree.
+    */
+   public CompiledExpression compile(Expression rootNode)
+   {
+      if(!rootNode.checkTree())
+         throw new IllegalArgumentException("The tree is not complete");
+
+      try {
+         if(!analyze(rootNode))
+            return new InterpretedExpression(rootNode);
+
+         byte[] classFile = writeClass(rootNode);
+         if(classFile == null)
+            return new InterpretedExpression(rootNode);
+
+         MethodHandles.Lookup hiddenLookup = lookup.defineHiddenClass(classFile, true);
+         return (CompiledExpression) hiddenLookup.findConstructor(hiddenLookup.lookupClass(),
+               MethodType.methodType(void.class)).invoke();
+      } catch(RuntimeException | Error e) {
+         throw e;
+      } catch(Throwable e) {
+         throw new IllegalStateException("Could not load compiled expression", e);
+      } finally {
+         nodeInfo.clear();
+         methods.clear();
+         shared.clear();
+         frameSize = 0;
+         constants = null;
+      }
+   }
+
+   /**
+    * Finds the type and code size of every node and picks the subtrees that get their
+    * own methods. Returns false if there is a node that cannot be compiled.
+    */
+   private boolean analyze(Expression rootNode)
+   {
+      NodeStack stack = new NodeStack();
+      ArrayList<Shared> open = new ArrayList<>(); //Shared nodes being analyzed
+
+      Expression node = rootNode;
+      while(true)
+      {
+         while(node instanceof Operator || (node instanceof Shared && !nodeInfo.containsKey(node)))
+         {
+            if(node instanceof Shared)
+            {
+               open.add((Shared) node);
+               node = ((Shared) node).getNode();
+               continue;
+            }
+
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).getLeftNode();
+         }
+
+         if(!analyzeValue(node))
+            return false;
+
+         Expression finished = node;
+         node = null;
+         while(true)
+         {
+            //A Shared node is a value in the methods that use it.
+            while(!open.isEmpty() && open.get(open.size() - 1).getNode() == finished)
+            {
+               finished = open.remove(open.size() - 1);
+               NodeInfo info = new NodeInfo();
+               info.isInt = nodeInfo.get(((Shared) finished).getNode()).isInt;
+               info.size = 6;
+               nodeInfo.put(finished, info);
+               shared.add((Shared) finished);
+               frameSize = Math.max(frameSize, ((Shared) finished).getIndex() + 1);
+            }
+
+            if(stack.isEmpty())
+               break;
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            finished = stack.pop();
+            if(!analyzeOperator((Operator) finished))
+               return false;
+         }
+
+         if(node == null)
+            return true;
+      }
+   }
+
+   private boolean analyzeValue(Expression node)
+   {
+      if(node.getClass() == Shared.class)
+         return true; //Analyzed when it was finished
+
+      NodeInfo info = new NodeInfo();
+
+      if(node.getClass() == Int.class)
+      {
+         info.isInt = true;
+         info.size = 3;
+      }
+      else if(node.getClass() == Dec.class)
+         info.size = 3;
+      else if(node.getClass() == Variable.class && ((Variable) node).getSlot() >= 0)
+         info.size = 6; //aload, push the slot, daload and dneg
+      else
+         return false;
+
+      nodeInfo.put(node, info);
+      return true;
+   }
+
+   private boolean analyzeOperator(Operator node)
+   {
+      int opcodeSize;
+      if(node.getClass() == Pow.class)
+         opcodeSize = 3;
+      else if(node.getClass() == Add.class || node.getClass() == Sub.class
+            || node.getClass() == Mult.class || node.getClass() == Div.class)
+         opcodeSize = 1;
+      else
+         return false;
+
+      NodeInfo left = nodeInfo.get(node.getLeftNode());
+      NodeInfo right = nodeInfo.get(node.getRightNode());
+
+      NodeInfo info = new NodeInfo();
+      info.isInt = node.isIntOperation() && left.isInt && right.isInt;
+      info.size = left.size + right.size + opcodeSize + (info.isInt ? 0 : 2); //Room for i2d
+
+      //Move the biggest children to their own methods until this one is small enough.
+      while(info.size > METHOD_LIMIT)
+      {
+         Expression child = left.size >= right.size ? node.getLeftNode() : node.getRightNode();
+         NodeInfo childInfo = child == node.getLeftNode() ? left : right;
+
+         childInfo.method = methods.size();
+         methods.add((Operator) child);
+         info.size -= childInfo.size - 5;
+         childInfo.size = 5; //Two aloads and invokestatic
+      }
+
+      nodeInfo.put(node, info);
+      return true;
+   }
+
+   /**
+    * Writes the class file. Returns null if the class would be too big.
+    */
+   private byte[] writeClass(Expression rootNode) throws IOException
+   {
+      constants = new ConstantPool();
+      boolean isInt = nodeInfo.get(rootNode).isInt;
+
+      ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(methodBytes);
+
+      //Constructor
+      ByteArrayOutputStream code = new ByteArrayOutputStream();
+      code.write(ALOAD_0);
+      writeOpcode(code, INVOKESPECIAL, constants.methodref(SUPER_NAME, "<init>", "()V"));
+      code.write(RETURN);
+      writeMethod(out, 0x0001, "<init>", "()V", code.toByteArray(), 1, 1);
+
+      //isInt() if the result is an integer
+      if(isInt)
+      {
+         code.reset();
+         code.write(ICONST_0 + 1);
+         code.write(IRETURN);
+         writeMethod(out, 0x0001, "isInt", "()Z", code.toByteArray(), 1, 1);
+      }
+
+      //evalInt(values) or evalDouble(values) for the whole tree, after the Shared nodes
+      code.reset();
+      int maxStack = 2;
+      if(frameSize > 0)
+      {
+         writePush(code, frameSize);
+         writeOpcode(code, INVOKESTATIC, constants.methodref(SUPER_NAME, "frame", "(I)[D"));
+      }
+      else
+         code.write(ACONST_NULL);
+      code.write(ASTORE_2);
+      for(int i = 0; i < shared.size(); i++)
+      {
+         code.write(ALOAD_0 + 1);
+         code.write(ALOAD_0 + 2);
+         writeOpcode(code, INVOKESTATIC, constants.methodref(CLASS_NAME, sharedName(i), "([D[D)V"));
+      }
+      maxStack = Math.max(maxStack, writeCode(code, rootNode, 1));
+      code.write(isInt ? IRETURN : DRETURN);
+      if(!writeMethod(out, 0x0001, isInt ? "evalInt" : "evalDouble", isInt ? "([D)I" : "([D)D",
+            code.toByteArray(), maxStack, 3))
+         return null;
+
+      //Private static methods for the big subtrees
+      for(int i = 0; i < methods.size(); i++)
+      {
+         code.reset();
+         maxStack = writeCode(code, methods.get(i), 0);
+         code.write(nodeInfo.get(methods.get(i)).isInt ? IRETURN : DRETURN);
+         if(!writeMethod(out, 0x000a, methodName(i), descriptor(methods.get(i)), code.toByteArray(), maxStack, 2))
+            return null;
+      }
+
+      //Private static methods that keep the answers of the Shared nodes in the frame
+      for(int i = 0; i < shared.size(); i++)
+      {
+         Shared node = shared.get(i);
+         code.reset();
+         code.write(ALOAD_0 + 1);
+         writePush(code, node.getIndex());
+         maxStack = 2 + Math.max(2, writeCode(code, node.getNode(), 0));
+         if(nodeInfo.get(node).isInt)
+            code.write(I2D);
+         code.write(DASTORE);
+         code.write(RETURN);
+         if(!writeMethod(out, 0x000a, sharedName(i), "([D[D)V", code.toByteArray(), maxStack, 2))
+            return null;
+      }
+
+      int thisClass = constants.classRef(CLASS_NAME);
+      int superClass = constants.classRef(SUPER_NAME);
+      int methodCount = 2 + (isInt ? 1 : 0) + methods.size() + shared.size();
+
+      if(constants.count() > CLASS_LIMIT || methodCount > CLASS_LIMIT)
+         return null;
+
+      ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+      out = new DataOutputStream(classBytes);
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(65); //Java 21
+      constants.write(out);
+      out.writeShort(0x0031); //public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); //Interfaces
+      out.writeShort(0); //Fields
+      out.writeShort(methodCount);
+      methodBytes.writeTo(out);
+      out.writeShort(0); //Attributes
+
+      return classBytes.toByteArray();
+   }
+
+   /**
+    * Writes one method. Returns false if the code is too long for a method.
+    */
+   private boolean writeMethod(DataOutputStream out, int access, String name, String descriptor,
+         byte[] code, int maxStack, int maxLocals) throws IOException
+   {
+      if(code.length > CLASS_LIMIT)
+         return false;
+
+      out.writeShort(access);
+      out.writeShort(constants.utf8(name));
+      out.writeShort(constants.utf8(descriptor));
+      out.writeShort(1); //Attributes
+
+      out.writeShort(constants.utf8("Code"));
+      out.writeInt(12 + code.length);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(code.length);
+      out.write(code);
+      out.writeShort(0); //Exception table
+      out.writeShort(0); //Attributes
+      return true;
+   }
+
+   /**
+    * Writes the code that pushes the value of the tree below methodRoot, in the same order
+    * calculate() visits the nodes.
+    * @param values Local of the values, which is followed by the local of the frame.
+    * @return The most stack slots the code uses.
+    */
+   private int writeCode(ByteArrayOutputStream code, Expression methodRoot, int values)
+   {
+      NodeStack stack = new NodeStack();
+      int depth = 0;
+      int maxDepth = 0;
+
+      Expression node = methodRoot;
+      while(true)
+      {
+         //Subtrees with their own method are values here.
+         while(node instanceof Operator && (node == methodRoot || nodeInfo.get(node).method < 0))
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).getLeftNode();
+         }
+
+         writeValue(code, node, values);
+         maxDepth = Math.max(maxDepth, depth + 2); //Arrays and indexes take up to two slots
+         depth += slots(node);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            Operator operator = stack.peek();
+            boolean isInt = nodeInfo.get(operator).isInt;
+
+            if(stack.visit() == 1)
+            {
+               if(!isInt && nodeInfo.get(operator.getLeftNode()).isInt)
+               {
+                  code.write(I2D);
+                  depth++;
+               }
+
+               node = operator.getRightNode();
+               break;
+            }
+
+            if(!isInt && nodeInfo.get(operator.getRightNode()).isInt)
+            {
+               code.write(I2D);
+               depth++;
+               maxDepth = Math.max(maxDepth, depth);
+            }
+
+            writeOperator(code, stack.pop(), isInt);
+            depth -= isInt ? 1 : 2;
+         }
+
+         if(node == null)
+            return maxDepth;
+      }
+   }
+
+   private void writeValue(ByteArrayOutputStream code, Expression node, int values)
+   {
+      NodeInfo info = nodeInfo.get(node);
+
+      if(info.method >= 0)
+      {
+         code.write(ALOAD_0 + values);
+         code.write(ALOAD_0 + values + 1);
+         writeOpcode(code, INVOKESTATIC, constants.methodref(CLASS_NAME, methodName(info.method), descriptor(node)));
+      }
+      else if(node instanceof Int)
+         writePush(code, ((Int) node).getValue());
+      else if(node instanceof Variable)
+      {
+         code.write(ALOAD_0 + values);
+         writePush(code, ((Variable) node).getSlot());
+         code.write(DALOAD);
+         if(((Variable) node).isNegative())
+            code.write(DNEG);
+      }
+      else if(node instanceof Shared)
+      {
+         code.write(ALOAD_0 + values + 1);
+         writePush(code, ((Shared) node).getIndex());
+         code.write(DALOAD);
+         if(info.isInt)
+            code.write(D2I);
+      }
+      else
+      {
+         double value = ((Dec) node).getValue();
+         if(Double.doubleToRawLongBits(value) == 0)
+            code.write(DCONST_0);
+         else if(value == 1.0)
+            code.write(DCONST_1);
+         else
+            writeOpcode(code, LDC2_W, constants.decimal(value));
+      }
+   }
+
+   private void writePush(ByteArrayOutputStream code, int value)
+   {
+      if(value >= -1 && value <= 5)
+         code.write(ICONST_0 + value);
+      else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+      {
+         code.write(BIPUSH);
+         code.write(value);
+      }
+      else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+         writeOpcode(code, SIPUSH, value);
+      else
+         writeConstant(code, constants.integer(value));
+   }
+
+   private void writeConstant(ByteArrayOutputStream code, int index)
+   {
+      if(index <= 0xff)
+      {
+         code.write(LDC);
+         code.write(index);
+      }
+      else
+         writeOpcode(code, LDC_W, index);
+   }
+
+   private void writeOperator(ByteArrayOutputStream code, Operator operator, boolean isInt)
+   {
+      if(operator instanceof Add)
+         code.write(isInt ? IADD : DADD);
+      else if(operator instanceof Sub)
+         code.write(isInt ? ISUB : DSUB);
+      else if(operator instanceof Mult)
+         code.write(isInt ? IMUL : DMUL);
+      else if(operator instanceof Div)
+         code.write(DDIV);
+      else
+         writeOpcode(code, INVOKESTATIC, constants.methodref("mathNode/Pow", "power", "(DD)D"));
+   }
+
+   private static void writeOpcode(ByteArrayOutputStream code, int opcode, int operand)
+   {
+      code.write(opcode);
+      code.write(operand >> 8);
+      code.write(operand);
+   }
+
+   private int slots(Expression node) { return nodeInfo.get(node).isInt ? 1 : 2; }
+
+   private String descriptor(Expression node) { return nodeInfo.get(node).isInt ? "([D[D)I" : "([D[D)D"; }
+
+   private static String methodName(int method) { return "subtree" + method; }
+
+   private static String sharedName(int index) { return "shared" + index; }
+
+   /**
+    * The constant pool of the class being written. Each constant is only added once.
+    */
+   private static class ConstantPool
+   {
+      private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      private DataOutputStream out = new DataOutputStream(bytes);
+      private HashMap<Object, Integer> indexes = new HashMap<>();
+      private int next = 1;
+
+      int utf8(String str)
+      {
+         Integer index = indexes.get(str);
+         if(index != null)
+            return index;
+
+         try {
+            out.writeByte(1);
+            out.writeUTF(str);
+         } catch(IOException e) {
+            throw new IllegalStateException(e);
+         }
+         return add(str, 1);
+      }
+
+      int integer(int value)
+      {
+         Integer index = indexes.get(value);
+         if(index != null)
+            return index;
+
+         try {
+            out.writeByte(3);
+            out.writeInt(value);
+         } catch(IOException e) {
+            throw new IllegalStateException(e);
+         }
+         return add(value, 1);
+      }
+
+      int decimal(double value)
+      {
+         //Keyed by bits, so -0.0 and 0.0 or different NaNs are not mixed up.
+         Long bits = Double.doubleToRawLongBits(value);
+         Integer index = indexes.get(bits);
+         if(index != null)
+            return index;
+
+         try {
+            out.writeByte(6);
+            out.writeLong(bits);
+         } catch(IOException e) {
+            throw new IllegalStateException(e);
+         }
+         return add(bits, 2);
+      }
+
+      int classRef(String name)
+      {
+         String key = "Class " + name;
+         Integer index = indexes.get(key);
+         if(index != null)
+            return index;
+
+         int nameIndex = utf8(name);
+         try {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+         } catch(IOException e) {
+            throw new IllegalStateException(e);
+         }
+         return add(key, 1);
+      }
+
+      int methodref(String owner, String name, String descriptor)
+      {
+         String key = "Method " + owner + "." + name + descriptor;
+         Integer index = indexes.get(key);
+         if(index != null)
+            return index;
+
+         int classIndex = classRef(owner);
+         int nameIndex = utf8(name);
+         int descriptorIndex = utf8(descriptor);
+         try {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            int nameAndType = next++;
+            out.writeByte(10);
+            out.writeShort(classIndex);
+            out.writeShort(nameAndType);
+         } catch(IOException e) {
+            throw new IllegalStateException(e);
+         }
+         return add(key, 1);
+      }
+
+      int count() { return next; }
+
+      void write(DataOutputStream classOut) throws IOException
+      {
+         classOut.writeShort(next);
+         bytes.writeTo(classOut);
+      }
+
+      private int add(Object key, int slots)
+      {
+         int index = next;
+         indexes.put(key, index);
+         next += slots;
+         return index;
+      }
+   }
+}
@@ -0,0 +1,300 @@
+package mathNode;
+import java.util.Arrays;
+
+/**
+ * Compiles trees of math nodes into trees of lambdas. Every node becomes an IntNode
+ * or a DoubleNode made for its operator and the types of its values, so each lambda
+ * does one kind of math with no type checks and the JIT can inline through it. Making
+ * lambdas costs much less than defining a class, so this suits expressions that are
+ * calculated hundreds of times. The BytecodeCompiler is faster for ones calculated
+ * millions of times.
+ * <p>
+ * Variables read the array of values they are given. The first time a Shared node is
+ * reached its lambda keeps the answer in a frame, and the other places it appears read
+ * the frame, like the Evaluator does.
+ * <p>
+ * The lambdas call each other, so trees deeper than MAX_DEPTH are not compiled.
+ * @author kevinrobell
+ *
+ */
+public class ClosureCompiler
+{
+   public static final int MAX_DEPTH = 1000;
+
+   /**
+    * A node with an integer answer.
+    */
+   private interface IntNode
+   {
+      int eval(double[] values, double[] frame);
+   }
+
+   /**
+    * A node with a decimal answer.
+    */
+   private interface DoubleNode
+   {
+      double eval(double[] values, double[] frame);
+   }
+
+   /**
+    * Compiles the tree below rootNode.
+    * @param rootNode Root of a tree that passes checkTree().
+    * @return CompiledExpression or null if the tree is too deep or has nodes that are not
+    * known.
+    */
+   public CompiledExpression compile(Expression rootNode)
+   {
+      if(!rootNode.checkTree())
+         throw new IllegalArgumentException("The tree is not complete");
+
+      NodeStack stack = new NodeStack();
+      Object[] values = new Object[16]; //Lambdas of finished nodes waiting for their operator
+      int size = 0;
+
+      //Lambdas that keep the answers of Shared nodes by index, and the Shared nodes that
+      //are being compiled.
+      Object[] stored = new Object[0];
+      Shared[] open = new Shared[4];
+      int openCount = 0;
+
+      Expression node = rootNode;
+      while(true)
+      {
+         while(node instanceof Operator || (node instanceof Shared && !isStored(stored, (Shared) node)))
+         {
+            if(node instanceof Shared)
+            {
+               if(openCount == open.length)
+                  open = Arrays.copyOf(open, openCount * 2);
+               open[openCount++] = (Shared) node;
+               node = ((Shared) node).getNode();
+               continue;
+            }
+
+            stack.push((Operator) node);
+            stack.visit();
+            if(stack.size() + openCount >= MAX_DEPTH)
+               return null;
+            node = ((Operator) node).getLeftNode();
+         }
+
+         Object value = compileValue(node, stored);
+         if(value == null)
+            return null;
+         if(size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+         values[size++] = value;
+
+         Expression finished = node;
+         node = null;
+         while(true)
+         {
+            //Keep the answers of the Shared nodes whose subtree is finished.
+            while(openCount > 0 && open[openCount - 1].getNode() == finished)
+            {
+               Shared shared = open[--openCount];
+               values[size - 1] = compileStore(shared.getIndex(), values[size - 1]);
+               if(shared.getIndex() >= stored.length)
+                  stored = Arrays.copyOf(stored, Math.max(shared.getIndex() + 1, stored.length * 2));
+               stored[shared.getIndex()] = values[size - 1];
+               finished = shared;
+            }
+
+            if(stack.isEmpty())
+               break;
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            Operator operator = stack.pop();
+            size--;
+            values[size - 1] = compileOperator(operator, values[size - 1], values[size]);
+            if(values[size - 1] == null)
+               return null;
+            finished = operator;
+         }
+
+         if(node == null)
+            return new ClosureExpression(values[0], stored.length);
+      }
+   }
+
+   private static boolean isStored(Object[] stored, Shared node)
+   {
+      return node.getIndex() < stored.length && stored[node.getIndex()] != null;
+   }
+
+   private static Object compileValue(Expression node, Object[] stored)
+   {
+      if(node.getClass() == Int.class)
+      {
+         int value = ((Int) node).getValue();
+         return (IntNode) (values, frame) -> value;
+      }
+      else if(node.getClass() == Dec.class)
+      {
+         double value = ((Dec) node).getValue();
+         return (DoubleNode) (values, frame) -> value;
+      }
+      else if(node.getClass() == Variable.class && ((Variable) node).getSlot() >= 0)
+      {
+         int slot = ((Variable) node).getSlot();
+         if(((Variable) node).isNegative())
+            return (DoubleNode) (values, frame) -> -values[slot];
+         return (DoubleNode) (values, frame) -> values[slot];
+      }
+      else if(node.getClass() == Shared.class)
+      {
+         int index = ((Shared) node).getIndex();
+         if(stored[index] instanceof IntNode)
+            return (IntNode) (values, frame) -> (int) frame[index];
+         return (DoubleNode) (values, frame) -> frame[index];
+      }
+      else
+         return null;
+   }
+
+   /**
+    * @return A lambda that keeps the answer of value at index in the frame.
+    */
+   private static Object compileStore(int index, Object value)
+   {
+      if(value instanceof IntNode)
+      {
+         IntNode node = (IntNode) value;
+         return (IntNode) (values, frame) -> {
+            int answer = node.eval(values, frame);
+            frame[index] = answer;
+            return answer;
+         };
+      }
+
+      DoubleNode node = (DoubleNode) value;
+      return (DoubleNode) (values, frame) -> {
+         double answer = node.eval(values, frame);
+         frame[index] = answer;
+         return answer;
+      };
+   }
+
+   private static Object compileOperator(Operator operator, Object left, Object right)
+   {
+      boolean leftInt = left instanceof IntNode;
+      boolean rightInt = right instanceof IntNode;
+
+      if(leftInt && rightInt)
+         return compileInts(operator, (IntNode) left, (IntNode) right);
+      else if(leftInt)
+         return compileIntDouble(operator, (IntNode) left, (DoubleNode) right);
+      else if(rightInt)
+         return compileDoubleInt(operator, (DoubleNode) left, (IntNode) right);
+      else
+         return compileDoubles(operator, (DoubleNode) left, (DoubleNode) right);
+   }
+
+   private static Object compileInts(Operator operator, IntNode left, IntNode right)
+   {
+      Class<?> type = operator.getClass();
+      if(type == Add.class)
+         return (IntNode) (values, frame) -> left.eval(values, frame) + right.eval(values, frame);
+      else if(type == Sub.class)
+         return (IntNode) (values, frame) -> left.eval(values, frame) - right.eval(values, frame);
+      else if(type == Mult.class)
+         return (IntNode) (values, frame) -> left.eval(values, frame) * right.eval(values, frame);
+      else if(type == Div.class)
+         return (DoubleNode) (values, frame) -> (double) left.eval(values, frame) / right.eval(values, frame);
+      else if(type == Pow.class)
+         return (DoubleNode) (values, frame) -> Pow.power(left.eval(values, frame), right.eval(values, frame));
+      else
+         return null;
+   }
+
+   private static Object compileIntDouble(Operator operator, IntNode left, DoubleNode right)
+   {
+      Class<?> type = operator.getClass();
+      if(type == Add.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) + right.eval(values, frame);
+      else if(type == Sub.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) - right.eval(values, frame);
+      else if(type == Mult.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) * right.eval(values, frame);
+      else if(type == Div.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) / right.eval(values, frame);
+      else if(type == Pow.class)
+         return (DoubleNode) (values, frame) -> Pow.power(left.eval(values, frame), right.eval(values, frame));
+      else
+         return null;
+   }
+
+   private static Object compileDoubleInt(Operator operator, DoubleNode left, IntNode right)
+   {
+      Class<?> type = operator.getClass();
+      if(type == Add.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) + right.eval(values, frame);
+      else if(type == Sub.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) - right.eval(values, frame);
+      else if(type == Mult.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) * right.eval(values, frame);
+      else if(type == Div.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) / right.eval(values, frame);
+      else if(type == Pow.class)
+         return (DoubleNode) (values, frame) -> Pow.power(left.eval(values, frame), right.eval(values, frame));
+      else
+         return null;
+   }
+
+   private static Object compileDoubles(Operator operator, DoubleNode left, DoubleNode right)
+   {
+      Class<?> type = operator.getClass();
+      if(type == Add.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) + right.eval(values, frame);
+      else if(type == Sub.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) - right.eval(values, frame);
+      else if(type == Mult.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) * right.eval(values, frame);
+      else if(type == Div.class)
+         return (DoubleNode) (values, frame) -> left.eval(values, frame) / right.eval(values, frame);
+      else if(type == Pow.class)
+         return (DoubleNode) (values, frame) -> Pow.power(left.eval(values, frame), right.eval(values, frame));
+      else
+         return null;
+   }
+
+   /**
+    * The lambda of the root node.
+    */
+   private static class ClosureExpression extends CompiledExpression
+   {
+      private final IntNode intRoot;
+      private final DoubleNode doubleRoot;
+      private final int frameSize; //Number of Shared answers
+
+      ClosureExpression(Object root, int frameSize)
+      {
+         intRoot = root instanceof IntNode ? (IntNode) root : null;
+         doubleRoot = intRoot == null ? (DoubleNode) root : null;
+         this.frameSize = frameSize;
+      }
+
+      public boolean isInt() { return intRoot != null; }
+
+      public int evalInt(double[] values)
+      {
+         if(intRoot == null)
+            return super.evalInt(values);
+         return intRoot.eval(values, frame());
+      }
+
+      public double evalDouble(double[] values)
+      {
+         if(intRoot != null)
+            return intRoot.eval(values, frame());
+         return doubleRoot.eval(values, frame());
+      }
+
+      private double[] frame() { return frameSize == 0 ? null : frame(frameSize); }
+   }
+}
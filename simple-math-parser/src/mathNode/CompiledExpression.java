@@ -0,0 +1,84 @@
+package mathNode;
+
+/**
+ * A math expression compiled by the BytecodeCompiler or the ClosureCompiler. Subclasses
+ * override evalInt(values) and isInt() if the result is an integer, or
+ * evalDouble(values) if it is not. Variables get their values from an array that is
+ * indexed by their slots, so an expression without variables can be calculated with
+ * the methods that take no values. Compiled expressions do not change, so they can be
+ * used by any number of threads.
+ * @author kevinrobell
+ *
+ */
+public abstract class CompiledExpression
+{
+   private static final double[] NO_VALUES = new double[0];
+
+   //Answers of the Shared nodes of the expression being calculated on each thread.
+   private static final ThreadLocal<double[]> FRAMES = ThreadLocal.withInitial(() -> new double[16]);
+
+   /**
+    * @return Whether the result is an integer.
+    */
+   public boolean isInt() { return false; }
+
+   /**
+    * @return The result if it is an integer.
+    */
+   public int evalInt() { return evalInt(NO_VALUES); }
+
+   /**
+    * @param values Values of the variables by slot.
+    * @return The result if it is an integer.
+    */
+   public int evalInt(double[] values)
+   {
+      throw new UnsupportedOperationException("The result is not an integer");
+   }
+
+   /**
+    * @return The result as a double.
+    */
+   public double evalDouble() { return evalDouble(NO_VALUES); }
+
+   /**
+    * @param values Values of the variables by slot.
+    * @return The result as a double.
+    */
+   public double evalDouble(double[] values) { return evalInt(values); }
+
+   /**
+    * @return Number The boxed value of Integer or Double, like Expression.calculate().
+    */
+   public Number calculate() { return calculate(NO_VALUES); }
+
+   /**
+    * @param values Values of the variables by slot.
+    * @return Number The boxed value of Integer or Double.
+    */
+   public Number calculate(double[] values)
+   {
+      if(isInt())
+         return evalInt(values);
+      else
+         return evalDouble(values);
+   }
+
+   /**
+    * Gives the calling thread's array for the answers of Shared nodes, so calculating an
+    * expression with Shared nodes allocates nothing. An integer answer is kept as a
+    * double, which holds every int exactly.
+    * @param size Number of answers.
+    * @return double[] of at least size.
+    */
+   static double[] frame(int size)
+   {
+      double[] frame = FRAMES.get();
+      if(frame.length < size)
+      {
+         frame = new double[Math.max(size, frame.length * 2)];
+         FRAMES.set(frame);
+      }
+      return frame;
+   }
+}
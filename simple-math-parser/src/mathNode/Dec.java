@@ -1,4 +1,5 @@
 package mathNode;
+import java.io.IOException;
 
 /**
  * Node that holds decimal values.
@@ -11,18 +12,33 @@ public class Dec extends Expression
    
    public Dec(double value) { this.value = value; }
 
+   public double getValue() { return value; }
+
    public Number calculate() { return value; }
 
-   public String toString() 
-   { 
-      String str = Double.toString(value); 
-      
+   public void render(Appendable out) throws IOException
+   {
       if(isParens())
-         return '(' + str + ')';
+         out.append('(').append(Double.toString(value)).append(')');
       else
-         return str;
+         out.append(Double.toString(value));
+   }
+   
+   /**
+    * Decimals are equal if their values have the same bits, like Double.equals(), and
+    * they have the same parenthesis.
+    */
+   @Override
+   public boolean equals(Object other)
+   {
+      return other != null && other.getClass() == Dec.class
+            && Double.doubleToLongBits(((Dec) other).value) == Double.doubleToLongBits(value)
+            && ((Dec) other).parenthesis == parenthesis;
    }
    
+   @Override
+   public int hashCode() { return 31 * Double.hashCode(value) + (parenthesis ? 1 : 0); }
+   
    @Override
    public Object clone() throws CloneNotSupportedException
    {
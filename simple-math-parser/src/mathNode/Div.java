@@ -9,27 +9,17 @@ public class Div extends Operator
 {
    public Div() { precedence = 2; }
    
-   public Number calculate()
-   {
-      return getLeftNode().calculate().doubleValue() / getRightNode().calculate().doubleValue();
-   }
+   public char getSymbol() { return '/'; }
    
-   public String toString()
+   protected double combine(double leftNum, double rightNum)
    {
-      String str = getLeftNode().toString() + " / " + getRightNode().toString();
-      
-      if(isParens())
-         return '(' + str + ')';
-      else
-         return str;
+      return leftNum / rightNum;
    }
    
-   @Override
-   public Object clone() throws CloneNotSupportedException
+   protected void combine(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
    {
-      Div clone = (Div) super.clone();
-      clone.setLeftNode((Expression) this.getLeftNode().clone());
-      clone.setRightNode((Expression) this.getRightNode().clone());
-      return clone;
+      for(int i = 0; i < count; i++)
+         out[outStart + i] = left[leftStart + i] / right[rightStart + i];
    }
 }
@@ -0,0 +1,228 @@
+package mathNode;
+import java.util.Arrays;
+
+/**
+ * Calculates trees of math nodes without boxing. Values wait on primitive stacks with
+ * a flag that tells if they are integers, so integer math stays integer math exactly
+ * like calculate() does it, and nothing is allocated once the stacks are big enough.
+ * Variables get their values from an array that is indexed by their slots. The
+ * subtree of a Shared node is calculated the first time it is reached, and its answer
+ * is used again for the other places it appears in the same evaluate(). An Evaluator
+ * can be used again for any number of trees, but not by two threads at the same time.
+ * @author kevinrobell
+ *
+ */
+public class Evaluator
+{
+   public static final int INT = 0;
+   public static final int DOUBLE = 1;
+
+   private NodeStack stack = new NodeStack();
+
+   //Values of finished nodes waiting for their operator.
+   private int[] ints = new int[16];
+   private double[] doubles = new double[16];
+   private boolean[] isInt = new boolean[16];
+   private int size = 0;
+
+   private double[] values;
+
+   //Answers of Shared nodes by index. An answer is from this evaluate() if its stamp is.
+   private int[] sharedInts = new int[0];
+   private double[] sharedDoubles = new double[0];
+   private boolean[] sharedIsInt = new boolean[0];
+   private int[] stamps = new int[0];
+   private int stamp = 0;
+
+   //Shared nodes being calculated, with the size of the stack when they were reached.
+   private int[] pendingIndexes = new int[4];
+   private int[] pendingDepths = new int[4];
+   private int pendingCount = 0;
+
+   /**
+    * Calculates the tree below rootNode. Get the result with getInt() or getDouble().
+    * @param rootNode
+    * @return INT if the result is an integer or DOUBLE if it is not.
+    */
+   public int evaluate(Expression rootNode)
+   {
+      return evaluate(rootNode, null);
+   }
+
+   /**
+    * Calculates the tree below rootNode with the values of its variables. Get the result
+    * with getInt() or getDouble().
+    * @param rootNode Root of a tree whose variables have slots.
+    * @param values Values of the variables by slot.
+    * @return INT if the result is an integer or DOUBLE if it is not.
+    */
+   public int evaluate(Expression rootNode, double[] values)
+   {
+      this.values = values;
+      stack.clear();
+      size = 0;
+      pendingCount = 0;
+      if(++stamp == 0)
+      {
+         //Old stamps could look new after it wraps around.
+         Arrays.fill(stamps, 0);
+         stamp = 1;
+      }
+
+      Expression node = rootNode;
+      while(true)
+      {
+         //Go down the left side to a value, into Shared nodes that are not calculated yet.
+         while(true)
+         {
+            if(node instanceof Operator)
+            {
+               stack.push((Operator) node);
+               stack.visit();
+               node = ((Operator) node).getLeftNode();
+            }
+            else if(node instanceof Shared && !isCalculated((Shared) node))
+            {
+               beginShared((Shared) node);
+               node = ((Shared) node).getNode();
+            }
+            else
+               break;
+         }
+
+         pushValue(node);
+         endShared();
+
+         //Combine every operator whose right side is done, then go down the next right side.
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            combine(stack.pop());
+            endShared();
+         }
+
+         if(node == null)
+            return isInt[0] ? INT : DOUBLE;
+      }
+   }
+
+   /**
+    * @return The result of the last evaluate() if it was INT.
+    */
+   public int getInt() { return ints[0]; }
+
+   /**
+    * @return The result of the last evaluate() as a double.
+    */
+   public double getDouble() { return value(0); }
+
+   private void pushValue(Expression node)
+   {
+      if(size == ints.length)
+      {
+         ints = Arrays.copyOf(ints, size * 2);
+         doubles = Arrays.copyOf(doubles, size * 2);
+         isInt = Arrays.copyOf(isInt, size * 2);
+      }
+
+      if(node instanceof Int)
+      {
+         ints[size] = ((Int) node).getValue();
+         isInt[size] = true;
+      }
+      else if(node instanceof Dec)
+      {
+         doubles[size] = ((Dec) node).getValue();
+         isInt[size] = false;
+      }
+      else if(node instanceof Variable && values != null)
+      {
+         doubles[size] = ((Variable) node).getValue(values);
+         isInt[size] = false;
+      }
+      else if(node instanceof Shared)
+      {
+         int index = ((Shared) node).getIndex();
+         ints[size] = sharedInts[index];
+         doubles[size] = sharedDoubles[index];
+         isInt[size] = sharedIsInt[index];
+      }
+      else
+      {
+         //Other kinds of nodes only have calculate().
+         Number num = node.calculate();
+         isInt[size] = num instanceof Integer;
+         if(isInt[size])
+            ints[size] = num.intValue();
+         else
+            doubles[size] = num.doubleValue();
+      }
+
+      size++;
+   }
+
+   private void combine(Operator operator)
+   {
+      size--;
+      int left = size - 1;
+
+      if(isInt[left] && isInt[size] && operator.isIntOperation())
+         ints[left] = operator.combine(ints[left], ints[size]);
+      else
+      {
+         doubles[left] = operator.combine(value(left), value(size));
+         isInt[left] = false;
+      }
+   }
+
+   private double value(int index) { return isInt[index] ? ints[index] : doubles[index]; }
+
+   private boolean isCalculated(Shared node)
+   {
+      return node.getIndex() < stamps.length && stamps[node.getIndex()] == stamp;
+   }
+
+   private void beginShared(Shared node)
+   {
+      if(pendingCount == pendingIndexes.length)
+      {
+         pendingIndexes = Arrays.copyOf(pendingIndexes, pendingCount * 2);
+         pendingDepths = Arrays.copyOf(pendingDepths, pendingCount * 2);
+      }
+
+      pendingIndexes[pendingCount] = node.getIndex();
+      pendingDepths[pendingCount] = stack.size();
+      pendingCount++;
+   }
+
+   /**
+    * Keeps the answers of the Shared nodes whose subtree was just finished, which is when
+    * the stack is back to the size it had when they were reached.
+    */
+   private void endShared()
+   {
+      while(pendingCount > 0 && pendingDepths[pendingCount - 1] == stack.size())
+      {
+         int index = pendingIndexes[--pendingCount];
+         if(index >= stamps.length)
+         {
+            int length = Math.max(index + 1, stamps.length * 2);
+            sharedInts = Arrays.copyOf(sharedInts, length);
+            sharedDoubles = Arrays.copyOf(sharedDoubles, length);
+            sharedIsInt = Arrays.copyOf(sharedIsInt, length);
+            stamps = Arrays.copyOf(stamps, length);
+         }
+
+         sharedInts[index] = ints[size - 1];
+         sharedDoubles[index] = doubles[size - 1];
+         sharedIsInt[index] = isInt[size - 1];
+         stamps[index] = stamp;
+      }
+   }
+}
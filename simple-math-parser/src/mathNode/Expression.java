@@ -1,4 +1,5 @@
 package mathNode;
+import java.io.IOException;
 
 /**
  * Abstract expression node class.
@@ -13,18 +14,45 @@ public abstract class Expression implements Cloneable
    public boolean isParens() { return parenthesis; }
    
    /**
-    * The calculate expression works recursively down the tree.
+    * The calculate expression works down the tree. Operators walk their
+    * subtree with an explicit stack, so deep trees do not overflow the thread stack.
     * @return Number The boxed value of Integer or Double based upon previous expression.
     */
    abstract public Number calculate();
-   abstract public String toString();
+
+   /**
+    * Writes the expression to out the way it would be typed, with its parenthesis.
+    * Subclasses override either this or toString().
+    * @param out
+    * @throws IOException If out throws it.
+    */
+   public void render(Appendable out) throws IOException { out.append(toString()); }
+
+   /**
+    * Renders the expression into a new StringBuilder.
+    */
+   public String toString()
+   {
+      StringBuilder str = new StringBuilder();
+      try
+      {
+         render(str);
+      }
+      catch(IOException e)
+      {
+         //A StringBuilder does not throw it.
+         throw new IllegalStateException(e);
+      }
+      return str.toString();
+   }
+
    public Object clone() throws CloneNotSupportedException
    {
       return (Expression) super.clone();
    }
    
    /**
-    * A recursive method to check if the tree is constructed correctly.
+    * Checks if the tree is constructed correctly.
     * @return boolean
     */
    abstract public boolean checkTree();
@@ -7,6 +7,8 @@ package mathNode;
  */
 public class Factory implements Cloneable
 {
+   private LiteralParser literalParser = new LiteralParser();
+   
    /**
     * Builds mathNode.Expression. If token is invalid, it returns null.
     * @param token
@@ -14,25 +16,41 @@ public class Factory implements Cloneable
     */
    public Expression buildNode(String token)
    {
-      if(token.length() == 1)
+      return buildNode(token, 0, token.length());
+   }
+   
+   /**
+    * Builds mathNode.Expression from the characters of text from start up to but not
+    * including end. Literals are classified by LiteralParser, so no String or exception
+    * is created for them. Other tokens that are names become Variables. If token is
+    * invalid, it returns null.
+    * @param text
+    * @param start
+    * @param end
+    * @return mathNode.Expression or null.
+    */
+   public Expression buildNode(CharSequence text, int start, int end)
+   {
+      if(end - start == 1)
       {
-         Expression newNode = buildNode(token.charAt(0));
+         Expression newNode = buildNode(text.charAt(start));
          if(newNode != null) { return newNode; }
       }
-      
-      try {
-         int numInt = Integer.parseInt(token);
-         return buildNode(numInt);
-      } catch(NumberFormatException e1) {
-         try {
-            double numDub = Double.parseDouble(token);
-            return buildNode(numDub);
-         } catch(NumberFormatException e2) {
-            return null;
-         }
+
+      switch(literalParser.parse(text, start, end))
+      {
+         case LiteralParser.INT: return buildNode(literalParser.getInt());
+         case LiteralParser.LONG: 
+         case LiteralParser.DOUBLE: return buildNode(literalParser.getDouble());
+         default: break;
       }
+
+      if(Variable.isName(text, start, end))
+         return new Variable(text.subSequence(start, end).toString());
+      else
+         return null;
    }
-   
+
    /**
     * Builds mathNode.Expression. If char is invalid, it returns null.
     * @param token
@@ -66,6 +84,8 @@ public class Factory implements Cloneable
    public Expression buildNode(double num) { return new Dec(num); }
    public Object clone() throws CloneNotSupportedException
    {
-      return (Factory) super.clone();
+      Factory clone = (Factory) super.clone();
+      clone.literalParser = new LiteralParser();
+      return clone;
    }
 }
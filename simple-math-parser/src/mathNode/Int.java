@@ -1,4 +1,5 @@
 package mathNode;
+import java.io.IOException;
 
 /**
  * Node that holds integer values.
@@ -11,18 +12,31 @@ public class Int extends Expression
    
    public Int(int value) { this.value = value; }
 
+   public int getValue() { return value; }
+
    public Number calculate() { return value; }
 
-   public String toString() 
-   { 
-      String str = Integer.toString(value); 
-      
+   public void render(Appendable out) throws IOException
+   {
       if(isParens())
-         return '(' + str + ')';
+         out.append('(').append(Integer.toString(value)).append(')');
       else
-         return str;
+         out.append(Integer.toString(value));
+   }
+   
+   /**
+    * Integers are equal if they have the same value and parenthesis.
+    */
+   @Override
+   public boolean equals(Object other)
+   {
+      return other != null && other.getClass() == Int.class && ((Int) other).value == value
+            && ((Int) other).parenthesis == parenthesis;
    }
    
+   @Override
+   public int hashCode() { return 31 * Integer.hashCode(value) + (parenthesis ? 1 : 0); }
+   
    @Override
    public Object clone() throws CloneNotSupportedException
    {
@@ -0,0 +1,94 @@
+package mathNode;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table of trees that lets equal subtrees of many trees be one node. intern() gives a
+ * tree equal to the given one whose subtrees are the ones already in the table, and adds
+ * the subtrees that are new. Like the PathCopier, an operator is only copied if one of
+ * its sides was replaced by a node from the table, and the given tree is never changed.
+ * <p>
+ * The trees that come out are not trees anymore: the same node can be below many
+ * operators, in one tree or in many. Nothing that walks a tree changes it, and operators
+ * are sealed when they are added to the table, so this is safe. The table keeps every
+ * node it was given until clear() is called. It can be shared between threads.
+ * @author kevinrobell
+ *
+ */
+public class Interner
+{
+   private ConcurrentHashMap<Expression, Expression> table = new ConcurrentHashMap<>();
+
+   /**
+    * @param rootNode Root of a tree that passes checkTree().
+    * @return The root of the equal tree that uses the nodes in the table.
+    */
+   public Expression intern(Expression rootNode)
+   {
+      NodeStack stack = new NodeStack();
+      Expression[] nodes = new Expression[16]; //Interned nodes waiting for their operator
+      int size = 0;
+
+      Expression node = rootNode;
+      while(true)
+      {
+         while(node instanceof Operator)
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).getLeftNode();
+         }
+
+         if(size == nodes.length)
+            nodes = Arrays.copyOf(nodes, size * 2);
+         nodes[size++] = lookUp(node);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            Operator operator = stack.pop();
+            size--;
+            Expression leftNode = nodes[size - 1];
+            Expression rightNode = nodes[size];
+            nodes[size] = null;
+
+            //The sides are from the table, so they are compared by reference when looking up.
+            if(leftNode != operator.getLeftNode() || rightNode != operator.getRightNode())
+            {
+               operator = operator.copy();
+               operator.setLeftNode(leftNode);
+               operator.setRightNode(rightNode);
+            }
+            nodes[size - 1] = lookUp(operator);
+         }
+
+         if(node == null)
+            return nodes[0];
+      }
+   }
+
+   /**
+    * @return The number of different subtrees in the table.
+    */
+   public int size() { return table.size(); }
+
+   /**
+    * Forgets all nodes. Trees that were interned keep sharing their nodes.
+    */
+   public void clear() { table.clear(); }
+
+   private Expression lookUp(Expression node)
+   {
+      //Nodes in the table are shared, so new operators are sealed like checked trees.
+      if(node instanceof Operator)
+         ((Operator) node).seal();
+      Expression found = table.putIfAbsent(node, node);
+      return found == null ? node : found;
+   }
+}
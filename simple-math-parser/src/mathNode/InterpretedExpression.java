@@ -0,0 +1,70 @@
+package mathNode;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+
+/**
+ * Stands in for compiled code when a tree cannot be compiled, for example because it
+ * has nodes the BytecodeCompiler does not know or would not fit in a class file. It
+ * calculates the tree with a new Evaluator every time, so it is still thread safe.
+ * @author kevinrobell
+ *
+ */
+class InterpretedExpression extends CompiledExpression
+{
+   private Expression rootNode;
+   private boolean isInt;
+
+   public InterpretedExpression(Expression rootNode)
+   {
+      this.rootNode = rootNode;
+      //The type does not depend on the values of the variables.
+      isInt = new Evaluator().evaluate(rootNode, new double[slotCount(rootNode)]) == Evaluator.INT;
+   }
+
+   public boolean isInt() { return isInt; }
+
+   public int evalInt(double[] values)
+   {
+      if(!isInt)
+         return super.evalInt(values);
+
+      Evaluator evaluator = new Evaluator();
+      evaluator.evaluate(rootNode, values);
+      return evaluator.getInt();
+   }
+
+   public double evalDouble(double[] values)
+   {
+      Evaluator evaluator = new Evaluator();
+      evaluator.evaluate(rootNode, values);
+      return evaluator.getDouble();
+   }
+
+   /**
+    * @return One more than the largest slot of a variable in the tree.
+    */
+   private static int slotCount(Expression rootNode)
+   {
+      int count = 0;
+      BitSet shared = new BitSet(); //Shared nodes already walked
+      ArrayDeque<Expression> stack = new ArrayDeque<Expression>();
+      stack.push(rootNode);
+      while(!stack.isEmpty())
+      {
+         Expression node = stack.pop();
+         if(node instanceof Operator)
+         {
+            stack.push(((Operator) node).getLeftNode());
+            stack.push(((Operator) node).getRightNode());
+         }
+         else if(node instanceof Shared && !shared.get(((Shared) node).getIndex()))
+         {
+            shared.set(((Shared) node).getIndex());
+            stack.push(((Shared) node).getNode());
+         }
+         else if(node instanceof Variable)
+            count = Math.max(count, ((Variable) node).getSlot() + 1);
+      }
+      return count;
+   }
+}
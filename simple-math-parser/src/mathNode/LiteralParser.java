@@ -0,0 +1,428 @@
+package mathNode;
+import java.math.BigInteger;
+
+/**
+ * Classifies and parses number literals in one scan without throwing exceptions.
+ * A literal is an int if Integer.parseInt() accepts it. Otherwise it is a long or
+ * a double if Double.parseDouble() accepts it, and the value is bit for bit what
+ * Double.parseDouble() returns. Decimal literals are converted with the exact fast
+ * path for short mantissas and the Eisel-Lemire algorithm for the rest. The few
+ * cases those cannot decide are handed to Double.parseDouble() after the syntax has
+ * been checked, so it never throws.
+ * @author kevinrobell
+ *
+ */
+public class LiteralParser
+{
+   public static final int INVALID = 0;
+   public static final int INT = 1;
+   public static final int LONG = 2; //Integer that only fits in a long, its double value is also set
+   public static final int DOUBLE = 3;
+
+   private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+   };
+
+   private int intValue = 0;
+   private long longValue = 0;
+   private double doubleValue = 0;
+
+   /**
+    * Parses the characters of text from start up to but not including end.
+    * @param text
+    * @param start
+    * @param end
+    * @return INVALID, INT, LONG or DOUBLE. The value can be read with the getters.
+    */
+   public int parse(CharSequence text, int start, int end)
+   {
+      int kind = parseInteger(text, start, end);
+      if(kind != INVALID)
+         return kind;
+
+      //Double.parseDouble() trims control characters and spaces, Integer.parseInt() does not.
+      while(start < end && text.charAt(start) <= ' ')
+         start++;
+      while(end > start && text.charAt(end - 1) <= ' ')
+         end--;
+
+      return parseDecimal(text, start, end);
+   }
+
+   public int getInt() { return intValue; }
+   public long getLong() { return longValue; }
+   public double getDouble() { return doubleValue; }
+
+   /**
+    * Parses the literal the way Integer.parseInt() does. Literals that only fit in a
+    * long are returned as LONG.
+    */
+   private int parseInteger(CharSequence text, int start, int end)
+   {
+      int i = start;
+      boolean negative = false;
+
+      if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+      {
+         negative = text.charAt(i) == '-';
+         i++;
+      }
+      if(i == end)
+         return INVALID;
+
+      //Accumulate negatively so that Long.MIN_VALUE fits.
+      long value = 0;
+      boolean fitsLong = true;
+      boolean asciiOnly = true;
+      for(; i < end; i++)
+      {
+         char ch = text.charAt(i);
+         int digit;
+         if(ch >= '0' && ch <= '9')
+            digit = ch - '0';
+         else if(ch >= 128 && (digit = Character.digit(ch, 10)) >= 0)
+            asciiOnly = false;
+         else
+            return INVALID;
+
+         if(value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit)
+            fitsLong = false;
+         else
+            value = value * 10 - digit;
+      }
+
+      if(!negative)
+      {
+         if(value == Long.MIN_VALUE)
+            fitsLong = false;
+         value = -value;
+      }
+
+      if(fitsLong && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+      {
+         intValue = (int) value;
+         return INT;
+      }
+      //Double.parseDouble() only reads ASCII digits.
+      if(!asciiOnly)
+         return INVALID;
+      if(!fitsLong)
+         return INVALID; //Checked again as a decimal.
+
+      longValue = value;
+      doubleValue = value;
+      return LONG;
+   }
+
+   /**
+    * Parses the literal the way Double.parseDouble() does after trimming.
+    */
+   private int parseDecimal(CharSequence text, int start, int end)
+   {
+      int i = start;
+      boolean negative = false;
+
+      if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+      {
+         negative = text.charAt(i) == '-';
+         i++;
+      }
+      if(i == end)
+         return INVALID;
+
+      char ch = text.charAt(i);
+      if(ch == 'N' || ch == 'I')
+      {
+         String word = ch == 'N' ? "NaN" : "Infinity";
+         if(!regionEquals(text, i, end, word))
+            return INVALID;
+
+         return delegate(text, start, end);
+      }
+      if(ch == '0' && i + 1 < end && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X'))
+      {
+         if(!isHexLiteral(text, i + 2, end))
+            return INVALID;
+
+         return delegate(text, start, end);
+      }
+
+      //Read up to 19 significant digits into the mantissa.
+      long mantissa = 0;
+      int digitCount = 0; //Significant digits in mantissa
+      int dropped = 0; //Digits before the point that did not fit in mantissa
+      int fractionDigits = 0; //Digits after the point that are in mantissa
+      boolean seenDigit = false;
+      boolean seenPoint = false;
+      boolean truncated = false;
+
+      for(; i < end; i++)
+      {
+         ch = text.charAt(i);
+         if(ch >= '0' && ch <= '9')
+         {
+            seenDigit = true;
+            if(digitCount < 19)
+            {
+               if(mantissa != 0 || ch != '0')
+               {
+                  mantissa = mantissa * 10 + (ch - '0');
+                  digitCount++;
+               }
+               if(seenPoint)
+                  fractionDigits++;
+            }
+            else
+            {
+               if(ch != '0')
+                  truncated = true;
+               if(!seenPoint)
+                  dropped++;
+            }
+         }
+         else if(ch == '.' && !seenPoint)
+            seenPoint = true;
+         else
+            break;
+      }
+      if(!seenDigit)
+         return INVALID;
+
+      //Read the exponent.
+      long exponent = 0;
+      if(i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E'))
+      {
+         i++;
+         boolean negativeExp = false;
+         if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+         {
+            negativeExp = text.charAt(i) == '-';
+            i++;
+         }
+
+         int expStart = i;
+         for(; i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++)
+         {
+            if(exponent < 100000)
+               exponent = exponent * 10 + (text.charAt(i) - '0');
+         }
+         if(i == expStart)
+            return INVALID;
+         if(negativeExp)
+            exponent = -exponent;
+      }
+
+      //Only a single type suffix may follow.
+      if(i < end)
+      {
+         ch = text.charAt(i);
+         if(i != end - 1 || (ch != 'f' && ch != 'F' && ch != 'd' && ch != 'D'))
+            return INVALID;
+      }
+
+      long exp10 = exponent + dropped - fractionDigits;
+      doubleValue = toDouble(mantissa, exp10, negative, truncated, text, start, end);
+      return DOUBLE;
+   }
+
+   /**
+    * Converts mantissa * 10^exp10 to the nearest double.
+    */
+   private static double toDouble(long mantissa, long exp10, boolean negative, boolean truncated,
+         CharSequence text, int start, int end)
+   {
+      if(mantissa == 0)
+         return negative ? -0.0 : 0.0;
+
+      //Exact when the mantissa and the power of ten are both exact doubles.
+      if(!truncated && mantissa >>> 53 == 0)
+      {
+         double value = mantissa;
+         if(exp10 == 0)
+            return negative ? -value : value;
+         if(exp10 < 0 && exp10 >= -22)
+         {
+            value = value / POW10[(int) -exp10];
+            return negative ? -value : value;
+         }
+         if(exp10 > 0 && exp10 <= 22 + 15)
+         {
+            //Move extra zeros into the mantissa while it stays exact.
+            if(exp10 > 22)
+               value *= POW10[(int) exp10 - 22];
+            if(value <= 1e15)
+            {
+               value = value * POW10[(int) Math.min(exp10, 22)];
+               return negative ? -value : value;
+            }
+         }
+      }
+
+      long bits = eiselLemire(mantissa, exp10);
+      //With dropped digits the value is between mantissa and mantissa + 1.
+      if(bits >= 0 && truncated && bits != eiselLemire(mantissa + 1, exp10))
+         bits = -1;
+
+      if(bits < 0)
+         return Double.parseDouble(text.subSequence(start, end).toString());
+
+      return Double.longBitsToDouble(negative ? bits | Long.MIN_VALUE : bits);
+   }
+
+   /**
+    * Eisel-Lemire conversion of mantissa * 10^exp10. Returns the bits of the positive
+    * double or -1 if the result cannot be decided or is subnormal, infinite or zero.
+    */
+   private static long eiselLemire(long mantissa, long exp10)
+   {
+      if(mantissa == 0 || exp10 < PowersOfTen.MIN_EXP10 || exp10 > PowersOfTen.MAX_EXP10)
+         return -1;
+
+      int index = (int) exp10 - PowersOfTen.MIN_EXP10;
+      long powHigh = PowersOfTen.HIGH[index];
+      long powLow = PowersOfTen.LOW[index];
+
+      //Normalize so the top bit is set.
+      int clz = Long.numberOfLeadingZeros(mantissa);
+      mantissa <<= clz;
+      long retExp2 = ((217706 * exp10) >> 16) + 64 + 1023 - clz;
+
+      //128 bit product of the mantissa and the high half of the power.
+      long xHigh = Math.unsignedMultiplyHigh(mantissa, powHigh);
+      long xLow = mantissa * powHigh;
+
+      //Use the low half of the power when the error could carry into the kept bits.
+      if((xHigh & 0x1FF) == 0x1FF && Long.compareUnsigned(xLow + mantissa, mantissa) < 0)
+      {
+         long yHigh = Math.unsignedMultiplyHigh(mantissa, powLow);
+         long yLow = mantissa * powLow;
+         long mergedHigh = xHigh;
+         long mergedLow = xLow + yHigh;
+         if(Long.compareUnsigned(mergedLow, xLow) < 0)
+            mergedHigh++;
+
+         if((mergedHigh & 0x1FF) == 0x1FF && mergedLow + 1 == 0
+               && Long.compareUnsigned(yLow + mantissa, mantissa) < 0)
+            return -1;
+
+         xHigh = mergedHigh;
+         xLow = mergedLow;
+      }
+
+      //Shift down to 54 bits.
+      long msb = xHigh >>> 63;
+      long retMantissa = xHigh >>> (msb + 9);
+      retExp2 -= 1 ^ msb;
+
+      //Exactly half way between two doubles.
+      if(xLow == 0 && (xHigh & 0x1FF) == 0 && (retMantissa & 3) == 1)
+         return -1;
+
+      //Round from 54 to 53 bits.
+      retMantissa += retMantissa & 1;
+      retMantissa >>>= 1;
+      if(retMantissa >>> 53 > 0)
+      {
+         retMantissa >>>= 1;
+         retExp2++;
+      }
+
+      if(retExp2 <= 0 || retExp2 >= 0x7FF)
+         return -1;
+
+      return retExp2 << 52 | (retMantissa & 0x000FFFFFFFFFFFFFL);
+   }
+
+   private int delegate(CharSequence text, int start, int end)
+   {
+      doubleValue = Double.parseDouble(text.subSequence(start, end).toString());
+      return DOUBLE;
+   }
+
+   private static boolean regionEquals(CharSequence text, int start, int end, String word)
+   {
+      if(end - start != word.length())
+         return false;
+
+      for(int i = 0; i < word.length(); i++)
+      {
+         if(text.charAt(start + i) != word.charAt(i))
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Checks the part of a hexadecimal literal after "0x". It needs hex digits with an
+    * optional point, a binary exponent and may end with a type suffix.
+    */
+   private static boolean isHexLiteral(CharSequence text, int i, int end)
+   {
+      boolean seenDigit = false;
+      boolean seenPoint = false;
+      for(; i < end; i++)
+      {
+         char ch = text.charAt(i);
+         if(Character.digit(ch, 16) >= 0 && ch < 128)
+            seenDigit = true;
+         else if(ch == '.' && !seenPoint)
+            seenPoint = true;
+         else
+            break;
+      }
+      if(!seenDigit || i == end || (text.charAt(i) != 'p' && text.charAt(i) != 'P'))
+         return false;
+
+      i++;
+      if(i < end && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+         i++;
+
+      int expStart = i;
+      while(i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9')
+         i++;
+      if(i == expStart)
+         return false;
+
+      if(i == end)
+         return true;
+
+      char ch = text.charAt(i);
+      return i == end - 1 && (ch == 'f' || ch == 'F' || ch == 'd' || ch == 'D');
+   }
+
+   /**
+    * 128 bit approximations, rounded down, of the powers of ten used by eiselLemire().
+    * They are only computed the first time a literal needs them.
+    */
+   private static class PowersOfTen
+   {
+      static final int MIN_EXP10 = -348;
+      static final int MAX_EXP10 = 347;
+      static final long[] HIGH = new long[MAX_EXP10 - MIN_EXP10 + 1];
+      static final long[] LOW = new long[MAX_EXP10 - MIN_EXP10 + 1];
+
+      static
+      {
+         BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+         for(int exp10 = MIN_EXP10; exp10 <= MAX_EXP10; exp10++)
+         {
+            BigInteger value;
+            if(exp10 >= 0)
+            {
+               value = BigInteger.TEN.pow(exp10);
+               int shift = value.bitLength() - 128;
+               value = shift > 0 ? value.shiftRight(shift) : value.shiftLeft(-shift);
+            }
+            else
+            {
+               BigInteger divisor = BigInteger.TEN.pow(-exp10);
+               value = BigInteger.ONE.shiftLeft(127 + divisor.bitLength()).divide(divisor);
+            }
+
+            HIGH[exp10 - MIN_EXP10] = value.shiftRight(64).longValue();
+            LOW[exp10 - MIN_EXP10] = value.and(mask).longValue();
+         }
+      }
+   }
+}
@@ -9,35 +9,20 @@ public class Mult extends Operator
 {
    public Mult() { precedence = 2; }
    
-   public Number calculate()
-   {
-      Number leftNum = getLeftNode().calculate();
-      Number rightNum = getRightNode().calculate();
-      
-      //If both numbers below it on the tree are integers, do integer multiplication.
-      if(leftNum instanceof Integer && rightNum instanceof Integer)
-         return leftNum.intValue() * rightNum.intValue();
-      
-      //Otherwise do decimal multiplication.
-      return leftNum.doubleValue() * rightNum.doubleValue();
-   }
+   public char getSymbol() { return '*'; }
    
-   public String toString()
-   {
-      String str = getLeftNode().toString() + " * " + getRightNode().toString();
-      
-      if(isParens())
-         return '(' + str + ')';
-      else
-         return str;
-   }
+   //If both numbers below it on the tree are integers, do integer multiplication.
+   public boolean isIntOperation() { return true; }
+   
+   protected int combine(int leftNum, int rightNum) { return leftNum * rightNum; }
+   
+   //Otherwise do decimal multiplication.
+   protected double combine(double leftNum, double rightNum) { return leftNum * rightNum; }
    
-   @Override
-   public Object clone() throws CloneNotSupportedException
+   protected void combine(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
    {
-      Mult clone = (Mult) super.clone();
-      clone.setLeftNode((Expression) this.getLeftNode().clone());
-      clone.setRightNode((Expression) this.getRightNode().clone());
-      return clone;
+      for(int i = 0; i < count; i++)
+         out[outStart + i] = left[leftStart + i] * right[rightStart + i];
    }
 }
@@ -0,0 +1,56 @@
+package mathNode;
+import java.util.Arrays;
+
+/**
+ * A growable stack of operators used to walk trees without recursion. Next to each
+ * operator it keeps how many of its children have been visited, so a walk can tell
+ * whether it is going down the left side, the right side, or coming back up.
+ * @author kevinrobell
+ *
+ */
+class NodeStack
+{
+   private Operator[] nodes = new Operator[16];
+   private int[] visited = new int[16];
+   private int size = 0;
+
+   public void push(Operator node)
+   {
+      if(size == nodes.length)
+      {
+         nodes = Arrays.copyOf(nodes, size * 2);
+         visited = Arrays.copyOf(visited, size * 2);
+      }
+
+      nodes[size] = node;
+      visited[size] = 0;
+      size++;
+   }
+
+   public Operator pop()
+   {
+      size--;
+      Operator node = nodes[size];
+      nodes[size] = null;
+      return node;
+   }
+
+   public Operator peek() { return nodes[size - 1]; }
+   public boolean isEmpty() { return size == 0; }
+   public int size() { return size; }
+
+   /**
+    * Empties the stack, for example after a walk that was stopped by an exception.
+    */
+   public void clear()
+   {
+      Arrays.fill(nodes, 0, size, null);
+      size = 0;
+   }
+
+   /**
+    * Marks one more child of the top operator as visited.
+    * @return The number of children visited before this one.
+    */
+   public int visit() { return visited[size - 1]++; }
+}
@@ -1,7 +1,17 @@
 package mathNode;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
- * An abstract math operator class.
+ * An abstract math operator class. The methods that go through the whole tree walk it
+ * with a NodeStack instead of recursion, so the depth of a tree is only limited by the
+ * heap. Subclasses only give their symbol and how to combine two values.
+ * The walk for calculate() is done by an Evaluator.
+ * <p>
+ * A tree is built with the setters and then sealed by checkTree(). Sealed trees are
+ * shared by clones, caches and interners and keep their hash, so their operators
+ * cannot be changed anymore. copy() and clone() give operators that can.
  * @author kevinrobell
  *
  */
@@ -10,28 +20,372 @@ public abstract class Operator extends Expression
    private Expression leftNode = null;
    private Expression rightNode = null;
    protected int precedence;
+   private int hash = 0; //Hash of the whole tree below, or 0 if it was not found yet
+   private boolean sealed = false; //Set once the tree below passed checkTree()
+   
+   //Evaluator for calculate() on each thread. It is taken out while it is in use, in case
+   //a node that only has calculate() calls calculate() on another tree.
+   private static final ThreadLocal<Evaluator[]> EVALUATORS =
+         ThreadLocal.withInitial(() -> new Evaluator[] {new Evaluator()});
    
    public int getPrecedence() { return precedence; }
    
    public Expression getLeftNode() { return leftNode; }
    public Expression getRightNode() { return rightNode; }
    
-   public void setLeftNode(Expression newNode) { leftNode = newNode; }
-   public void setRightNode(Expression newNode) { rightNode = newNode; }
+   public void setLeftNode(Expression newNode) { checkOpen(); leftNode = newNode; hash = 0; }
+   public void setRightNode(Expression newNode) { checkOpen(); rightNode = newNode; hash = 0; }
    
    public void setParens(boolean bool) 
    { 
+      checkOpen();
       parenthesis = bool; 
+      hash = 0;
       
       if(parenthesis)
          precedence = 0;
    }
 
-   public boolean checkTree() 
-   { 
-      if(leftNode == null || rightNode == null)
+   /**
+    * @return The character of the operator in a math statement.
+    */
+   abstract public char getSymbol();
+
+   /**
+    * @return Whether the operator gives an integer when both of its values are integers.
+    */
+   public boolean isIntOperation() { return false; }
+
+   /**
+    * Does the math of the operator on two integers. It is only used if isIntOperation()
+    * is true.
+    * @param leftNum
+    * @param rightNum
+    * @return int
+    */
+   protected int combine(int leftNum, int rightNum)
+   {
+      throw new UnsupportedOperationException(getClass().getName() + " has no integer operation");
+   }
+
+   /**
+    * Does the math of the operator on two decimals.
+    * @param leftNum
+    * @param rightNum
+    * @return double
+    */
+   abstract protected double combine(double leftNum, double rightNum);
+
+   /**
+    * Does the integer math of the operator for code outside of this package that keeps
+    * its own values. Only use it if isIntOperation() is true.
+    * @param leftNum
+    * @param rightNum
+    * @return int
+    */
+   public final int apply(int leftNum, int rightNum) { return combine(leftNum, rightNum); }
+
+   /**
+    * Does the decimal math of the operator for code outside of this package that keeps
+    * its own values.
+    * @param leftNum
+    * @param rightNum
+    * @return double
+    */
+   public final double apply(double leftNum, double rightNum) { return combine(leftNum, rightNum); }
+
+   /**
+    * Does the decimal math of the operator on count values at a time, so a batch is
+    * calculated one operator at a time. Subclasses override it with a plain loop the
+    * JIT can vectorize. out may be the same array as left or right at the same start.
+    * @param left
+    * @param leftStart
+    * @param right
+    * @param rightStart
+    * @param out
+    * @param outStart
+    * @param count
+    */
+   protected void combine(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
+   {
+      for(int i = 0; i < count; i++)
+         out[outStart + i] = combine(left[leftStart + i], right[rightStart + i]);
+   }
+
+   /**
+    * Calculates the tree below with the Evaluator of the thread, so only the result is
+    * boxed.
+    */
+   public Number calculate()
+   {
+      Evaluator[] holder = EVALUATORS.get();
+      Evaluator evaluator = holder[0];
+      if(evaluator == null)
+         evaluator = new Evaluator();
+      holder[0] = null;
+
+      try
+      {
+         if(evaluator.evaluate(this) == Evaluator.INT)
+            return evaluator.getInt();
+         else
+            return evaluator.getDouble();
+      }
+      finally
+      {
+         holder[0] = evaluator;
+      }
+   }
+
+   /**
+    * Writes the whole tree to out in one walk, so every character is written once no
+    * matter how deep the tree is.
+    */
+   public void render(Appendable out) throws IOException
+   {
+      NodeStack stack = new NodeStack();
+
+      Expression node = this;
+      while(true)
+      {
+         while(node instanceof Operator)
+         {
+            if(node.isParens())
+               out.append('(');
+
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).leftNode;
+         }
+
+         node.render(out);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               out.append(' ').append(stack.peek().getSymbol()).append(' ');
+               node = stack.peek().rightNode;
+               break;
+            }
+
+            if(stack.pop().isParens())
+               out.append(')');
+         }
+
+         if(node == null)
+            return;
+      }
+   }
+
+   /**
+    * Copies every node of the tree. Operators are copied before their children, so
+    * each copy is on the stack until both of its children are set.
+    */
+   @Override
+   public Object clone() throws CloneNotSupportedException
+   {
+      Operator root = copy();
+      NodeStack stack = new NodeStack();
+      stack.push(root);
+
+      while(!stack.isEmpty())
+      {
+         Operator parent = stack.peek();
+         int side = stack.visit();
+         if(side == 2)
+         {
+            stack.pop();
+            continue;
+         }
+
+         Expression child = side == 0 ? parent.leftNode : parent.rightNode;
+         Expression childClone;
+         if(child instanceof Operator)
+         {
+            childClone = ((Operator) child).copy();
+            stack.push((Operator) childClone);
+         }
+         else
+            childClone = (Expression) child.clone();
+
+         if(side == 0)
+            parent.leftNode = childClone;
+         else
+            parent.rightNode = childClone;
+      }
+
+      return root;
+   }
+
+   /**
+    * Trees are equal if they have the same shape, the same kinds of operators with the
+    * same parenthesis, and equal values. Both trees are walked side by side, so deep
+    * trees do not use the native stack, and subtrees with different hashes or the same
+    * node are not walked at all.
+    */
+   @Override
+   public boolean equals(Object other)
+   {
+      if(other == this)
+         return true;
+      if(other == null || other.getClass() != getClass())
          return false;
-      else
-         return leftNode.checkTree() && rightNode.checkTree();
+
+      Expression[] pairs = new Expression[16]; //Nodes to compare, two at a time
+      pairs[0] = this;
+      pairs[1] = (Expression) other;
+      int size = 2;
+
+      while(size > 0)
+      {
+         Expression right = pairs[--size];
+         Expression left = pairs[--size];
+         if(left == right)
+            continue;
+         if(left == null || right == null || left.getClass() != right.getClass())
+            return false;
+
+         if(!(left instanceof Operator))
+         {
+            if(!left.equals(right))
+               return false;
+            continue;
+         }
+
+         Operator leftOperator = (Operator) left;
+         Operator rightOperator = (Operator) right;
+         if(leftOperator.parenthesis != rightOperator.parenthesis
+               || leftOperator.hashCode() != rightOperator.hashCode())
+            return false;
+
+         if(size + 4 > pairs.length)
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+         pairs[size++] = leftOperator.rightNode;
+         pairs[size++] = rightOperator.rightNode;
+         pairs[size++] = leftOperator.leftNode;
+         pairs[size++] = rightOperator.leftNode;
+      }
+
+      return true;
+   }
+
+   /**
+    * The hash of the whole tree. It is found once for every operator below that does not
+    * have it yet and then kept, so the tree must not change after it is hashed. Changing
+    * the sides of an operator only forgets the hash of that operator, not the ones above.
+    */
+   @Override
+   public int hashCode()
+   {
+      if(hash != 0)
+         return hash;
+
+      NodeStack stack = new NodeStack();
+      Expression node = this;
+      while(true)
+      {
+         while(node instanceof Operator && ((Operator) node).hash == 0)
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).leftNode;
+         }
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1 && stack.peek().rightNode != null)
+            {
+               node = stack.peek().rightNode;
+               break;
+            }
+
+            Operator operator = stack.pop();
+            int result = 31 * operator.getSymbol() + (operator.parenthesis ? 1 : 0);
+            result = 31 * result + Objects.hashCode(operator.leftNode);
+            result = 31 * result + Objects.hashCode(operator.rightNode);
+            operator.hash = result != 0 ? result : 1; //0 is for not found
+         }
+
+         if(node == null)
+            return hash;
+      }
+   }
+
+   /**
+    * @return A copy of this operator that still points at the children of this one.
+    */
+   Operator copy()
+   {
+      try {
+         Operator copy = (Operator) super.clone();
+         copy.sealed = false;
+         return copy;
+      } catch(CloneNotSupportedException e) {
+         throw new IllegalStateException(e); //Expression is Cloneable
+      }
+   }
+
+   /**
+    * Stops the sides and parenthesis of this operator from being changed. The sides
+    * have to be sealed already.
+    */
+   void seal() { sealed = true; }
+
+   private void checkOpen()
+   {
+      if(sealed)
+         throw new IllegalStateException("The tree passed checkTree() and may be shared, so it cannot change");
+   }
+
+   /**
+    * Checks that every operator has both sides, and seals the tree if it does. Sealed
+    * subtrees were checked before, so they are not walked again. A tree that fails is
+    * not sealed and can still be fixed.
+    */
+   public boolean checkTree()
+   {
+      if(sealed)
+         return true;
+
+      NodeStack stack = new NodeStack();
+      stack.push(this);
+
+      while(!stack.isEmpty())
+      {
+         Operator node = stack.pop();
+
+         if(node.leftNode == null || node.rightNode == null)
+            return false;
+
+         if(!checkChild(node.leftNode, stack) || !checkChild(node.rightNode, stack))
+            return false;
+      }
+
+      stack.push(this);
+      while(!stack.isEmpty())
+      {
+         Operator node = stack.pop();
+         node.sealed = true;
+         if(node.leftNode instanceof Operator && !((Operator) node.leftNode).sealed)
+            stack.push((Operator) node.leftNode);
+         if(node.rightNode instanceof Operator && !((Operator) node.rightNode).sealed)
+            stack.push((Operator) node.rightNode);
+      }
+
+      return true;
+   }
+
+   private static boolean checkChild(Expression child, NodeStack stack)
+   {
+      if(!(child instanceof Operator))
+         return child.checkTree();
+
+      if(!((Operator) child).sealed)
+         stack.push((Operator) child);
+      return true;
    }
 }
@@ -0,0 +1,289 @@
+package mathNode;
+import java.util.Arrays;
+
+/**
+ * Makes a smaller tree that calculates exactly the same result. Subtrees without
+ * variables are folded into one Int or Dec, and operators that do nothing are removed:
+ * x + 0, x - 0, x * 1, x / 1 and x ^ 1 become x. Small powers are made simpler too:
+ * x ^ 0 becomes 1.0, which can then be folded into the operator above, and x ^ 2 becomes
+ * x * x for a single node x. Higher powers are left to Pow, because a chain of
+ * multiplications is rounded more than once. A rewrite is only done when it gives the
+ * same bits for every value of x, so it has to keep the type of the result. For example
+ * x * 1 is only x if x is a decimal or the 1 is an integer, and x + 0 is only x for
+ * integers because -0.0 + 0 is 0.0.
+ * <p>
+ * The given tree is never changed. Nodes are not moved between operators, so the
+ * precedence the tree was built with, parenthesis included, is kept. Parts of the tree
+ * that do not change are shared with the new tree. Like the Evaluator, constants are
+ * folded on primitive stacks, so only the nodes of the new tree are allocated.
+ * @author kevinrobell
+ *
+ */
+public class Optimizer
+{
+   //Static types of values
+   private static final byte INT = 0;
+   private static final byte DOUBLE = 1;
+   private static final byte UNKNOWN = 2;
+
+   private NodeStack stack = new NodeStack();
+
+   //Optimized nodes waiting for their operator. A constant has its value on the stacks
+   //and only gets a node when it is needed.
+   private Expression[] nodes = new Expression[16];
+   private byte[] types = new byte[16];
+   private boolean[] isConstant = new boolean[16];
+   private int[] ints = new int[16];
+   private double[] doubles = new double[16];
+   private int size = 0;
+
+   /**
+    * @param rootNode Root of a tree that passes checkTree().
+    * @return The root of the optimized tree.
+    */
+   public Expression optimize(Expression rootNode)
+   {
+      stack.clear();
+      size = 0;
+
+      Expression node = rootNode;
+      while(true)
+      {
+         while(node instanceof Operator)
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).getLeftNode();
+         }
+
+         pushValue(node);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            combine(stack.pop());
+         }
+
+         if(node == null)
+         {
+            Expression optimized = toNode(0);
+            nodes[0] = null;
+            return optimized;
+         }
+      }
+   }
+
+   private void pushValue(Expression node)
+   {
+      if(size == nodes.length)
+      {
+         nodes = Arrays.copyOf(nodes, size * 2);
+         types = Arrays.copyOf(types, size * 2);
+         isConstant = Arrays.copyOf(isConstant, size * 2);
+         ints = Arrays.copyOf(ints, size * 2);
+         doubles = Arrays.copyOf(doubles, size * 2);
+      }
+
+      nodes[size] = node;
+      if(node.getClass() == Int.class)
+      {
+         types[size] = INT;
+         isConstant[size] = true;
+         ints[size] = ((Int) node).getValue();
+      }
+      else if(node.getClass() == Dec.class)
+      {
+         types[size] = DOUBLE;
+         isConstant[size] = true;
+         doubles[size] = ((Dec) node).getValue();
+      }
+      else if(node.getClass() == Variable.class)
+      {
+         types[size] = DOUBLE;
+         isConstant[size] = false;
+      }
+      else
+      {
+         types[size] = UNKNOWN;
+         isConstant[size] = false;
+      }
+
+      size++;
+   }
+
+   private void combine(Operator operator)
+   {
+      size--;
+      int left = size - 1;
+      int right = size;
+
+      //Fold constants
+      if(isConstant[left] && isConstant[right])
+      {
+         if(types[left] == INT && types[right] == INT && operator.isIntOperation())
+            ints[left] = operator.combine(ints[left], ints[right]);
+         else
+         {
+            doubles[left] = operator.combine(value(left), value(right));
+            types[left] = DOUBLE;
+         }
+
+         nodes[left] = null;
+         nodes[right] = null;
+         return;
+      }
+
+      byte type = resultType(operator, types[left], types[right]);
+
+      //Remove operators that do nothing.
+      if(isIdentity(operator, right, left, true))
+      {
+         nodes[right] = null;
+         return;
+      }
+      if(isIdentity(operator, left, right, false))
+      {
+         move(right, left);
+         return;
+      }
+
+      //x ^ 0 is 1.0 for every x, NaN included, so x does not need to be calculated.
+      if(operator.getClass() == Pow.class && isConstantValue(right, 0))
+      {
+         nodes[left] = null;
+         types[left] = DOUBLE;
+         isConstant[left] = true;
+         doubles[left] = 1.0;
+         nodes[right] = null;
+         return;
+      }
+
+      //x ^ 2 is x * x
+      if(operator.getClass() == Pow.class && types[left] == DOUBLE && !isConstant[left]
+            && !(nodes[left] instanceof Operator) && isConstantValue(right, 2))
+      {
+         Operator square = new Mult();
+         square.setLeftNode(nodes[left]);
+         square.setRightNode(nodes[left]);
+         setNode(left, square, DOUBLE);
+         nodes[right] = null;
+         return;
+      }
+
+      Expression leftNode = toNode(left);
+      Expression rightNode = toNode(right);
+      Operator optimized = operator;
+      if(leftNode != operator.getLeftNode() || rightNode != operator.getRightNode())
+      {
+         optimized = operator.copy();
+         optimized.setLeftNode(leftNode);
+         optimized.setRightNode(rightNode);
+      }
+
+      setNode(left, optimized, type);
+      nodes[right] = null;
+   }
+
+   /**
+    * Checks if the constant at constantIndex makes the operator give back the value
+    * at otherIndex unchanged, with the same type.
+    * @param isRight Whether the constant is the right value of the operator.
+    */
+   private boolean isIdentity(Operator operator, int constantIndex, int otherIndex, boolean isRight)
+   {
+      if(!isConstant[constantIndex] || isConstant[otherIndex] || types[otherIndex] == UNKNOWN)
+         return false;
+
+      Class<?> type = operator.getClass();
+      boolean otherInt = types[otherIndex] == INT;
+      boolean constantInt = types[constantIndex] == INT;
+
+      if(type == Mult.class)
+         return isConstantValue(constantIndex, 1) && (!otherInt || constantInt);
+      if(type == Add.class)
+      {
+         //Integer 0 for integers. Only -0.0 leaves every decimal unchanged.
+         if(otherInt)
+            return constantInt && ints[constantIndex] == 0;
+         else
+            return !constantInt && Double.doubleToRawLongBits(doubles[constantIndex]) == Long.MIN_VALUE;
+      }
+      if(!isRight)
+         return false;
+
+      if(type == Sub.class)
+      {
+         //x - 0.0 is x for every decimal, but not x - -0.0.
+         if(constantInt)
+            return ints[constantIndex] == 0;
+         else
+            return !otherInt && Double.doubleToRawLongBits(doubles[constantIndex]) == 0;
+      }
+
+      //Div and Pow always give decimals.
+      if(type == Div.class || type == Pow.class)
+         return !otherInt && isConstantValue(constantIndex, 1);
+      return false;
+   }
+
+   private boolean isConstantValue(int index, int num)
+   {
+      if(!isConstant[index])
+         return false;
+      if(types[index] == INT)
+         return ints[index] == num;
+      return doubles[index] == num;
+   }
+
+   private static byte resultType(Operator operator, byte left, byte right)
+   {
+      if(!operator.isIntOperation())
+         return DOUBLE;
+      if(left == INT && right == INT)
+         return INT;
+      if(left == DOUBLE || right == DOUBLE)
+         return DOUBLE;
+      return UNKNOWN;
+   }
+
+   /**
+    * @return The node for the value at index, making one if it is a folded constant.
+    */
+   private Expression toNode(int index)
+   {
+      if(nodes[index] == null)
+      {
+         if(types[index] == INT)
+            nodes[index] = new Int(ints[index]);
+         else
+            nodes[index] = new Dec(doubles[index]);
+      }
+
+      return nodes[index];
+   }
+
+   private void setNode(int index, Expression node, byte type)
+   {
+      nodes[index] = node;
+      types[index] = type;
+      isConstant[index] = false;
+   }
+
+   private void move(int from, int to)
+   {
+      nodes[to] = nodes[from];
+      types[to] = types[from];
+      isConstant[to] = isConstant[from];
+      ints[to] = ints[from];
+      doubles[to] = doubles[from];
+      nodes[from] = null;
+   }
+
+   private double value(int index) { return types[index] == INT ? ints[index] : doubles[index]; }
+}
@@ -0,0 +1,370 @@
+package mathNode;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates one very big tree with the threads of a ForkJoinPool. The size of every
+ * subtree is counted once when the ParallelEvaluator is made. To calculate, the tree is
+ * cut into subtrees that are small enough for one task, and the subtrees of at least
+ * threshold nodes are forked to the pool, each with its own Evaluator. The operators
+ * above them are then calculated on the calling thread with the answers of the tasks,
+ * in the same order and with the same integer and decimal rules as the Evaluator, so
+ * the answer has exactly the same bits as calculating the tree on one thread.
+ * <p>
+ * Shared nodes are looked through, so a big shared subtree is still cut between tasks,
+ * and each task that has it calculates it again.
+ * <p>
+ * Like the Evaluator, a ParallelEvaluator keeps the last answer, so it cannot be used
+ * by two threads at the same time. The tree must not change after it is made.
+ * @author kevinrobell
+ *
+ */
+public class ParallelEvaluator
+{
+   public static final int DEFAULT_THRESHOLD = 1 << 14;
+   //Tasks for each thread of the pool, so threads that finish early can take more.
+   private static final int TASKS_PER_THREAD = 4;
+
+   //Task indexes of steps that are not a task.
+   private static final int OPERATOR = -2;
+   private static final int INLINE = -1;
+
+   private Expression rootNode;
+   private int threshold;
+   private int[] sizes; //Size of the subtree of each node by pre-order index
+
+   //Operators above the cut and the subtrees below it in the order they are calculated.
+   //A subtree has the index of its task, or INLINE if it is calculated here.
+   private Expression[] steps = new Expression[16];
+   private int[] taskIndexes = new int[16];
+   private int stepCount;
+   private SubtreeTask[] tasks = new SubtreeTask[16];
+   private int taskCount;
+
+   private Evaluator evaluator = new Evaluator();
+   private double[] values;
+
+   //Values of finished nodes waiting for their operator, like in the Evaluator.
+   private int[] ints = new int[16];
+   private double[] doubles = new double[16];
+   private boolean[] isInt = new boolean[16];
+   private int size = 0;
+
+   /**
+    * Counts the subtree sizes of the tree below rootNode.
+    * @param rootNode
+    */
+   public ParallelEvaluator(Expression rootNode)
+   {
+      this(rootNode, DEFAULT_THRESHOLD);
+   }
+
+   /**
+    * Counts the subtree sizes of the tree below rootNode.
+    * @param rootNode
+    * @param threshold Number of nodes a subtree needs to be calculated by a task.
+    */
+   public ParallelEvaluator(Expression rootNode, int threshold)
+   {
+      if(threshold < 1)
+         throw new IllegalArgumentException("The threshold must be positive");
+
+      this.rootNode = rootNode;
+      this.threshold = threshold;
+      countSizes();
+   }
+
+   /**
+    * @return The number of nodes in the tree.
+    */
+   public int getNodeCount() { return sizes.length; }
+
+   /**
+    * @return The number of tasks the last evaluate() forked to the pool.
+    */
+   public int getTaskCount() { return taskCount; }
+
+   /**
+    * Calculates the tree with the threads of pool. Get the result with getInt() or
+    * getDouble().
+    * @param pool
+    * @return INT if the result is an integer or DOUBLE if it is not.
+    */
+   public int evaluate(ForkJoinPool pool)
+   {
+      return evaluate(pool, null);
+   }
+
+   /**
+    * Calculates the tree with the values of its variables with the threads of pool. Get
+    * the result with getInt() or getDouble().
+    * @param pool
+    * @param values Values of the variables by slot.
+    * @return INT if the result is an integer or DOUBLE if it is not.
+    */
+   public int evaluate(ForkJoinPool pool, double[] values)
+   {
+      this.values = values;
+
+      //Subtrees up to cut nodes are calculated by one thread. The halves of a subtree
+      //just over the cut still need threshold nodes to be forked.
+      int cut = Math.max(2 * threshold, sizes.length / (pool.getParallelism() * TASKS_PER_THREAD));
+      if(sizes.length <= cut)
+      {
+         taskCount = 0;
+         int type = evaluator.evaluate(rootNode, values);
+         size = 1;
+         isInt[0] = type == Evaluator.INT;
+         ints[0] = evaluator.getInt();
+         doubles[0] = evaluator.getDouble();
+         return type;
+      }
+
+      split(cut);
+      try
+      {
+         for(int i = 0; i < taskCount; i++)
+            pool.execute(tasks[i]);
+
+         return combineSteps();
+      }
+      finally
+      {
+         //Let go of the tree and the values.
+         Arrays.fill(steps, 0, stepCount, null);
+         Arrays.fill(tasks, 0, taskCount, null);
+      }
+   }
+
+   /**
+    * @return The result of the last evaluate() if it was INT.
+    */
+   public int getInt() { return ints[0]; }
+
+   /**
+    * @return The result of the last evaluate() as a double.
+    */
+   public double getDouble() { return isInt[0] ? ints[0] : doubles[0]; }
+
+   /**
+    * Counts the nodes below each node. Nodes are numbered in pre-order, so the subtree of
+    * the node at index i is the nodes from i up to i + sizes[i].
+    */
+   private void countSizes()
+   {
+      NodeStack stack = new NodeStack();
+      int[] starts = new int[16]; //Pre-order index of each operator on the stack
+      int[] counted = new int[16];
+      int count = 0;
+
+      Expression node = unshare(rootNode);
+      while(true)
+      {
+         while(node instanceof Operator)
+         {
+            if(stack.size() == starts.length)
+               starts = Arrays.copyOf(starts, stack.size() * 2);
+            starts[stack.size()] = count;
+            counted = record(counted, count++, 0);
+
+            stack.push((Operator) node);
+            stack.visit();
+            node = unshare(((Operator) node).getLeftNode());
+         }
+
+         counted = record(counted, count++, 1);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = unshare(stack.peek().getRightNode());
+               break;
+            }
+
+            stack.pop();
+            counted[starts[stack.size()]] = count - starts[stack.size()];
+         }
+
+         if(node == null)
+            break;
+      }
+
+      sizes = Arrays.copyOf(counted, count);
+   }
+
+   /**
+    * @return The node below any Shared nodes around node.
+    */
+   private static Expression unshare(Expression node)
+   {
+      while(node instanceof Shared)
+         node = ((Shared) node).getNode();
+      return node;
+   }
+
+   private static int[] record(int[] counted, int index, int value)
+   {
+      if(index == counted.length)
+         counted = Arrays.copyOf(counted, index * 2);
+      counted[index] = value;
+      return counted;
+   }
+
+   /**
+    * Writes the steps for the operators that have more than cut nodes below them, in the
+    * order the Evaluator would combine them, and makes a task for each subtree below
+    * them that has at least threshold nodes.
+    */
+   private void split(int cut)
+   {
+      NodeStack stack = new NodeStack();
+      stepCount = 0;
+      taskCount = 0;
+      int index = 0; //Pre-order index of node
+
+      Expression node = unshare(rootNode);
+      while(true)
+      {
+         while(node instanceof Operator && sizes[index] > cut)
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = unshare(((Operator) node).getLeftNode());
+            index++;
+         }
+
+         //A subtree that is small enough for one thread.
+         if(sizes[index] >= threshold)
+         {
+            if(taskCount == tasks.length)
+               tasks = Arrays.copyOf(tasks, taskCount * 2);
+            tasks[taskCount] = new SubtreeTask(node, values);
+            addStep(node, taskCount++);
+         }
+         else
+            addStep(node, INLINE);
+         index += sizes[index];
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = unshare(stack.peek().getRightNode());
+               break;
+            }
+
+            addStep(stack.pop(), OPERATOR);
+         }
+
+         if(node == null)
+            break;
+      }
+   }
+
+   private void addStep(Expression node, int taskIndex)
+   {
+      if(stepCount == steps.length)
+      {
+         steps = Arrays.copyOf(steps, stepCount * 2);
+         taskIndexes = Arrays.copyOf(taskIndexes, stepCount * 2);
+      }
+
+      steps[stepCount] = node;
+      taskIndexes[stepCount++] = taskIndex;
+   }
+
+   /**
+    * Runs the steps with the answers of the tasks.
+    */
+   private int combineSteps()
+   {
+      size = 0;
+
+      for(int step = 0; step < stepCount; step++)
+      {
+         if(taskIndexes[step] == OPERATOR)
+            combine((Operator) steps[step]);
+         else
+            pushSubtree(step);
+      }
+
+      return isInt[0] ? Evaluator.INT : Evaluator.DOUBLE;
+   }
+
+   private void pushSubtree(int step)
+   {
+      if(size == ints.length)
+      {
+         ints = Arrays.copyOf(ints, size * 2);
+         doubles = Arrays.copyOf(doubles, size * 2);
+         isInt = Arrays.copyOf(isInt, size * 2);
+      }
+
+      int type;
+      if(taskIndexes[step] != INLINE)
+      {
+         SubtreeTask task = tasks[taskIndexes[step]];
+         task.join();
+         type = task.type;
+         ints[size] = task.intResult;
+         doubles[size] = task.doubleResult;
+      }
+      else
+      {
+         type = evaluator.evaluate(steps[step], values);
+         ints[size] = evaluator.getInt();
+         doubles[size] = evaluator.getDouble();
+      }
+
+      isInt[size] = type == Evaluator.INT;
+      size++;
+   }
+
+   private void combine(Operator operator)
+   {
+      size--;
+      int left = size - 1;
+
+      if(isInt[left] && isInt[size] && operator.isIntOperation())
+         ints[left] = operator.combine(ints[left], ints[size]);
+      else
+      {
+         doubles[left] = operator.combine(value(left), value(size));
+         isInt[left] = false;
+      }
+   }
+
+   private double value(int index) { return isInt[index] ? ints[index] : doubles[index]; }
+
+   /**
+    * Calculates one subtree with its own Evaluator.
+    */
+   private static class SubtreeTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private transient Expression node;
+      private transient double[] values;
+      int type;
+      int intResult;
+      double doubleResult;
+
+      SubtreeTask(Expression node, double[] values)
+      {
+         this.node = node;
+         this.values = values;
+      }
+
+      protected void compute()
+      {
+         Evaluator evaluator = new Evaluator();
+         type = evaluator.evaluate(node, values);
+         intResult = evaluator.getInt();
+         doubleResult = evaluator.getDouble();
+      }
+   }
+}
@@ -0,0 +1,102 @@
+package mathNode;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Makes a tree with some of its values replaced without changing the given tree. Only
+ * the operators on the paths from the root to the replaced values are copied, and
+ * everything else is shared with the given tree, so replacing one value of a tree with
+ * a depth of d makes d new nodes. If nothing is replaced, the given root is returned.
+ * <p>
+ * This only works because trees are not changed once they are built: a MathTree, the
+ * ParseCache, the Optimizer and the Rebalancer all share nodes between trees. Nodes
+ * that were given to a PathCopier must not be changed with setLeftNode(),
+ * setRightNode() or setParens() afterwards.
+ * @author kevinrobell
+ *
+ */
+public class PathCopier
+{
+   private NodeStack stack = new NodeStack();
+   private Expression[] nodes = new Expression[16]; //Finished nodes waiting for their operator
+   private int size = 0;
+   private int replaced = 0;
+
+   /**
+    * @param rootNode Root of a tree that passes checkTree().
+    * @param replacement Gives the new node for each value, or the same node to keep it.
+    * @return The root of the new tree.
+    */
+   public Expression replace(Expression rootNode, UnaryOperator<Expression> replacement)
+   {
+      stack.clear();
+      size = 0;
+      replaced = 0;
+
+      Expression node = rootNode;
+      while(true)
+      {
+         while(node instanceof Operator)
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).getLeftNode();
+         }
+
+         Expression newNode = replacement.apply(node);
+         if(newNode != node)
+            replaced++;
+         pushNode(newNode);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            combine(stack.pop());
+         }
+
+         if(node == null)
+         {
+            Expression newRoot = nodes[0];
+            nodes[0] = null;
+            return newRoot;
+         }
+      }
+   }
+
+   /**
+    * @return The number of values the last replace() changed.
+    */
+   public int getReplaced() { return replaced; }
+
+   private void pushNode(Expression node)
+   {
+      if(size == nodes.length)
+         nodes = Arrays.copyOf(nodes, size * 2);
+      nodes[size++] = node;
+   }
+
+   private void combine(Operator operator)
+   {
+      size--;
+      Expression leftNode = nodes[size - 1];
+      Expression rightNode = nodes[size];
+      nodes[size] = null;
+
+      //The operator is only copied if one of its sides changed.
+      if(leftNode != operator.getLeftNode() || rightNode != operator.getRightNode())
+      {
+         Operator copy = operator.copy();
+         copy.setLeftNode(leftNode);
+         copy.setRightNode(rightNode);
+         nodes[size - 1] = copy;
+      }
+      else
+         nodes[size - 1] = operator;
+   }
+}
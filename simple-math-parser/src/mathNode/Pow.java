@@ -7,29 +7,77 @@ package mathNode;
  */
 public class Pow extends Operator
 {
+   private static final long MAX_EXACT = 1L << 53; //Larger integers are not all doubles
+
    public Pow() { precedence = 1; }
    
-   public Number calculate()
+   public char getSymbol() { return '^'; }
+   
+   protected double combine(double leftNum, double rightNum)
    {
-      return Math.pow(getLeftNode().calculate().doubleValue(), getRightNode().calculate().doubleValue());
+      return power(leftNum, rightNum);
    }
    
-   public String toString()
+   protected void combine(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
    {
-      String str = getLeftNode().toString() + " ^ " + getRightNode().toString();
-      
-      if(isParens())
-         return '(' + str + ')';
-      else
-         return str;
+      for(int i = 0; i < count; i++)
+         out[outStart + i] = power(left[leftStart + i], right[rightStart + i]);
    }
-   
-   @Override
-   public Object clone() throws CloneNotSupportedException
+
+   /**
+    * Gives the same bits as Math.pow(), but an integer to a whole number that is not
+    * negative is found by squaring in a long, which is a few multiplications instead of
+    * a logarithm. Math.pow() is exact when the answer is an integer that is a double, so
+    * both give the same answer. If the long overflows or the answer is too large to be
+    * exact, Math.pow() is used.
+    * @param base
+    * @param exponent
+    * @return double
+    */
+   public static double power(double base, double exponent)
+   {
+      long integerBase = (long) base;
+      int integerExponent = (int) exponent;
+
+      //Zero is left to Math.pow(), because -0.0 to an odd power is -0.0.
+      if(integerBase == base && integerExponent == exponent && integerBase != 0
+            && integerExponent >= 0 && integerBase >= -MAX_EXACT && integerBase <= MAX_EXACT)
+      {
+         long result = integerPower(integerBase, integerExponent);
+         if(result != 0)
+            return result;
+      }
+
+      return Math.pow(base, exponent);
+   }
+
+   /**
+    * @return base ^ exponent, or 0 if it is not an exact double.
+    */
+   private static long integerPower(long base, int exponent)
    {
-      Pow clone = (Pow) super.clone();
-      clone.setLeftNode((Expression) this.getLeftNode().clone());
-      clone.setRightNode((Expression) this.getRightNode().clone());
-      return clone;
+      long result = 1;
+      while(true)
+      {
+         if((exponent & 1) != 0)
+         {
+            long high = Math.multiplyHigh(result, base);
+            result *= base;
+            if(high != result >> 63)
+               return 0;
+         }
+
+         exponent >>= 1;
+         if(exponent == 0)
+            break;
+
+         long high = Math.multiplyHigh(base, base);
+         base *= base;
+         if(high != base >> 63)
+            return 0;
+      }
+
+      return result >= -MAX_EXACT && result <= MAX_EXACT ? result : 0;
    }
-}
\ No newline at end of file
+}
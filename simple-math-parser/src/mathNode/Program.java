@@ -0,0 +1,339 @@
+package mathNode;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A tree of math nodes lowered to a flat list of instructions for a small stack machine.
+ * The types of all values are known when the tree is lowered, so each instruction does
+ * one kind of math: IADD adds two integers, DADD two decimals, and I2D or I2D_LEFT
+ * widens an integer where an operator does decimal math, exactly like calculate() does
+ * it. Instructions are kept in an int[] and decimal constants in a long[] of their bits,
+ * and the machine runs them over a long[] stack, so nothing points at anything else.
+ * <p>
+ * VAR and NEG_VAR push the value of a variable from the array of values. The first time
+ * a Shared node is reached its subtree is lowered and STORE keeps its answer in a frame
+ * below the stack, and the other places it appears LOAD it, like the Evaluator does.
+ * <p>
+ * Programs do not change and can be used by any number of threads or serialized. Each
+ * thread runs them on its own stack, which is kept for the next run.
+ * @author kevinrobell
+ *
+ */
+public class Program extends CompiledExpression implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   //Instructions. ICONST is followed by the value, DCONST by the index of the constant,
+   //VAR and NEG_VAR by the slot of the variable and STORE and LOAD by the index of the
+   //Shared node.
+   public static final int ICONST = 0;
+   public static final int DCONST = 1;
+   public static final int IADD = 2;
+   public static final int ISUB = 3;
+   public static final int IMUL = 4;
+   public static final int DADD = 5;
+   public static final int DSUB = 6;
+   public static final int DMUL = 7;
+   public static final int DDIV = 8;
+   public static final int DPOW = 9;
+   public static final int I2D = 10; //Widens the value on top of the stack
+   public static final int I2D_LEFT = 11; //Widens the value below the top
+   public static final int VAR = 12;
+   public static final int NEG_VAR = 13;
+   public static final int STORE = 14; //Keeps the value on top of the stack in the frame
+   public static final int LOAD = 15;
+
+   //Stack of the programs running on each thread. A program writes every place before it
+   //reads it, so what is left from the last one does not matter.
+   private static final ThreadLocal<long[]> STACKS = ThreadLocal.withInitial(() -> new long[64]);
+
+   private int[] code;
+   private long[] constants;
+   private int maxStack;
+   private int frameSize; //Number of Shared answers
+   private boolean isInt;
+
+   /**
+    * Lowers the tree below rootNode.
+    * @param rootNode Root of a tree that passes checkTree().
+    */
+   public Program(Expression rootNode)
+   {
+      if(!rootNode.checkTree())
+         throw new IllegalArgumentException("The tree is not complete");
+
+      new Lowering().lower(rootNode);
+   }
+
+   public boolean isInt() { return isInt; }
+
+   public int evalInt(double[] values)
+   {
+      if(!isInt)
+         return super.evalInt(values);
+      return (int) run(values);
+   }
+
+   public double evalDouble(double[] values)
+   {
+      long result = run(values);
+      return isInt ? (int) result : Double.longBitsToDouble(result);
+   }
+
+   /**
+    * @return A copy of the instructions.
+    */
+   public int[] getCode() { return code.clone(); }
+
+   /**
+    * @return A copy of the bits of the decimal constants.
+    */
+   public long[] getConstants() { return constants.clone(); }
+
+   /**
+    * Runs the instructions.
+    * @param values Values of the variables by slot.
+    * @return The result as an int or the bits of a double.
+    */
+   private long run(double[] values)
+   {
+      int[] code = this.code;
+      long[] stack = stack(frameSize + maxStack); //The frame, then the stack
+      int top = frameSize;
+
+      for(int pc = 0; pc < code.length; pc++)
+      {
+         switch(code[pc])
+         {
+            case ICONST: stack[top++] = code[++pc]; break;
+            case DCONST: stack[top++] = constants[code[++pc]]; break;
+            case IADD: top--; stack[top - 1] = (int) stack[top - 1] + (int) stack[top]; break;
+            case ISUB: top--; stack[top - 1] = (int) stack[top - 1] - (int) stack[top]; break;
+            case IMUL: top--; stack[top - 1] = (int) stack[top - 1] * (int) stack[top]; break;
+            case DADD: top--; stack[top - 1] = bits(decimal(stack[top - 1]) + decimal(stack[top])); break;
+            case DSUB: top--; stack[top - 1] = bits(decimal(stack[top - 1]) - decimal(stack[top])); break;
+            case DMUL: top--; stack[top - 1] = bits(decimal(stack[top - 1]) * decimal(stack[top])); break;
+            case DDIV: top--; stack[top - 1] = bits(decimal(stack[top - 1]) / decimal(stack[top])); break;
+            case DPOW: top--; stack[top - 1] = bits(Pow.power(decimal(stack[top - 1]), decimal(stack[top]))); break;
+            case I2D: stack[top - 1] = bits((int) stack[top - 1]); break;
+            case I2D_LEFT: stack[top - 2] = bits((int) stack[top - 2]); break;
+            case VAR: stack[top++] = bits(values[code[++pc]]); break;
+            case NEG_VAR: stack[top++] = bits(-values[code[++pc]]); break;
+            case STORE: stack[code[++pc]] = stack[top - 1]; break;
+            case LOAD: stack[top++] = stack[code[++pc]]; break;
+            default: throw new IllegalStateException("Unknown instruction " + code[pc]);
+         }
+      }
+
+      return stack[frameSize];
+   }
+
+   /**
+    * Gives the calling thread's stack, so running allocates nothing.
+    * @param size Number of places the frame and the stack need.
+    * @return long[] of at least size.
+    */
+   private static long[] stack(int size)
+   {
+      long[] stack = STACKS.get();
+      if(stack.length < size)
+      {
+         stack = new long[Math.max(size, stack.length * 2)];
+         STACKS.set(stack);
+      }
+      return stack;
+   }
+
+   private static double decimal(long bits) { return Double.longBitsToDouble(bits); }
+   private static long bits(double value) { return Double.doubleToRawLongBits(value); }
+
+   /**
+    * Writes the instructions of a tree in the same order calculate() visits the nodes.
+    */
+   private class Lowering
+   {
+      private int[] out = new int[16];
+      private int size = 0;
+      private long[] constantsOut = new long[4];
+      private int constantCount = 0;
+
+      private boolean[] types = new boolean[16]; //Whether each value on the stack is an integer
+      private int depth = 0;
+
+      //Whether each Shared node that is stored is an integer by index, and the Shared
+      //nodes that are being lowered.
+      private boolean[] stored = new boolean[0];
+      private boolean[] sharedTypes = new boolean[0];
+      private Shared[] open = new Shared[4];
+      private int openCount = 0;
+
+      void lower(Expression rootNode)
+      {
+         NodeStack stack = new NodeStack();
+
+         Expression node = rootNode;
+         while(true)
+         {
+            while(node instanceof Operator || (node instanceof Shared && !isStored((Shared) node)))
+            {
+               if(node instanceof Shared)
+               {
+                  if(openCount == open.length)
+                     open = Arrays.copyOf(open, openCount * 2);
+                  open[openCount++] = (Shared) node;
+                  node = ((Shared) node).getNode();
+                  continue;
+               }
+
+               stack.push((Operator) node);
+               stack.visit();
+               node = ((Operator) node).getLeftNode();
+            }
+
+            lowerValue(node);
+
+            Expression finished = node;
+            node = null;
+            while(true)
+            {
+               //Keep the answers of the Shared nodes whose subtree is finished.
+               while(openCount > 0 && open[openCount - 1].getNode() == finished)
+               {
+                  finished = open[--openCount];
+                  lowerStore((Shared) finished);
+               }
+
+               if(stack.isEmpty())
+                  break;
+               if(stack.visit() == 1)
+               {
+                  node = stack.peek().getRightNode();
+                  break;
+               }
+
+               finished = stack.pop();
+               lowerOperator((Operator) finished);
+            }
+
+            if(node == null)
+               break;
+         }
+
+         code = Arrays.copyOf(out, size);
+         constants = Arrays.copyOf(constantsOut, constantCount);
+         isInt = types[0];
+         frameSize = stored.length;
+      }
+
+      private boolean isStored(Shared node)
+      {
+         return node.getIndex() < stored.length && stored[node.getIndex()];
+      }
+
+      private void lowerStore(Shared node)
+      {
+         int index = node.getIndex();
+         if(index >= stored.length)
+         {
+            stored = Arrays.copyOf(stored, index + 1);
+            sharedTypes = Arrays.copyOf(sharedTypes, index + 1);
+         }
+
+         write(STORE);
+         write(index);
+         stored[index] = true;
+         sharedTypes[index] = types[depth - 1];
+      }
+
+      private void lowerValue(Expression node)
+      {
+         if(node.getClass() == Int.class)
+         {
+            write(ICONST);
+            write(((Int) node).getValue());
+            push(true);
+         }
+         else if(node.getClass() == Dec.class)
+         {
+            if(constantCount == constantsOut.length)
+               constantsOut = Arrays.copyOf(constantsOut, constantCount * 2);
+            constantsOut[constantCount] = bits(((Dec) node).getValue());
+
+            write(DCONST);
+            write(constantCount++);
+            push(false);
+         }
+         else if(node.getClass() == Variable.class && ((Variable) node).getSlot() >= 0)
+         {
+            write(((Variable) node).isNegative() ? NEG_VAR : VAR);
+            write(((Variable) node).getSlot());
+            push(false);
+         }
+         else if(node.getClass() == Shared.class)
+         {
+            write(LOAD);
+            write(((Shared) node).getIndex());
+            push(sharedTypes[((Shared) node).getIndex()]);
+         }
+         else
+            throw new IllegalArgumentException("Cannot lower " + node.getClass().getName());
+      }
+
+      private void lowerOperator(Operator node)
+      {
+         boolean rightInt = types[--depth];
+         boolean leftInt = types[--depth];
+
+         if(leftInt && rightInt && node.isIntOperation())
+         {
+            if(node.getClass() == Add.class)
+               write(IADD);
+            else if(node.getClass() == Sub.class)
+               write(ISUB);
+            else if(node.getClass() == Mult.class)
+               write(IMUL);
+            else
+               throw new IllegalArgumentException("Cannot lower " + node.getClass().getName());
+
+            push(true);
+            return;
+         }
+
+         //Widen the integers.
+         if(leftInt)
+            write(I2D_LEFT);
+         if(rightInt)
+            write(I2D);
+
+         if(node.getClass() == Add.class)
+            write(DADD);
+         else if(node.getClass() == Sub.class)
+            write(DSUB);
+         else if(node.getClass() == Mult.class)
+            write(DMUL);
+         else if(node.getClass() == Div.class)
+            write(DDIV);
+         else if(node.getClass() == Pow.class)
+            write(DPOW);
+         else
+            throw new IllegalArgumentException("Cannot lower " + node.getClass().getName());
+
+         push(false);
+      }
+
+      private void write(int word)
+      {
+         if(size == out.length)
+            out = Arrays.copyOf(out, size * 2);
+         out[size++] = word;
+      }
+
+      private void push(boolean isIntValue)
+      {
+         if(depth == types.length)
+            types = Arrays.copyOf(types, depth * 2);
+         types[depth++] = isIntValue;
+         maxStack = Math.max(maxStack, depth);
+      }
+   }
+}
@@ -0,0 +1,264 @@
+package mathNode;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Makes a tree with the same result where long runs of additions or multiplications
+ * are balanced, so 1 + 2 + ... + n has a depth of log n instead of n. The values of a
+ * run are kept in the same order, only the grouping changes.
+ * <p>
+ * A run is only regrouped if it gives exactly the same result, which is when all of its
+ * values are integers, since integer addition and multiplication wrap around the same
+ * way in any grouping. Regrouping decimals changes how they are rounded, so runs of
+ * decimals are only balanced if that is asked for. Runs that mix integers and decimals
+ * are never balanced, because the grouping decides which integers wrap.
+ * <p>
+ * Like the Optimizer, the given tree is never changed and parts of it that do not
+ * change are shared with the new tree. New operators that are the right side of another
+ * have parenthesis, so toString() shows the new grouping.
+ * @author kevinrobell
+ *
+ */
+public class Rebalancer
+{
+   //Static types of values
+   private static final byte INT = 0;
+   private static final byte DOUBLE = 1;
+   private static final byte UNKNOWN = 2;
+
+   private boolean decimals;
+   private NodeStack stack = new NodeStack();
+
+   //Finished values waiting for their operator. A run is only made into nodes when it
+   //cannot grow anymore.
+   private Expression[] nodes = new Expression[16];
+   private byte[] types = new byte[16];
+   private ArrayDeque<Expression>[] runs = newRuns(16); //Values of a run or null
+   private Operator[] runTops = new Operator[16]; //Top operator of each run
+   private int size = 0;
+
+   /**
+    * Makes a Rebalancer that only balances runs of integers.
+    */
+   public Rebalancer()
+   {
+      this(false);
+   }
+
+   /**
+    * @param decimals Whether runs of decimals are balanced too, which can change how the
+    * result is rounded.
+    */
+   public Rebalancer(boolean decimals)
+   {
+      this.decimals = decimals;
+   }
+
+   public boolean isDecimals() { return decimals; }
+
+   /**
+    * @param rootNode Root of a tree that passes checkTree().
+    * @return The root of the balanced tree.
+    */
+   public Expression rebalance(Expression rootNode)
+   {
+      stack.clear();
+      size = 0;
+
+      Expression node = rootNode;
+      while(true)
+      {
+         while(node instanceof Operator)
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).getLeftNode();
+         }
+
+         pushValue(node);
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            combine(stack.pop());
+         }
+
+         if(node == null)
+         {
+            Expression balanced = toNode(0);
+            nodes[0] = null;
+            return balanced;
+         }
+      }
+   }
+
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private static ArrayDeque<Expression>[] newRuns(int length)
+   {
+      return new ArrayDeque[length];
+   }
+
+   private void pushValue(Expression node)
+   {
+      if(size == nodes.length)
+      {
+         nodes = Arrays.copyOf(nodes, size * 2);
+         types = Arrays.copyOf(types, size * 2);
+         runs = Arrays.copyOf(runs, size * 2);
+         runTops = Arrays.copyOf(runTops, size * 2);
+      }
+
+      nodes[size] = node;
+      runs[size] = null;
+      if(node.getClass() == Int.class)
+         types[size] = INT;
+      else if(node.getClass() == Dec.class || node.getClass() == Variable.class)
+         types[size] = DOUBLE;
+      else
+         types[size] = UNKNOWN;
+
+      size++;
+   }
+
+   private void combine(Operator operator)
+   {
+      size--;
+      int left = size - 1;
+      int right = size;
+      byte type = resultType(operator, types[left], types[right]);
+
+      if(canRegroup(operator, types[left], types[right]))
+      {
+         //Join the values of both sides into one run, moving the smaller one.
+         ArrayDeque<Expression> leftRun = runOf(left, operator);
+         ArrayDeque<Expression> rightRun = runOf(right, operator);
+         ArrayDeque<Expression> run;
+         if(leftRun.size() >= rightRun.size())
+         {
+            leftRun.addAll(rightRun);
+            run = leftRun;
+         }
+         else
+         {
+            while(!leftRun.isEmpty())
+               rightRun.addFirst(leftRun.removeLast());
+            run = rightRun;
+         }
+
+         nodes[left] = null;
+         runs[left] = run;
+         runTops[left] = operator;
+      }
+      else
+      {
+         Expression leftNode = toNode(left);
+         Expression rightNode = toNode(right);
+         Operator balanced = operator;
+         if(leftNode != operator.getLeftNode() || rightNode != operator.getRightNode())
+         {
+            balanced = operator.copy();
+            balanced.setLeftNode(leftNode);
+            balanced.setRightNode(rightNode);
+         }
+
+         nodes[left] = balanced;
+         runs[left] = null;
+      }
+
+      types[left] = type;
+      nodes[right] = null;
+      runs[right] = null;
+      runTops[right] = null;
+   }
+
+   private boolean canRegroup(Operator operator, byte left, byte right)
+   {
+      if(operator.getClass() != Add.class && operator.getClass() != Mult.class)
+         return false;
+
+      return left == right && (left == INT || (left == DOUBLE && decimals));
+   }
+
+   /**
+    * @return The run at index if it is a run of the same kind of operator, or else a new
+    * run with just the value at index.
+    */
+   private ArrayDeque<Expression> runOf(int index, Operator operator)
+   {
+      if(runs[index] != null && runTops[index].getClass() == operator.getClass())
+         return runs[index];
+
+      ArrayDeque<Expression> run = new ArrayDeque<Expression>();
+      run.add(toNode(index));
+      return run;
+   }
+
+   /**
+    * @return The node for the value at index, balancing it if it is a run.
+    */
+   private Expression toNode(int index)
+   {
+      if(runs[index] != null)
+      {
+         nodes[index] = balance(runs[index], runTops[index]);
+         runs[index] = null;
+         runTops[index] = null;
+      }
+
+      return nodes[index];
+   }
+
+   /**
+    * Joins neighbours in pairs until one node is left, so the depth is log n.
+    */
+   private static Expression balance(ArrayDeque<Expression> run, Operator top)
+   {
+      //A single operator whose sides did not change is kept.
+      if(run.size() == 2 && run.peekFirst() == top.getLeftNode() && run.peekLast() == top.getRightNode())
+         return top;
+
+      Expression[] level = run.toArray(new Expression[run.size()]);
+      boolean[] isNew = new boolean[level.length];
+      int count = level.length;
+      while(count > 1)
+      {
+         int next = 0;
+         for(int i = 0; i + 1 < count; i += 2)
+         {
+            Operator joined = top.getClass() == Add.class ? new Add() : new Mult();
+            joined.setLeftNode(level[i]);
+            joined.setRightNode(level[i + 1]);
+            if(isNew[i + 1])
+               level[i + 1].setParens(true);
+            level[next] = joined;
+            isNew[next++] = true;
+         }
+         if(count % 2 == 1)
+         {
+            level[next] = level[count - 1];
+            isNew[next++] = isNew[count - 1];
+         }
+         count = next;
+      }
+
+      level[0].setParens(top.isParens());
+      return level[0];
+   }
+
+   private static byte resultType(Operator operator, byte left, byte right)
+   {
+      if(!operator.isIntOperation())
+         return DOUBLE;
+      if(left == INT && right == INT)
+         return INT;
+      if(left == DOUBLE || right == DOUBLE)
+         return DOUBLE;
+      return UNKNOWN;
+   }
+}
@@ -0,0 +1,58 @@
+package mathNode;
+import java.io.IOException;
+
+/**
+ * Node for a subtree that appears more than once in a tree, made by the
+ * SubexpressionEliminator. Every place the subtree appears points at the same Shared
+ * node. The Evaluator, the BatchEvaluator and the compiled expressions calculate the
+ * subtree once and use that answer for the other places, keeping it by the index of the
+ * node. For everything else a Shared node is just its subtree.
+ * @author kevinrobell
+ *
+ */
+public class Shared extends Expression
+{
+   private Expression node;
+   private int index;
+
+   /**
+    * @param node Root of the subtree.
+    * @param index Where walkers keep the answer, from 0 up to the number of Shared nodes
+    * in the tree.
+    */
+   public Shared(Expression node, int index)
+   {
+      this.node = node;
+      this.index = index;
+   }
+
+   public Expression getNode() { return node; }
+   public int getIndex() { return index; }
+
+   public Number calculate() { return node.calculate(); }
+
+   public void render(Appendable out) throws IOException { node.render(out); }
+
+   /**
+    * Shared nodes are equal if their subtrees are.
+    */
+   @Override
+   public boolean equals(Object other)
+   {
+      return other != null && other.getClass() == Shared.class && ((Shared) other).node.equals(node);
+   }
+
+   @Override
+   public int hashCode() { return node.hashCode(); }
+
+   @Override
+   public Object clone() throws CloneNotSupportedException
+   {
+      Shared clone = (Shared) super.clone();
+      clone.node = (Expression) node.clone();
+      return clone;
+   }
+
+   @Override
+   public boolean checkTree() { return node.checkTree(); }
+}
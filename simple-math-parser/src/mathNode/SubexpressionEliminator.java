@@ -0,0 +1,137 @@
+package mathNode;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Makes a tree where every operator subtree that appears more than once is calculated
+ * once. Equal subtrees are first made into one node with an Interner, which turns the
+ * tree into a graph, and then every operator that is below more than one operator of
+ * the graph gets a Shared node above it. All the places of the subtree point at that
+ * Shared node, so the Evaluator and the BatchEvaluator calculate it once and use the
+ * answer for the others. Subtrees inside a shared subtree are only shared if they also
+ * appear somewhere else, since calculating the outer one once already calculates them
+ * once.
+ * <p>
+ * Like the Optimizer, the given tree is never changed and only operators above Shared
+ * nodes are copied. It should run last, after the Optimizer and the Rebalancer, which do
+ * not know Shared nodes.
+ * @author kevinrobell
+ *
+ */
+public class SubexpressionEliminator
+{
+   private int sharedCount = 0;
+
+   /**
+    * @param rootNode Root of a tree that passes checkTree().
+    * @return The root of the tree with Shared nodes, or rootNode if nothing appears twice.
+    */
+   public Expression eliminate(Expression rootNode)
+   {
+      sharedCount = 0;
+      Expression graph = new Interner().intern(rootNode);
+      IdentityHashMap<Operator, int[]> uses = countUses(graph);
+
+      //Copy the graph in the order the Evaluator visits it, so Shared nodes are numbered
+      //in the order they are calculated. Nodes that are done are only made once.
+      IdentityHashMap<Expression, Expression> done = new IdentityHashMap<>();
+      NodeStack stack = new NodeStack();
+      Expression[] nodes = new Expression[16];
+      int size = 0;
+
+      Expression node = graph;
+      while(true)
+      {
+         while(node instanceof Operator && !done.containsKey(node))
+         {
+            stack.push((Operator) node);
+            stack.visit();
+            node = ((Operator) node).getLeftNode();
+         }
+
+         if(size == nodes.length)
+            nodes = Arrays.copyOf(nodes, size * 2);
+         nodes[size++] = done.containsKey(node) ? done.get(node) : node;
+
+         node = null;
+         while(!stack.isEmpty())
+         {
+            if(stack.visit() == 1)
+            {
+               node = stack.peek().getRightNode();
+               break;
+            }
+
+            Operator operator = stack.pop();
+            size--;
+            Expression leftNode = nodes[size - 1];
+            Expression rightNode = nodes[size];
+            nodes[size] = null;
+
+            Expression newNode = operator;
+            if(leftNode != operator.getLeftNode() || rightNode != operator.getRightNode())
+            {
+               Operator copy = operator.copy();
+               copy.setLeftNode(leftNode);
+               copy.setRightNode(rightNode);
+               newNode = copy;
+            }
+            if(uses.get(operator)[0] > 1)
+               newNode = new Shared(newNode, sharedCount++);
+
+            done.put(operator, newNode);
+            nodes[size - 1] = newNode;
+         }
+
+         if(node == null)
+            return sharedCount == 0 ? rootNode : nodes[0];
+      }
+   }
+
+   /**
+    * @return The number of Shared nodes the last eliminate() made.
+    */
+   public int getSharedCount() { return sharedCount; }
+
+   /**
+    * Counts how many operators of the graph each operator is below. The sides of an
+    * operator are only counted the first time it is reached.
+    */
+   private static IdentityHashMap<Operator, int[]> countUses(Expression graph)
+   {
+      IdentityHashMap<Operator, int[]> uses = new IdentityHashMap<>();
+      Operator[] pending = new Operator[16];
+      int size = 0;
+
+      if(graph instanceof Operator)
+      {
+         uses.put((Operator) graph, new int[] {1});
+         pending[size++] = (Operator) graph;
+      }
+
+      while(size > 0)
+      {
+         Operator operator = pending[--size];
+         for(int side = 0; side < 2; side++)
+         {
+            Expression child = side == 0 ? operator.getLeftNode() : operator.getRightNode();
+            if(!(child instanceof Operator))
+               continue;
+
+            int[] count = uses.get(child);
+            if(count != null)
+            {
+               count[0]++;
+               continue;
+            }
+
+            uses.put((Operator) child, new int[] {1});
+            if(size == pending.length)
+               pending = Arrays.copyOf(pending, size * 2);
+            pending[size++] = (Operator) child;
+         }
+      }
+
+      return uses;
+   }
+}
@@ -0,0 +1,118 @@
+package mathNode;
+import java.io.IOException;
+
+/**
+ * Node for a named value that is given when the expression is calculated. Variables
+ * are decimals. When an expression is prepared each variable gets a slot, which is its
+ * index in the array of values. A name that starts with '-' is the negative of the
+ * variable without it.
+ * @author kevinrobell
+ *
+ */
+public class Variable extends Expression
+{
+   private String name;
+   private boolean negative;
+   private int slot = -1;
+
+   /**
+    * @param name The name of the variable, with a '-' in front if it is negative.
+    */
+   public Variable(String name)
+   {
+      negative = name.startsWith("-");
+      this.name = negative ? name.substring(1) : name;
+   }
+
+   /**
+    * @return The name of the variable without the '-'.
+    */
+   public String getName() { return name; }
+   public boolean isNegative() { return negative; }
+
+   public int getSlot() { return slot; }
+   public void setSlot(int slot) { this.slot = slot; }
+
+   /**
+    * @param values Values of the variables by slot.
+    * @return The value of this variable.
+    */
+   public double getValue(double[] values)
+   {
+      if(slot < 0)
+         throw new IllegalStateException("Variable " + name + " has no slot");
+
+      return negative ? -values[slot] : values[slot];
+   }
+
+   /**
+    * A variable has no value without an array of values, so use a prepared expression.
+    */
+   public Number calculate()
+   {
+      throw new IllegalStateException("Variable " + name + " has no value");
+   }
+
+   public void render(Appendable out) throws IOException
+   {
+      if(isParens())
+         out.append('(');
+      if(negative)
+         out.append('-');
+      out.append(name);
+      if(isParens())
+         out.append(')');
+   }
+
+   /**
+    * Variables are equal if they have the same name, sign and parenthesis. The slot is
+    * not part of the statement, so it is not compared.
+    */
+   @Override
+   public boolean equals(Object other)
+   {
+      if(other == null || other.getClass() != Variable.class)
+         return false;
+
+      Variable variable = (Variable) other;
+      return variable.name.equals(name) && variable.negative == negative && variable.parenthesis == parenthesis;
+   }
+
+   @Override
+   public int hashCode() { return 31 * (31 * name.hashCode() + (negative ? 1 : 0)) + (parenthesis ? 1 : 0); }
+
+   @Override
+   public Object clone() throws CloneNotSupportedException
+   {
+      return (Variable) super.clone();
+   }
+
+   @Override
+   public boolean checkTree() { return true; }
+
+   /**
+    * Checks if the characters of text from start up to but not including end are a
+    * variable name. Names start with a letter or '_' and go on with letters, digits or
+    * '_'. There can be a '-' in front.
+    * @param text
+    * @param start
+    * @param end
+    * @return boolean
+    */
+   public static boolean isName(CharSequence text, int start, int end)
+   {
+      if(start < end && text.charAt(start) == '-')
+         start++;
+      if(start == end || !(Character.isLetter(text.charAt(start)) || text.charAt(start) == '_'))
+         return false;
+
+      for(int i = start + 1; i < end; i++)
+      {
+         char ch = text.charAt(i);
+         if(!(Character.isLetterOrDigit(ch) || ch == '_'))
+            return false;
+      }
+
+      return true;
+   }
+}
@@ -37,6 +37,8 @@ public class CalcApp
       //Initialize the MathTree and print the solution if the expression is valid.
       if(calcTree.init(mathExpression))
          System.out.println(calcTree.solve());
+      else
+         System.out.println(calcTree.getDiagnostic().getMessage());
    }
 
 }
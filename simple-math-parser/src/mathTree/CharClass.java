@@ -0,0 +1,55 @@
+package mathTree;
+import java.util.BitSet;
+
+/**
+ * A set of characters stored as a 128 bit mask for ASCII and a BitSet for
+ * everything else. Checking a character does not box it.
+ * @author kevinrobell
+ *
+ */
+class CharClass
+{
+   private long low = 0; //Bits for chars 0-63
+   private long high = 0; //Bits for chars 64-127
+   private BitSet other = null; //Chars 128 and up, only created when needed
+
+   public void add(char ch)
+   {
+      if(ch < 64)
+         low |= 1L << ch;
+      else if(ch < 128)
+         high |= 1L << ch; //Shift distance is taken mod 64
+      else
+      {
+         if(other == null)
+            other = new BitSet();
+         other.set(ch);
+      }
+   }
+
+   public boolean contains(char ch)
+   {
+      if(ch < 64)
+         return (low & (1L << ch)) != 0;
+      else if(ch < 128)
+         return (high & (1L << ch)) != 0;
+      else
+         return other != null && other.get(ch);
+   }
+
+   /**
+    * Returns a copy of this set. The masks are copied by value and the BitSet is
+    * only cloned if it exists.
+    * @return CharClass
+    */
+   public CharClass copy()
+   {
+      CharClass copy = new CharClass();
+      copy.low = low;
+      copy.high = high;
+      if(other != null)
+         copy.other = (BitSet) other.clone();
+
+      return copy;
+   }
+}
@@ -0,0 +1,102 @@
+package mathTree;
+
+/**
+ * Describes why a math statement is invalid. It keeps an error code, the token and
+ * character position where the error was found, and the parts of the statement the
+ * message needs. The message is only formatted when it is asked for.
+ * @author kevinrobell
+ *
+ */
+public class Diagnostic
+{
+   /**
+    * The kinds of errors in a math statement.
+    */
+   public enum Code
+   {
+      EMPTY_STATEMENT,
+      EMPTY_PARENTHESIS,
+      MISSING_OPEN_PARENTHESIS,
+      MISSING_CLOSE_PARENTHESIS,
+      UNKNOWN_TOKEN,
+      MISSING_VALUE,
+      MISSING_OPERATOR,
+      INCOMPLETE_EXPRESSION,
+      UNBOUND_VARIABLE
+   }
+
+   private Code code;
+   private int token;
+   private int position;
+   private String source;
+
+   //The parts of source named in the message, from start up to but not including end.
+   private int firstStart, firstEnd;
+   private int secondStart, secondEnd;
+
+   private String message = null; //Formatted on first use
+
+   Diagnostic(Code code, int token, int position, String source)
+   {
+      this(code, token, position, source, -1, -1, -1, -1);
+   }
+
+   Diagnostic(Code code, int token, int position, String source,
+         int firstStart, int firstEnd, int secondStart, int secondEnd)
+   {
+      this.code = code;
+      this.token = token;
+      this.position = position;
+      this.source = source;
+      this.firstStart = firstStart;
+      this.firstEnd = firstEnd;
+      this.secondStart = secondStart;
+      this.secondEnd = secondEnd;
+   }
+
+   public Code getCode() { return code; }
+
+   /**
+    * @return The index of the token where the error was found or the number of tokens
+    * if it was found at the end of the statement.
+    */
+   public int getToken() { return token; }
+
+   /**
+    * @return The index of the character in the statement where the error was found.
+    */
+   public int getPosition() { return position; }
+
+   /**
+    * @return A message for people that explains the error.
+    */
+   public String getMessage()
+   {
+      if(message == null)
+         message = format();
+
+      return message;
+   }
+
+   private String format()
+   {
+      switch(code)
+      {
+         case EMPTY_STATEMENT: return "Invalid: Empty statement";
+         case EMPTY_PARENTHESIS: return "Invalid: Empty parenthesis";
+         case MISSING_OPEN_PARENTHESIS: return "Invalid: Missing \"(\"";
+         case MISSING_CLOSE_PARENTHESIS: return "Invalid: Missing \")\"";
+         case UNKNOWN_TOKEN:
+            return "Invalid: Unknown expression \"" + source.substring(firstStart, firstEnd) + "\"";
+         case MISSING_VALUE: return "Invalid: Missing value between two operators";
+         case MISSING_OPERATOR:
+            return "Invalid: Missing operator between " + source.substring(firstStart, firstEnd)
+                  + " and " + source.substring(secondStart, secondEnd);
+         case UNBOUND_VARIABLE:
+            return "Invalid: Variable \"" + source.substring(firstStart, firstEnd) + "\" has no value";
+         default: return "Invalid: Unknown expression";
+      }
+   }
+
+   public String toString() { return getMessage() + " at " + position; }
+}
@@ -0,0 +1,88 @@
+package mathTree;
+
+/**
+ * Estimates how often keys have been seen lately with a count-min sketch. Each key
+ * has a counter in every row of a table, and its estimate is the smallest of them.
+ * Once enough keys have been counted all counters are halved, so keys that were
+ * popular a long time ago fade out. It is not thread safe.
+ * @author kevinrobell
+ *
+ */
+class FrequencySketch
+{
+   private static final int ROWS = 4;
+   private static final int MAX_COUNT = 15;
+
+   private byte[][] table;
+   private int mask;
+   private int additions = 0;
+   private int sampleSize; //Additions between each halving
+
+   /**
+    * @param capacity The number of keys that should be told apart.
+    */
+   public FrequencySketch(int capacity)
+   {
+      int width = Integer.highestOneBit(Math.max(64, Math.min(capacity, 1 << 26) * 8));
+      table = new byte[ROWS][width];
+      mask = width - 1;
+      sampleSize = Math.max(10 * capacity, 16);
+   }
+
+   /**
+    * Counts one more sighting of the key with the hash.
+    * @param hash
+    */
+   public void increment(int hash)
+   {
+      boolean added = false;
+      for(int row = 0; row < ROWS; row++)
+      {
+         int index = index(hash, row);
+         if(table[row][index] < MAX_COUNT)
+         {
+            table[row][index]++;
+            added = true;
+         }
+      }
+
+      if(added && ++additions == sampleSize)
+         halve();
+   }
+
+   /**
+    * @param hash
+    * @return The estimated number of recent sightings of the key with the hash.
+    */
+   public int frequency(int hash)
+   {
+      int count = MAX_COUNT;
+      for(int row = 0; row < ROWS; row++)
+         count = Math.min(count, table[row][index(hash, row)]);
+      return count;
+   }
+
+   private void halve()
+   {
+      for(byte[] counters : table)
+      {
+         for(int i = 0; i < counters.length; i++)
+            counters[i] >>= 1;
+      }
+
+      additions /= 2;
+   }
+
+   /**
+    * Mixes the hash differently for each row so that keys that collide in one row
+    * rarely collide in the others.
+    */
+   private int index(int hash, int row)
+   {
+      int h = (hash + row) * (0x9E3779B9 + 2 * row);
+      h ^= h >>> 15;
+      h *= 0x85EBCA6B;
+      h ^= h >>> 13;
+      return h & mask;
+   }
+}
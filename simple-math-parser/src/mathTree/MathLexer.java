@@ -0,0 +1,209 @@
+package mathTree;
+
+/**
+ * Breaks a math statement into tokens in a single pass. It splits the statement
+ * with the delimiters and special characters of a StringScanner and at the same
+ * time discerns between minus and subtraction symbols and inserts multiplication
+ * symbols implied by parenthesis.
+ * <p>
+ * The lexer can work through a statement in pieces. lex() only consumes tokens
+ * that can be fully decided with the characters it was given and returns where it
+ * stopped, so the caller can hand the rest back with more input.
+ * @author kevinrobell
+ *
+ */
+class MathLexer
+{
+   private static final String OPERATORS = "+-*^/";
+
+   //What the last token means for a following '('.
+   private static final int NO_TOKEN = 0;
+   private static final int NO_MULT = 1; //An operator or '('
+   private static final int VALUE = 2; //Anything else, so '(' needs an implied '*'
+
+   //Answers for whether the token after a ')' implies multiplication.
+   private static final int UNKNOWN = -1;
+   private static final int NO = 0;
+   private static final int YES = 1;
+
+   private StringScanner charClasses;
+   private int lastToken = NO_TOKEN;
+
+   /**
+    * @param charClasses StringScanner that holds the delimiters and special characters.
+    */
+   public MathLexer(StringScanner charClasses) { this.charClasses = charClasses; }
+
+   /**
+    * Forgets the last token so that the next call to lex() starts a new statement.
+    */
+   public void reset() { lastToken = NO_TOKEN; }
+
+   /**
+    * Lexes a whole statement into tokens.
+    * @param source
+    * @param tokens
+    */
+   public void lex(CharSequence source, TokenBuffer tokens)
+   {
+      reset();
+      lex(source, 0, source.length(), true, tokens);
+   }
+
+   /**
+    * Lexes the characters of source from start up to but not including end. The token
+    * buffer is reset first. If isLast is false, tokens that need characters past end
+    * are not consumed.
+    * @param source
+    * @param start
+    * @param end
+    * @param isLast Whether end is the end of the statement.
+    * @param tokens
+    * @return The position of the first character that was not consumed.
+    */
+   public int lex(CharSequence source, int start, int end, boolean isLast, TokenBuffer tokens)
+   {
+      tokens.reset(source);
+
+      int pos = start;
+      while(true)
+      {
+         pos = skipDelims(source, pos, end);
+         if(pos == end)
+            return end;
+
+         char ch = source.charAt(pos);
+
+         if(charClasses.isSpecialChar(ch))
+         {
+            //Add implicit multiplication before open parenthesis
+            if(ch == '(')
+            {
+               if(lastToken == VALUE)
+                  tokens.add(-1, -1, TokenBuffer.IMPLICIT_MULT);
+
+               tokens.add(pos, pos + 1, TokenBuffer.SPECIAL);
+               lastToken = NO_MULT;
+            }
+            //Add implicit multiplication after closed parenthesis
+            else if(ch == ')')
+            {
+               int isMult = impliesMult(source, pos + 1, end, isLast);
+               if(isMult == UNKNOWN)
+                  return pos;
+
+               tokens.add(pos, pos + 1, TokenBuffer.SPECIAL);
+               lastToken = VALUE;
+
+               if(isMult == YES)
+               {
+                  tokens.add(-1, -1, TokenBuffer.IMPLICIT_MULT);
+                  lastToken = NO_MULT;
+               }
+            }
+            else
+            {
+               tokens.add(pos, pos + 1, TokenBuffer.SPECIAL);
+               lastToken = isOperator(ch) ? NO_MULT : VALUE;
+            }
+
+            pos++;
+         }
+         else
+         {
+            int tokenEnd = textEnd(source, pos, end);
+            if(tokenEnd == end && !isLast)
+               return pos;
+
+            addText(source, pos, tokenEnd, tokens);
+            pos = tokenEnd;
+         }
+      }
+   }
+
+   /**
+    * Adds a run of text characters. If it is longer than one character, it is split
+    * around its '-' characters. A '-' becomes part of the number after it when it
+    * starts the run or follows another '-'. Otherwise it is subtraction.
+    */
+   private void addText(CharSequence source, int start, int end, TokenBuffer tokens)
+   {
+      if(end - start == 1)
+      {
+         tokens.add(start, end, TokenBuffer.TEXT);
+         lastToken = isOperator(source.charAt(start)) ? NO_MULT : VALUE;
+         return;
+      }
+
+      int i = start;
+      while(i < end)
+      {
+         if(source.charAt(i) == '-')
+         {
+            boolean isNegative = (i == start || source.charAt(i - 1) == '-')
+                  && i + 1 < end && source.charAt(i + 1) != '-';
+
+            if(!isNegative)
+            {
+               tokens.add(i, i + 1, TokenBuffer.TEXT);
+               lastToken = NO_MULT;
+               i++;
+               continue;
+            }
+         }
+
+         //Number, possibly with a negative sign, runs until the next '-'.
+         int tokenEnd = i + 1;
+         while(tokenEnd < end && source.charAt(tokenEnd) != '-')
+            tokenEnd++;
+
+         tokens.add(i, tokenEnd, TokenBuffer.TEXT);
+         lastToken = VALUE;
+         i = tokenEnd;
+      }
+   }
+
+   /**
+    * Checks the token after a ')' starting at pos. Multiplication is implied unless
+    * the statement ends or the next token is an operator or another ')'.
+    */
+   private int impliesMult(CharSequence source, int pos, int end, boolean isLast)
+   {
+      pos = skipDelims(source, pos, end);
+      if(pos == end)
+         return isLast ? NO : UNKNOWN;
+
+      char ch = source.charAt(pos);
+      if(!charClasses.isSpecialChar(ch))
+      {
+         //Only a one character token can be an operator.
+         if(pos + 1 == end && !isLast)
+            return UNKNOWN;
+         if(pos + 1 < end && !isTokenEnd(source.charAt(pos + 1)))
+            return YES;
+      }
+
+      return (isOperator(ch) || ch == ')') ? NO : YES;
+   }
+
+   private int skipDelims(CharSequence source, int pos, int end)
+   {
+      while(pos < end && charClasses.isDelim(source.charAt(pos)))
+         pos++;
+      return pos;
+   }
+
+   private int textEnd(CharSequence source, int pos, int end)
+   {
+      while(pos < end && !isTokenEnd(source.charAt(pos)))
+         pos++;
+      return pos;
+   }
+
+   private boolean isTokenEnd(char ch)
+   {
+      return charClasses.isDelim(ch) || charClasses.isSpecialChar(ch);
+   }
+
+   private static boolean isOperator(char ch) { return OPERATORS.indexOf(ch) >= 0; }
+}
@@ -1,5 +1,4 @@
 package mathTree;
-import java.util.LinkedList;
 
 /**
  * This is a math parsing tree that uses the mathNode package for the nodes.
@@ -9,133 +8,120 @@ import java.util.LinkedList;
 public class MathTree implements Cloneable
 {
    private mathNode.Expression rootNode = null;
+   private mathNode.Expression optimizedNode = null; //Smaller tree for calculating, made on first use
+   private mathNode.Expression balancedNode = null; //Built tree after the rebalancer, made on first use
    private StringScanner strScanner = new StringScanner(); //Set up in the constructor
    private mathNode.Factory nodeFactory = new mathNode.Factory();
+   private MathLexer lexer = new MathLexer(strScanner);
+   private TokenBuffer tokens = new TokenBuffer(); //Tokens from the lexer
+   private TreeBuilder treeBuilder = new TreeBuilder(nodeFactory);
+   private Diagnostic diagnostic = null; //Why the last statement was invalid
+   private ParseCache cache = null; //Trees of statements seen before, if set
+   private mathNode.Evaluator evaluator = new mathNode.Evaluator();
+   private mathNode.Optimizer optimizer = new mathNode.Optimizer();
+   private mathNode.Rebalancer rebalancer = null; //Balances the built tree, if set
+   private mathNode.Interner interner = null; //Shares equal subtrees between trees, if set
+   private TieringPolicy tiering = TieringPolicy.DEFAULT; //Given to prepared expressions
+   private mathNode.ParallelEvaluator parallelEvaluator = null; //Made on first solve with a pool
+   private Diagnostic unbound = null; //Names the first variable without a value, if any
+   private String statement = null; //Last valid statement, to find its variables for a Diagnostic
    
    /**
     * Constructor that sets up the strScanner.
     */
    public MathTree() {
-      //Set up StringScanner
+      setUpScanner(strScanner);
+   }
+   
+   /**
+    * Sets up a StringScanner for math statements.
+    * @param strScanner
+    */
+   static void setUpScanner(StringScanner strScanner)
+   {
       strScanner.skipWhitespace();
-      //Includes all special characters except '-' which will be checked for in cleanStrList().
+      //Includes all special characters except '-' which will be checked for by the lexer.
       char[] specialChars = {'(', ')', '+', '*', '/', '^'};
       strScanner.addSpecialChar(specialChars);
    }
    
    /**
-    * Takes the statement for processing and building the tree.
+    * Constructor for a MathTree that looks up statements in a cache before building
+    * their trees. The cache may be shared with other MathTrees.
+    * @param cache
+    */
+   public MathTree(ParseCache cache)
+   {
+      this();
+      this.cache = cache;
+   }
+   
+   /**
+    * Takes the statement for processing and building the tree. Nothing is printed if the
+    * statement is invalid. Use getDiagnostic() to find out why.
     * @param mathStatement
     * @return Returns boolean based upon whether statement is valid and tree can be built.
     */
    public boolean init(String mathStatement)
    {
-      LinkedList<String> strList = strScanner.scan(mathStatement);
+      diagnostic = null;
+      optimizedNode = null;
+      balancedNode = null;
+      parallelEvaluator = null;
+      unbound = null;
+      statement = mathStatement;
       
-      cleanStrList(strList);
+      //Trees with variables are not cached, so a cached tree is valid for any MathTree.
+      if(cache != null)
+      {
+         rootNode = cache.get(mathStatement);
+         if(rootNode != null)
+            return true;
+      }
+      
+      lexer.lex(mathStatement, tokens);
       
-      if(buildTree(strList))
+      if(buildTree(tokens))
       {
          if(rootNode.checkTree())
+         {
+            //No variable has a value yet, so the first one in the tokens is unbound.
+            if(treeBuilder.hasVariables())
+               unbound = findUnbound(null);
+            if(interner != null)
+               rootNode = interner.intern(rootNode);
+            if(cache != null && unbound == null)
+               cache.put(mathStatement, rootNode);
             return true;
+         }
          else
-            System.out.println("Invalid: Unknown expression");
+            diagnostic = new Diagnostic(Diagnostic.Code.INCOMPLETE_EXPRESSION, tokens.size(),
+                  mathStatement.length(), mathStatement);
       }
+      else if(treeBuilder.getDiagnostic() != null)
+         diagnostic = treeBuilder.getDiagnostic();
+      else
+         diagnostic = new Diagnostic(Diagnostic.Code.EMPTY_STATEMENT, 0, 0, mathStatement);
 
       rootNode = null;
       return false;
    }
    
    /**
-    * Cleans the list of string tokens created by the strScanner.
-    * Specifically, it discerns between minus and subtraction symbols
-    * and inserts multiplication symbols implied by parenthesis. It does
-    * this by reference so nothing is returned.
-    * @param strList
+    * @return Why the last statement given to init() was invalid or null if it was valid,
+    * or why the last solve() gave null.
     */
-   private void cleanStrList(LinkedList<String> strList)
-   {
-      //Create a new scanner for the negative sign '-'
-      StringScanner negScanner = new StringScanner();
-      negScanner.addSpecialChar('-');
-      
-      //Create list of operators
-      String opStr = "+-*^/";
-      
-      String tempStr;
-      LinkedList<String> newList = new LinkedList();
-      
-      for(int i = 0; i < strList.size(); i++)
-      {
-         tempStr = strList.get(i);
-         
-         //Parse strings with negative signs. Some will become negative signs others substraction.
-         if(tempStr.length() > 1 && tempStr.contains("-"))
-         {  
-            newList = negScanner.scan(tempStr);
-            
-            //Check for negative sign at beginning of newList.
-            if(newList.get(0).equals("-") && !newList.get(1).equals("-"))
-            {
-               newList.removeFirst();
-               String newStr = "-" + newList.removeFirst();
-               newList.addFirst(newStr);
-            }
-            
-            //Check for negative and subtraction signs in the middle of newList.
-            for(int k = 2; k < newList.size(); k++)
-            {
-               if(newList.get(k - 2).equals("-") && newList.get(k - 1).equals("-") 
-                     && !newList.get(k).equals("-"))
-               {
-                  newList.remove(k - 1);
-                  String newStr = "-" + newList.remove(k - 1);
-                  newList.add(k - 1, newStr);
-                  k--;
-               }
-            }
-            
-            //Replace tempStr in strList with newList.
-            strList.remove(i);
-            strList.addAll(i, newList);
-            
-            i += newList.size() - 1;
-         }
-         //Add implicit multiplication before open parenthesis
-         else if(tempStr.equals("(") && i > 0)
-         {
-            String prevStr = strList.get(i - 1);
-            
-            if(!opStr.contains(prevStr) && prevStr != "(")
-            {
-               strList.add(i, "*");
-               i++;
-            }
-         }
-         //Add implicit multiplication after closed parenthesis
-         else if(tempStr.equals(")") && i < strList.size() - 1)
-         {
-            String nextStr = strList.get(i + 1);
-            
-            if(!opStr.contains(nextStr) && nextStr != ")")
-            {
-               strList.add(i + 1, "*");
-               i++;
-            }
-         }
-      }
-
-   }
+   public Diagnostic getDiagnostic() { return diagnostic; }
    
    /**
-    * A basic tree building function that calls the main tree building function below.
+    * Builds the tree from the tokens with the treeBuilder.
     * Returns false if math statement had errors.
-    * @param strTokens
+    * @param tokens
     * @return A boolean indicating whether the tree was built correctly.
     */
-   private boolean buildTree(LinkedList<String> strTokens)
+   private boolean buildTree(TokenBuffer tokens)
    {
-      rootNode = buildTree(strTokens, false);
+      rootNode = treeBuilder.build(tokens);
 
       if(rootNode == null)
          return false;
@@ -144,185 +130,274 @@ public class MathTree implements Cloneable
    }
    
    /**
-    * Function that builds trees of math nodes. Returns null if empty or invalid.
-    * @param strTokens
-    * @param isParens
-    * @return The root node of a new tree of math nodes.
+    * Sets whether names in the statements given to init() are variables, like price or
+    * _rate2. A statement with variables is valid, but it can only be calculated with
+    * prepare() or after substitute() has given every variable a value. If not, which is
+    * the default, a name is an unknown expression like any other invalid token.
+    * @param variables
     */
-   private mathNode.Expression buildTree(LinkedList<String> strTokens, boolean isParens)
+   public void setVariables(boolean variables) { treeBuilder.setVariables(variables); }
+   
+   /**
+    * Sets a mathNode.Rebalancer that balances long runs of additions and multiplications
+    * of the tree as it was built before it is compiled, lowered or cut into tasks, and of
+    * the optimized trees of prepared expressions. If it is null, the runs are kept as they were built.
+    * @param rebalancer
+    */
+   public void setRebalancer(mathNode.Rebalancer rebalancer)
    {
-      String token;
-      mathNode.Expression rootNode = null;
-      //mathNode.Expression lastNode = null;
-      mathNode.Expression newNode = null;
+      this.rebalancer = rebalancer;
+      balancedNode = null;
+      parallelEvaluator = null;
+   }
+   
+   /**
+    * Sets a mathNode.Interner that new trees are interned in, so equal subtrees of the
+    * statements given to init() are one node. The interner may be shared with other
+    * MathTrees. If it is null, every tree has its own nodes.
+    * @param interner
+    */
+   public void setInterner(mathNode.Interner interner) { this.interner = interner; }
+   
+   /**
+    * Sets when the expressions made by prepare() switch from walking their tree to
+    * compiled code. If it is null, the tree is always walked.
+    * @param tiering
+    */
+   public void setTieringPolicy(TieringPolicy tiering) { this.tiering = tiering; }
+   
+   /**
+    * Calculates the answer of the optimized tree with a mathNode.Evaluator, so only the
+    * answer is boxed. If tree is empty, it return null. If a variable has no value, it
+    * returns null and getDiagnostic() tells which.
+    */
+   public Number solve() 
+   { 
+      if(rootNode == null || isUnbound())
+         return null;
       
-      while(strTokens.isEmpty() == false) 
-      {
-         token = strTokens.poll();
-         
-         //Handle closed parenthesis
-         if(token.equals(")")) 
-         {
-            if(isParens && rootNode == null)
-            {
-               System.out.println("Invalid: Empty parenthesis");
-               return null;
-            }
-            else if(!isParens)
-            {
-               System.out.println("Invalid: Missing \"(\"");
-               return null;
-            }
-            else
-            {
-               rootNode.setParens(true);
-               return rootNode;
-            }
-         }
-         
-         //Handle open parenthesis
-         if(token.equals("("))
-         {
-            newNode = buildTree(strTokens, true);
-            if(newNode == null) 
-               return null;
-            
-            rootNode = insertNode(rootNode, newNode);
-            
-            if(rootNode == null)
-               return null;
-            else
-               continue;
-         }
-         
-         //Create new node and place it in the tree.
-         newNode = nodeFactory.buildNode(token);
-         if(newNode == null)
-         {
-            System.out.println("Invalid: Unknown expression \"" + token + "\"");
-            return null;
-         } 
-         else
-            rootNode = insertNode(rootNode, newNode);
-         
-         if(rootNode == null)
-            return null;
-      }
+      //Without variables the optimized tree is only the answer, so there is nothing to
+      //compile. Prepared expressions are compiled when they are used often.
+      if(evaluator.evaluate(optimizedTree()) == mathNode.Evaluator.INT)
+         return evaluator.getInt();
+      else
+         return evaluator.getDouble();
+   }
+   
+   /**
+    * Calculates the answer with the threads of pool, for trees that are too big for one
+    * thread. The tree is cut as it was built rather than optimized first, because the
+    * optimizer would fold it to one number on one thread. A long run like 1 + 2 + ... is
+    * one chain that cannot be cut, so it is balanced first if a rebalancer is set. The
+    * answer is exactly the same as from solve(). If tree is empty or a variable has no
+    * value, it return null.
+    * @param pool
+    */
+   public Number solve(java.util.concurrent.ForkJoinPool pool)
+   {
+      if(rootNode == null || isUnbound())
+         return null;
       
-      //Check if ending parenthesis is missing.
-      if(isParens)
-      {
-         System.out.println("Invalid: Missing \")\"");
+      if(parallelEvaluator == null)
+         parallelEvaluator = new mathNode.ParallelEvaluator(balancedTree());
+      
+      if(parallelEvaluator.evaluate(pool) == mathNode.Evaluator.INT)
+         return parallelEvaluator.getInt();
+      else
+         return parallelEvaluator.getDouble();
+   }
+   
+   /**
+    * @return The number of tasks the last solve(pool) forked, or 0 if it has not been
+    * called since the tree changed.
+    */
+   public int getTaskCount()
+   {
+      if(parallelEvaluator == null)
+         return 0;
+      else
+         return parallelEvaluator.getTaskCount();
+   }
+   
+   /**
+    * Compiles the tree as it was built to JVM bytecode with a mathNode.BytecodeCompiler.
+    * It is not optimized first, because that would leave only the answer, but it is
+    * balanced if a rebalancer is set. The compiled expression does not change when the
+    * tree does and can be used by any thread. If tree is empty or a variable has no
+    * value, it return null.
+    */
+   public mathNode.CompiledExpression compile()
+   {
+      if(rootNode == null || isUnbound())
          return null;
-      }
       else
-         return rootNode;
+         return new mathNode.BytecodeCompiler().compile(balancedTree());
+   }
+   
+   /**
+    * Lowers the tree as it was built, balanced if a rebalancer is set, to a
+    * mathNode.Program for the stack machine. If tree is empty or a variable has no value,
+    * it return null.
+    */
+   public mathNode.Program toProgram()
+   {
+      if(rootNode == null || isUnbound())
+         return null;
+      else
+         return new mathNode.Program(balancedTree());
    }
    
    /**
-    * Inserts the new node into the tree of the root node.
-    * @param rootNode
-    * @param newNode
-    * @return Returns root node of tree after node is inserted.
+    * Prepares the statement to be calculated many times with different values for its
+    * variables. The variables get the slots of names in the given order, or the order
+    * they first appear in the statement if no names are given. If tree is empty, it
+    * return null.
+    * @param names Names of the variables in slot order.
     */
-   private mathNode.Expression insertNode(mathNode.Expression rootNode, 
-         mathNode.Expression newNode)
+   public PreparedExpression prepare(String... names)
    {
-      //If no root node, new node becomes the root node.
-      if(rootNode == null) 
-         return newNode;
-      //If no new node, return tree without changes.
-      else if(newNode == null)
-         return rootNode;
-      //Place operator node without parenthesis in tree according to precedence.
-      else if(newNode instanceof mathNode.Operator && !newNode.isParens())
-      {
-         mathNode.Operator newOperator = (mathNode.Operator) newNode;
-         mathNode.Operator parent;
-         
-         //Check if rootNode is an operator
-         if(rootNode instanceof mathNode.Operator)
-            parent = (mathNode.Operator) rootNode;
-         else
-         {
-            newOperator.setLeftNode(rootNode);
-            return newOperator;
-         }
-         
-         //Find place in tree to place new operator by comparing operator precedence.
-         if(parent.getPrecedence() <= newOperator.getPrecedence())
-         {
-            newOperator.setLeftNode(parent);
-            return newOperator;
-         }
-         while(parent.getPrecedence() > newOperator.getPrecedence() 
-               && parent.getRightNode() != null 
-               && parent.getRightNode() instanceof mathNode.Operator)
+      if(rootNode == null)
+         return null;
+      else
+         return new PreparedExpression(rootNode, names, rebalancer, tiering);
+   }
+   
+   /**
+    * Replaces every variable called name with value, so a statement can be used as a
+    * template. An Integer becomes an integer like 5 would be, and any other Number a
+    * decimal. Only the operators above the variables are copied, the rest of the tree
+    * is still shared with clones and the cache.
+    * @param name
+    * @param value
+    * @return Whether the statement had the variable.
+    */
+   public boolean substitute(String name, Number value)
+   {
+      if(rootNode == null)
+         return false;
+      
+      mathNode.PathCopier copier = new mathNode.PathCopier();
+      java.util.HashSet<String> kept = new java.util.HashSet<String>(); //Names still unbound
+      rootNode = copier.replace(rootNode, node -> {
+         if(node.getClass() != mathNode.Variable.class)
+            return node;
+         if(!((mathNode.Variable) node).getName().equals(name))
          {
-            parent = (mathNode.Operator) parent.getRightNode();
+            kept.add(((mathNode.Variable) node).getName());
+            return node;
          }
          
-         //Check if value is missing between two operators.
-         if(parent.getRightNode() == null) 
-         {
-            System.out.println("Invalid: Missing value between two operators");
-            return null;
-         }
+         boolean negative = ((mathNode.Variable) node).isNegative();
+         mathNode.Expression newNode;
+         if(value instanceof Integer)
+            newNode = nodeFactory.buildNode(negative ? -value.intValue() : value.intValue());
          else
-         {
-            newOperator.setLeftNode(parent.getRightNode());
-            parent.setRightNode(newOperator);
-            return rootNode;
-         }
-         
-      }
-      //Place Int, Dec, or parenthesis node in tree. It goes on the rightmost empty node
-      //of the tree. If that node is filled, it means there are two numbers in a row
-      //and it is invalid.
+            newNode = nodeFactory.buildNode(negative ? -value.doubleValue() : value.doubleValue());
+         newNode.setParens(node.isParens());
+         return newNode;
+      });
+      
+      if(copier.getReplaced() == 0)
+         return false;
+      
+      //The tokens may be of another statement, or empty in a clone, so it is lexed again.
+      if(kept.isEmpty())
+         unbound = null;
       else
       {
-         mathNode.Operator parent;
-         
-         if(rootNode instanceof mathNode.Operator)
-            parent = (mathNode.Operator) rootNode;
-         else
-         {
-            System.out.println("Invalid: Missing operator between " + 
-                  rootNode + " and " + newNode);
-            return null;
-         }
+         lexer.lex(statement, tokens);
+         unbound = findUnbound(kept);
+      }
+      optimizedNode = null;
+      balancedNode = null;
+      parallelEvaluator = null;
+      return true;
+   }
+   
+   /**
+    * Checks if the tree has a variable without a value. If it does, the Diagnostic that
+    * names it, found by init() or substitute(), becomes the Diagnostic of the MathTree.
+    */
+   private boolean isUnbound()
+   {
+      if(unbound == null)
+         return false;
+      
+      diagnostic = unbound;
+      return true;
+   }
+   
+   /**
+    * Finds the first variable in the tokens of the statement whose name is in names.
+    * @param names Names of the unbound variables, or null if every variable is unbound.
+    * @return The UNBOUND_VARIABLE Diagnostic for it, or null if there is none.
+    */
+   private Diagnostic findUnbound(java.util.Set<String> names)
+   {
+      for(int token = 0; token < tokens.size(); token++)
+      {
+         if(tokens.getKind(token) == TokenBuffer.IMPLICIT_MULT)
+            continue;
          
-         while(parent.getRightNode() != null)
+         int start = tokens.getStart(token);
+         int end = tokens.getEnd(token);
+         mathNode.Expression node = nodeFactory.buildNode(statement, start, end);
+         if(node instanceof mathNode.Variable
+               && (names == null || names.contains(((mathNode.Variable) node).getName())))
          {
-            if(parent.getRightNode() instanceof mathNode.Operator)
-               parent = (mathNode.Operator) parent.getRightNode();
-            else
-            {
-               System.out.println("Invalid: Missing operator between " + 
-                     parent.getRightNode() + " + " + newNode);
-               return null;
-            }
+            //Leave the '-' of a negative variable out of the message.
+            if(((mathNode.Variable) node).isNegative())
+               start++;
+            return new Diagnostic(Diagnostic.Code.UNBOUND_VARIABLE, token, tokens.getStart(token),
+                  statement, start, end, -1, -1);
          }
-         
-         parent.setRightNode(newNode);
-         return rootNode;
       }
+      
+      return null;
    }
    
    /**
-    * Calls recursive mathNode.Expression.calculate() method to find answer. If tree is empty,
-    * it return null.
+    * Runs the mathNode.Optimizer on the tree the first time it is needed after init().
+    * The tree itself is kept as it was built for toString() and clone().
     */
-   public Number solve() 
-   { 
-      if(rootNode == null)
-         return null;
-      else
-         return rootNode.calculate(); 
+   private mathNode.Expression optimizedTree()
+   {
+      if(optimizedNode == null)
+         optimizedNode = optimizer.optimize(rootNode);
+      
+      return optimizedNode;
+   }
+   
+   /**
+    * Runs the rebalancer on the tree as it was built the first time it is needed after
+    * init(). Without variables the optimized tree is only the answer, so runs of integers
+    * are only left to balance in the built tree.
+    */
+   private mathNode.Expression balancedTree()
+   {
+      if(rebalancer == null)
+         return rootNode;
+      
+      if(balancedNode == null)
+         balancedNode = rebalancer.rebalance(rootNode);
+      
+      return balancedNode;
+   }
+   
+   /**
+    * Writes the tree to out, for example a Writer of a log, without making a String of
+    * it first. If tree is empty, nothing is written.
+    * @param out
+    * @throws java.io.IOException If out throws it.
+    */
+   public void render(Appendable out) throws java.io.IOException
+   {
+      if(rootNode != null)
+         rootNode.render(out);
    }
    
    /**
-    * Calls recursive mathNode.Expression.toString() method to find answer. If tree is empty,
+    * Calls mathNode.Expression.toString() method to find answer. If tree is empty,
     * it return null.
     */
    public String toString()
@@ -333,11 +408,24 @@ public class MathTree implements Cloneable
          return rootNode.toString();
    }
    
+   /**
+    * Trees are never changed once they are built, so the clone shares the tree and the
+    * optimized and balanced versions of it, which takes the same time for any size.
+    * init() and substitute() on either MathTree do not change the other.
+    */
    public Object clone() throws CloneNotSupportedException
    {
       MathTree clone = (MathTree) super.clone();
       clone.nodeFactory = (mathNode.Factory) nodeFactory.clone();
-      clone.rootNode = (mathNode.Expression) rootNode.clone();
+      clone.lexer = new MathLexer(clone.strScanner);
+      clone.treeBuilder = new TreeBuilder(clone.nodeFactory);
+      clone.treeBuilder.setVariables(treeBuilder.isVariables());
+      clone.tokens = new TokenBuffer();
+      clone.evaluator = new mathNode.Evaluator();
+      clone.optimizer = new mathNode.Optimizer();
+      if(rebalancer != null)
+         clone.rebalancer = new mathNode.Rebalancer(rebalancer.isDecimals());
+      clone.parallelEvaluator = null;
       
       return clone;
    }
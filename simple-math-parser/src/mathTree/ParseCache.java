@@ -0,0 +1,172 @@
+package mathTree;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import mathNode.Expression;
+
+/**
+ * A size bounded cache from math statements to the trees built for them. MathTrees
+ * given the same cache skip scanning and building the tree for statements that are
+ * in it. It is safe to share between threads.
+ * <p>
+ * The cache is split into segments that each have their own lock and hold the keys
+ * in order of last use. When a segment is full, the least recently used statement is
+ * the one that can be evicted. With the LRU policy it always is. With the TINY_LFU
+ * policy a FrequencySketch counts how often statements are asked for, and the new
+ * statement is only admitted if it is asked for more often than the one it replaces,
+ * so statements that are seen once do not push out popular ones.
+ * <p>
+ * The cached trees are shared by every MathTree that uses the cache, so they must
+ * never be changed.
+ * @author kevinrobell
+ *
+ */
+public class ParseCache
+{
+   public enum Policy { LRU, TINY_LFU }
+
+   private Segment[] segments;
+   private int segmentMask;
+
+   private LongAdder hits = new LongAdder();
+   private LongAdder misses = new LongAdder();
+   private LongAdder evictions = new LongAdder();
+
+   /**
+    * Creates a cache with the TINY_LFU policy.
+    * @param maximumSize The most statements the cache holds.
+    */
+   public ParseCache(int maximumSize) { this(maximumSize, Policy.TINY_LFU); }
+
+   /**
+    * @param maximumSize The most statements the cache holds.
+    * @param policy
+    */
+   public ParseCache(int maximumSize, Policy policy)
+   {
+      if(maximumSize < 1)
+         throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+
+      //Every segment gets at least 32 statements, so small caches stay close to LRU order.
+      int count = 1;
+      while(count < 16 && count * 64 <= maximumSize)
+         count *= 2;
+
+      segments = new Segment[count];
+      segmentMask = count - 1;
+      for(int i = 0; i < count; i++)
+      {
+         int capacity = maximumSize / count + (i < maximumSize % count ? 1 : 0);
+         segments[i] = new Segment(capacity, policy == Policy.TINY_LFU);
+      }
+   }
+
+   /**
+    * @param statement
+    * @return The tree for the statement or null if it is not cached.
+    */
+   Expression get(String statement)
+   {
+      int hash = spread(statement.hashCode());
+      Expression rootNode = segmentFor(hash).get(statement, hash);
+
+      if(rootNode == null)
+         misses.increment();
+      else
+         hits.increment();
+
+      return rootNode;
+   }
+
+   /**
+    * Adds the tree of a valid statement if the policy admits it.
+    * @param statement
+    * @param rootNode
+    */
+   void put(String statement, Expression rootNode)
+   {
+      int hash = spread(statement.hashCode());
+      if(segmentFor(hash).put(statement, rootNode, hash))
+         evictions.increment();
+   }
+
+   public long getHitCount() { return hits.sum(); }
+   public long getMissCount() { return misses.sum(); }
+   public long getEvictionCount() { return evictions.sum(); }
+
+   /**
+    * @return The number of statements in the cache.
+    */
+   public int size()
+   {
+      int size = 0;
+      for(Segment segment : segments)
+         size += segment.size();
+      return size;
+   }
+
+   /**
+    * Removes every statement. The counters are kept.
+    */
+   public void clear()
+   {
+      for(Segment segment : segments)
+         segment.clear();
+   }
+
+   private Segment segmentFor(int hash) { return segments[hash & segmentMask]; }
+
+   private static int spread(int hash) { return hash ^ (hash >>> 16); }
+
+   /**
+    * One part of the cache with its own lock.
+    */
+   private static class Segment
+   {
+      private LinkedHashMap<String, Expression> map = new LinkedHashMap<>(16, 0.75f, true);
+      private int capacity;
+      private FrequencySketch sketch; //Null for LRU
+
+      Segment(int capacity, boolean countFrequency)
+      {
+         this.capacity = capacity;
+         if(countFrequency)
+            sketch = new FrequencySketch(capacity);
+      }
+
+      synchronized Expression get(String statement, int hash)
+      {
+         if(sketch != null)
+            sketch.increment(hash);
+
+         return map.get(statement);
+      }
+
+      /**
+       * @return Whether another statement was evicted.
+       */
+      synchronized boolean put(String statement, Expression rootNode, int hash)
+      {
+         if(map.size() < capacity || map.containsKey(statement))
+         {
+            map.put(statement, rootNode);
+            return false;
+         }
+
+         Iterator<String> leastRecent = map.keySet().iterator();
+         String victim = leastRecent.next();
+
+         if(sketch != null
+               && sketch.frequency(hash) <= sketch.frequency(spread(victim.hashCode())))
+            return false;
+
+         leastRecent.remove();
+         map.put(statement, rootNode);
+         return true;
+      }
+
+      synchronized int size() { return map.size(); }
+      synchronized void clear() { map.clear(); }
+   }
+}
@@ -0,0 +1,279 @@
+package mathTree;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A statement with variables that is ready to be calculated many times with different
+ * values. Each variable name gets a slot when the expression is prepared, and the
+ * values are given in a double[] that is indexed by slot, so calculating it needs no
+ * map lookups and boxes nothing. Many rows can be calculated at once with
+ * evaluateBatch(), which takes a column of values for each slot. Get one with
+ * MathTree.prepare().
+ * <p>
+ * The tree is copied and optimized once, so the MathTree can be used for other
+ * statements afterwards. Subtrees that appear more than once are found then too, and
+ * each is calculated once per evaluation. An expression that is evaluated often is
+ * compiled according to the TieringPolicy of the MathTree: first to a tree of lambdas by
+ * a mathNode.ClosureCompiler and later to bytecode by a mathNode.BytecodeCompiler. A
+ * PreparedExpression is not thread safe; prepare one for each thread.
+ * @author kevinrobell
+ *
+ */
+public class PreparedExpression
+{
+   private mathNode.Expression rootNode;
+   private String[] names;
+   private mathNode.Evaluator evaluator = new mathNode.Evaluator();
+   private mathNode.BatchEvaluator batch = null; //Made on first use
+   private mathNode.ParallelEvaluator parallelEvaluator = null; //Made on first use
+   private TieringPolicy tiering;
+   private int evaluateCount = 0;
+   private mathNode.CompiledExpression compiled = null; //Used instead of the tree once tiered up
+
+   /**
+    * Copies the tree below rootNode and gives every variable its slot. If names is empty,
+    * the variables get slots in the order they first appear in the statement.
+    * @param rootNode
+    * @param names Names of the variables in slot order.
+    * @param rebalancer Balances the optimized tree if it is not null.
+    * @param tiering When to compile the tree, or null to always walk it.
+    */
+   PreparedExpression(mathNode.Expression rootNode, String[] names, mathNode.Rebalancer rebalancer,
+         TieringPolicy tiering)
+   {
+      mathNode.Expression copy;
+      try
+      {
+         copy = (mathNode.Expression) rootNode.clone();
+      }
+      catch(CloneNotSupportedException e)
+      {
+         throw new IllegalStateException(e);
+      }
+
+      boolean given = names.length > 0;
+      HashMap<String, Integer> slots = new HashMap<String, Integer>();
+      for(int i = 0; i < names.length; i++)
+      {
+         if(slots.put(names[i], i) != null)
+            throw new IllegalArgumentException("Variable " + names[i] + " is given twice");
+      }
+
+      //Left to right so the slots follow the statement.
+      ArrayDeque<mathNode.Expression> stack = new ArrayDeque<mathNode.Expression>();
+      stack.push(copy);
+      while(!stack.isEmpty())
+      {
+         mathNode.Expression node = stack.pop();
+         if(node instanceof mathNode.Operator)
+         {
+            stack.push(((mathNode.Operator) node).getRightNode());
+            stack.push(((mathNode.Operator) node).getLeftNode());
+         }
+         else if(node instanceof mathNode.Variable)
+         {
+            mathNode.Variable variable = (mathNode.Variable) node;
+            Integer slot = slots.get(variable.getName());
+            if(slot == null)
+            {
+               if(given)
+                  throw new IllegalArgumentException("Variable " + variable.getName() + " is not given");
+
+               slot = slots.size();
+               slots.put(variable.getName(), slot);
+            }
+            variable.setSlot(slot);
+         }
+      }
+
+      this.names = new String[slots.size()];
+      for(String name : slots.keySet())
+         this.names[slots.get(name)] = name;
+
+      this.rootNode = new mathNode.Optimizer().optimize(copy);
+      if(rebalancer != null)
+         this.rootNode = rebalancer.rebalance(this.rootNode);
+      this.rootNode = new mathNode.SubexpressionEliminator().eliminate(this.rootNode);
+
+      //A tree that is only a value is as fast to walk as it is to call.
+      if(this.rootNode instanceof mathNode.Operator)
+         this.tiering = tiering;
+   }
+
+   /**
+    * @return The optimized tree the expression calculates, with slots for its variables
+    * and Shared nodes for its repeated subtrees. It is not copied, so it must not be
+    * changed.
+    */
+   public mathNode.Expression getTree() { return rootNode; }
+
+   /**
+    * @return The names of the variables in slot order.
+    */
+   public String[] getVariableNames() { return names.clone(); }
+
+   /**
+    * @return The number of values evaluate() needs.
+    */
+   public int getVariableCount() { return names.length; }
+
+   /**
+    * @param name
+    * @return The slot of the variable or -1 if there is no variable with that name.
+    */
+   public int getSlot(String name)
+   {
+      for(int i = 0; i < names.length; i++)
+      {
+         if(names[i].equals(name))
+            return i;
+      }
+      return -1;
+   }
+
+   /**
+    * Calculates the expression without boxing.
+    * @param values Values of the variables by slot.
+    * @return The answer as a double.
+    */
+   public double evaluate(double[] values)
+   {
+      if(values.length < names.length)
+         throw new IllegalArgumentException("Expected " + names.length + " values but got " + values.length);
+
+      if(tierUp())
+         return compiled.evalDouble(values);
+
+      evaluator.evaluate(rootNode, values);
+      return evaluator.getDouble();
+   }
+
+   /**
+    * Calculates the expression with the threads of pool, for an expression that is too
+    * big for one thread. The answer is exactly the same as from evaluate() without a
+    * pool.
+    * @param values Values of the variables by slot.
+    * @param pool
+    * @return The answer as a double.
+    */
+   public double evaluate(double[] values, ForkJoinPool pool)
+   {
+      if(values.length < names.length)
+         throw new IllegalArgumentException("Expected " + names.length + " values but got " + values.length);
+
+      if(parallelEvaluator == null)
+         parallelEvaluator = new mathNode.ParallelEvaluator(rootNode);
+      parallelEvaluator.evaluate(pool, values);
+      return parallelEvaluator.getDouble();
+   }
+
+   /**
+    * Calculates the expression like MathTree.solve(), so an answer without decimals is an
+    * Integer.
+    * @param values Values of the variables by slot.
+    * @return Number
+    */
+   public Number solve(double[] values)
+   {
+      if(values.length < names.length)
+         throw new IllegalArgumentException("Expected " + names.length + " values but got " + values.length);
+
+      if(tierUp())
+         return compiled.calculate(values);
+      else if(evaluator.evaluate(rootNode, values) == mathNode.Evaluator.INT)
+         return evaluator.getInt();
+      else
+         return evaluator.getDouble();
+   }
+
+   /**
+    * Counts evaluations until the last tier is reached.
+    * @return Whether to use the compiled expression instead of the tree.
+    */
+   private boolean tierUp()
+   {
+      if(tiering != null && evaluateCount < tiering.getBytecodeThreshold())
+      {
+         evaluateCount++;
+         if(evaluateCount == tiering.getBytecodeThreshold())
+            compiled = new mathNode.BytecodeCompiler().compile(rootNode);
+         else if(evaluateCount == tiering.getClosureThreshold())
+            compiled = new mathNode.ClosureCompiler().compile(rootNode);
+      }
+
+      return compiled != null;
+   }
+
+   /**
+    * Compiles the expression to JVM bytecode with a mathNode.BytecodeCompiler. The
+    * compiled expression takes the same values as evaluate() and can be used by any
+    * thread.
+    * @return CompiledExpression
+    */
+   public mathNode.CompiledExpression compile()
+   {
+      return new mathNode.BytecodeCompiler().compile(rootNode);
+   }
+
+   /**
+    * Lowers the expression to a mathNode.Program, which takes the same values as
+    * evaluate().
+    * @return Program
+    */
+   public mathNode.Program toProgram()
+   {
+      return new mathNode.Program(rootNode);
+   }
+
+   /**
+    * Calculates the expression for every row of out, one operator at a time over chunks
+    * of rows with a mathNode.BatchEvaluator.
+    * @param columns Values of the variables by slot, then by row.
+    * @param out Gets the answer of each row.
+    */
+   public void evaluateBatch(double[][] columns, double[] out)
+   {
+      evaluateBatch(columns, out, 0, out.length);
+   }
+
+   /**
+    * Calculates the expression for the rows from up to but not including to, so a large
+    * input can be done in parts.
+    * @param columns Values of the variables by slot, then by row.
+    * @param out Gets the answer of each row at the same index.
+    * @param from
+    * @param to
+    */
+   public void evaluateBatch(double[][] columns, double[] out, int from, int to)
+   {
+      if(columns.length < names.length)
+         throw new IllegalArgumentException("Expected " + names.length + " columns but got " + columns.length);
+
+      if(batch == null)
+         batch = new mathNode.BatchEvaluator(rootNode);
+      batch.evaluate(columns, out, from, to);
+   }
+
+   /**
+    * Calculates the expression for every row of out with the threads of pool. The
+    * answers are exactly the same as from evaluateBatch() without a pool.
+    * @param columns Values of the variables by slot, then by row.
+    * @param out Gets the answer of each row.
+    * @param pool
+    */
+   public void evaluateBatch(double[][] columns, double[] out, ForkJoinPool pool)
+   {
+      if(columns.length < names.length)
+         throw new IllegalArgumentException("Expected " + names.length + " columns but got " + columns.length);
+
+      if(batch == null)
+         batch = new mathNode.BatchEvaluator(rootNode);
+      batch.evaluate(columns, out, 0, out.length, pool);
+   }
+
+   /**
+    * @return The optimized statement the expression calculates.
+    */
+   public String toString() { return rootNode.toString(); }
+}
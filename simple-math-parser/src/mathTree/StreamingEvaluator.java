@@ -0,0 +1,498 @@
+package mathTree;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import mathNode.Expression;
+import mathNode.Operator;
+
+/**
+ * Calculates a math statement while it is read, without building its tree. The
+ * statement is lexed in pieces by a MathLexer, so '-' and implied multiplication follow
+ * the same rules as in a MathTree, and every token is placed exactly like the
+ * TreeBuilder places it. The TreeBuilder only ever changes the right side of the tree,
+ * so everything that leaves the right side is done and is calculated right away. What
+ * is kept are the operators on the right side with the values of their left sides, one
+ * group of them for each open parenthesis, so the memory that is used depends on how
+ * deep the parenthesis go and not on how long the statement is.
+ * <p>
+ * The answer and the Diagnostic are the same as from MathTree.init() and solve() without
+ * variables, so a name is an unknown expression. The positions in a Diagnostic count
+ * from the start of the input, but the parts of the statement in its message are only
+ * kept for single tokens.
+ * @author kevinrobell
+ *
+ */
+public class StreamingEvaluator
+{
+   private static final int BUFFER_SIZE = 8192;
+
+   //What the root of a frame is.
+   private static final byte NO_ROOT = 0;
+   private static final byte VALUE_ROOT = 1; //A value, kept in the frame
+   private static final byte OPERATOR_ROOT = 2; //The operator at the base of the frame
+
+   private StringScanner strScanner = new StringScanner();
+   private MathLexer lexer = new MathLexer(strScanner);
+   private TokenBuffer tokens = new TokenBuffer();
+   private mathNode.Factory nodeFactory = new mathNode.Factory();
+   private Diagnostic diagnostic = null;
+
+   //Operators on the right side of the tree, like the spine of the TreeBuilder. The right
+   //side of an operator is the next one, or the right value if it is the bottom.
+   private Operator[] operators = new Operator[16];
+   private int[] precedence = new int[16]; //0 for closed parenthesis
+   private int[] minPrecedence = new int[16];
+   private boolean[] leftIsInt = new boolean[16];
+   private int[] leftInts = new int[16];
+   private double[] leftDoubles = new double[16];
+   private boolean[] hasRight = new boolean[16];
+   private boolean[] rightIsInt = new boolean[16];
+   private int[] rightInts = new int[16];
+   private double[] rightDoubles = new double[16];
+   private int top = 0;
+
+   //One frame for the whole statement and one for every open parenthesis.
+   private int[] frameBase = new int[8];
+   private int[] frameParens = new int[8]; //Position of the closed parenthesis in the spine or -1
+   private byte[] frameRoot = new byte[8];
+   private boolean[] rootIsInt = new boolean[8];
+   private int[] rootInts = new int[8];
+   private double[] rootDoubles = new double[8];
+   private int[] frameOpenToken = new int[8];
+   private int[] frameOpenPosition = new int[8];
+   private int depth = 0;
+
+   //Result of the last collapse()
+   private boolean valueIsInt;
+   private int valueInt;
+   private double valueDouble;
+
+   private boolean incomplete; //A node is missing a side, which can never be filled
+   private int tokenCount; //Tokens before the current piece
+   private int offset; //Characters before the current piece
+   private int consumed; //End of the tokens of the current piece
+   private String valueText = ""; //Last value that was placed, for MISSING_OPERATOR
+
+   public StreamingEvaluator()
+   {
+      MathTree.setUpScanner(strScanner);
+   }
+
+   /**
+    * Calculates the statement.
+    * @param mathStatement
+    * @return The answer or null if the statement is invalid. Use getDiagnostic() to find
+    * out why.
+    */
+   public Number evaluate(String mathStatement)
+   {
+      try
+      {
+         return evaluate(new StringReader(mathStatement));
+      }
+      catch(IOException e)
+      {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * Reads the statement from reader up to its end and calculates it. If the statement is
+    * invalid, reading stops where the error is found.
+    * @param reader
+    * @return The answer or null if the statement is invalid. Use getDiagnostic() to find
+    * out why.
+    * @throws IOException If reader throws it.
+    */
+   public Number evaluate(Reader reader) throws IOException
+   {
+      reset();
+
+      char[] buffer = new char[BUFFER_SIZE];
+      StringBuilder text = new StringBuilder();
+      boolean isLast = false;
+      while(!isLast)
+      {
+         int count = reader.read(buffer);
+         if(count < 0)
+            isLast = true;
+         else
+            text.append(buffer, 0, count);
+
+         consumed = lexer.lex(text, 0, text.length(), isLast, tokens);
+         for(int i = 0; i < tokens.size(); i++)
+         {
+            if(!place(i))
+            {
+               tokens.reset("");
+               return null;
+            }
+         }
+
+         tokenCount += tokens.size();
+         offset += consumed;
+         text.delete(0, consumed);
+      }
+      tokens.reset("");
+
+      return finish();
+   }
+
+   /**
+    * @return Why the last statement was invalid or null if it was valid.
+    */
+   public Diagnostic getDiagnostic() { return diagnostic; }
+
+   private void reset()
+   {
+      lexer.reset();
+      diagnostic = null;
+      top = 0;
+      depth = 0;
+      incomplete = false;
+      tokenCount = 0;
+      offset = 0;
+      valueText = "";
+      Arrays.fill(operators, null);
+      pushFrame(-1, -1);
+   }
+
+   /**
+    * Checks the end of the statement like MathTree.init() does and gives the answer.
+    */
+   private Number finish()
+   {
+      if(depth > 1)
+      {
+         diagnostic = new Diagnostic(Diagnostic.Code.MISSING_CLOSE_PARENTHESIS, frameOpenToken[depth - 1],
+               frameOpenPosition[depth - 1], null);
+         return null;
+      }
+
+      if(frameRoot[0] == NO_ROOT)
+      {
+         diagnostic = new Diagnostic(Diagnostic.Code.EMPTY_STATEMENT, 0, 0, null);
+         return null;
+      }
+
+      if(frameRoot[0] == OPERATOR_ROOT)
+         collapse(frameBase[0], top - 1);
+      else
+         setValue(rootIsInt[0], rootInts[0], rootDoubles[0]);
+
+      if(incomplete)
+      {
+         diagnostic = new Diagnostic(Diagnostic.Code.INCOMPLETE_EXPRESSION, tokenCount, offset, null);
+         return null;
+      }
+
+      if(valueIsInt)
+         return valueInt;
+      else
+         return valueDouble;
+   }
+
+   /**
+    * Places a token like the TreeBuilder does.
+    * @param token Index in tokens.
+    * @return false if the statement is invalid.
+    */
+   private boolean place(int token)
+   {
+      //Handle closed parenthesis
+      if(tokens.isChar(token, ')'))
+      {
+         if(depth > 1 && frameRoot[depth - 1] == NO_ROOT)
+            return fail(Diagnostic.Code.EMPTY_PARENTHESIS, token);
+         else if(depth == 1)
+            return fail(Diagnostic.Code.MISSING_OPEN_PARENTHESIS, token);
+
+         depth--;
+         if(frameRoot[depth] == VALUE_ROOT)
+            return insertValue(rootIsInt[depth], rootInts[depth], rootDoubles[depth], token,
+                  frameOpenPosition[depth], "");
+
+         //The group keeps its operator and everything below it becomes its right value.
+         int groupBase = frameBase[depth];
+         if(top - 1 > groupBase)
+         {
+            collapse(groupBase + 1, top - 1);
+            setRight(groupBase, valueIsInt, valueInt, valueDouble);
+            top = groupBase + 1;
+         }
+         precedence[groupBase] = 0;
+         return insertGroup(groupBase, token, frameOpenPosition[depth]);
+      }
+
+      //Handle open parenthesis
+      if(tokens.isChar(token, '('))
+      {
+         pushFrame(tokenCount + token, offset + tokens.getStart(token));
+         return true;
+      }
+
+      Expression newNode;
+      if(tokens.getKind(token) == TokenBuffer.IMPLICIT_MULT)
+         newNode = nodeFactory.buildNode('*');
+      else
+         newNode = nodeFactory.buildNode(tokens.getSource(), tokens.getStart(token), tokens.getEnd(token));
+
+      //Variables never have values here, so names are unknown like in a MathTree without
+      //variables.
+      if(newNode instanceof mathNode.Variable)
+         newNode = null;
+
+      if(newNode == null)
+      {
+         String text = tokens.getText(token);
+         diagnostic = new Diagnostic(Diagnostic.Code.UNKNOWN_TOKEN, tokenCount + token,
+               offset + tokens.getStart(token), text, 0, text.length(), -1, -1);
+         return false;
+      }
+
+      if(newNode instanceof Operator)
+         return insertOperator((Operator) newNode, token);
+
+      //Values are only kept as numbers.
+      int position = offset + tokens.getStart(token);
+      String text = tokens.getText(token);
+      if(newNode instanceof mathNode.Int)
+         return insertValue(true, ((mathNode.Int) newNode).getValue(), 0, token, position, text);
+      else
+         return insertValue(false, 0, ((mathNode.Dec) newNode).getValue(), token, position, text);
+   }
+
+   private boolean fail(Diagnostic.Code code, int token)
+   {
+      diagnostic = new Diagnostic(code, tokenCount + token, position(token), null);
+      return false;
+   }
+
+   /**
+    * @return The position of the token in the input. Implicit tokens take the position
+    * of the next token.
+    */
+   private int position(int token)
+   {
+      for(int i = token; i < tokens.size(); i++)
+      {
+         if(tokens.getStart(i) >= 0)
+            return offset + tokens.getStart(i);
+      }
+
+      //The next token is in the next piece.
+      return offset + consumed;
+   }
+
+   /**
+    * Places an operator in the current frame according to precedence.
+    */
+   private boolean insertOperator(Operator newOperator, int token)
+   {
+      int frame = depth - 1;
+      int base = frameBase[frame];
+      int newPrecedence = newOperator.getPrecedence();
+
+      //The new operator goes on top if the root is not an operator with higher precedence.
+      if(frameRoot[frame] != OPERATOR_ROOT || precedence[base] <= newPrecedence)
+      {
+         if(frameRoot[frame] == OPERATOR_ROOT)
+            collapse(base, top - 1);
+         else if(frameRoot[frame] == VALUE_ROOT)
+            setValue(rootIsInt[frame], rootInts[frame], rootDoubles[frame]);
+         else
+         {
+            incomplete = true;
+            setValue(true, 0, 0);
+         }
+
+         frameRoot[frame] = OPERATOR_ROOT;
+         frameParens[frame] = -1;
+         top = base;
+         push(newOperator, base);
+         return true;
+      }
+
+      //Find the first operator below the root whose precedence is not higher. If there is
+      //none, it is the bottom one. Nothing past a closed parenthesis can be reached.
+      int stop = frameParens[frame] >= 0 ? frameParens[frame] : top - 1;
+      if(stop > base && minPrecedence[stop] <= newPrecedence)
+      {
+         while(stop - 1 > base && minPrecedence[stop - 1] <= newPrecedence)
+            stop--;
+      }
+
+      //The new operator takes the right side of stop as its left side.
+      if(stop == top - 1)
+      {
+         if(!hasRight[stop])
+            return fail(Diagnostic.Code.MISSING_VALUE, token);
+         setValue(rightIsInt[stop], rightInts[stop], rightDoubles[stop]);
+      }
+      else
+         collapse(stop + 1, top - 1);
+
+      if(frameParens[frame] > stop)
+         frameParens[frame] = -1;
+      top = stop + 1;
+      push(newOperator, base);
+      return true;
+   }
+
+   /**
+    * Places a value on the rightmost empty side of the current frame.
+    */
+   private boolean insertValue(boolean isInt, int intValue, double doubleValue, int token, int position,
+         String text)
+   {
+      int frame = depth - 1;
+
+      if(frameRoot[frame] == NO_ROOT)
+      {
+         frameRoot[frame] = VALUE_ROOT;
+         rootIsInt[frame] = isInt;
+         rootInts[frame] = intValue;
+         rootDoubles[frame] = doubleValue;
+      }
+      else if(frameRoot[frame] == VALUE_ROOT || hasRight[top - 1])
+         return missingOperator(token, position, text);
+      else
+         setRight(top - 1, isInt, intValue, doubleValue);
+
+      valueText = text;
+      return true;
+   }
+
+   /**
+    * Places the closed parenthesis whose operator is at groupBase, which is the top of
+    * the spine of the current frame.
+    */
+   private boolean insertGroup(int groupBase, int token, int position)
+   {
+      int frame = depth - 1;
+
+      if(frameRoot[frame] == NO_ROOT)
+         frameRoot[frame] = OPERATOR_ROOT;
+      else if(frameRoot[frame] == VALUE_ROOT || hasRight[groupBase - 1])
+         return missingOperator(token, position, "");
+      else
+      {
+         //Its operator is the right side of the one above it.
+         if(frameParens[frame] < 0)
+            frameParens[frame] = groupBase;
+         minPrecedence[groupBase] = 0;
+      }
+
+      valueText = "";
+      return true;
+   }
+
+   private boolean missingOperator(int token, int position, String text)
+   {
+      String source = valueText + " " + text;
+      diagnostic = new Diagnostic(Diagnostic.Code.MISSING_OPERATOR, tokenCount + token, position, source,
+            0, valueText.length(), valueText.length() + 1, source.length());
+      return false;
+   }
+
+   /**
+    * Calculates the operators of the spine from first to last with the right value of the
+    * last one, and puts the answer in value.
+    */
+   private void collapse(int first, int last)
+   {
+      if(hasRight[last])
+         setValue(rightIsInt[last], rightInts[last], rightDoubles[last]);
+      else
+      {
+         incomplete = true;
+         setValue(true, 0, 0);
+      }
+
+      for(int i = last; i >= first; i--)
+      {
+         Operator operator = operators[i];
+         if(leftIsInt[i] && valueIsInt && operator.isIntOperation())
+            valueInt = operator.apply(leftInts[i], valueInt);
+         else
+         {
+            valueDouble = operator.apply(leftIsInt[i] ? leftInts[i] : leftDoubles[i],
+                  valueIsInt ? valueInt : valueDouble);
+            valueIsInt = false;
+         }
+      }
+   }
+
+   private void setValue(boolean isInt, int intValue, double doubleValue)
+   {
+      valueIsInt = isInt;
+      valueInt = intValue;
+      valueDouble = doubleValue;
+   }
+
+   private void setRight(int index, boolean isInt, int intValue, double doubleValue)
+   {
+      hasRight[index] = true;
+      rightIsInt[index] = isInt;
+      rightInts[index] = intValue;
+      rightDoubles[index] = doubleValue;
+   }
+
+   /**
+    * Puts the operator at the top of the spine with value as its left side.
+    */
+   private void push(Operator operator, int base)
+   {
+      if(top == operators.length)
+      {
+         int length = top * 2;
+         operators = Arrays.copyOf(operators, length);
+         precedence = Arrays.copyOf(precedence, length);
+         minPrecedence = Arrays.copyOf(minPrecedence, length);
+         leftIsInt = Arrays.copyOf(leftIsInt, length);
+         leftInts = Arrays.copyOf(leftInts, length);
+         leftDoubles = Arrays.copyOf(leftDoubles, length);
+         hasRight = Arrays.copyOf(hasRight, length);
+         rightIsInt = Arrays.copyOf(rightIsInt, length);
+         rightInts = Arrays.copyOf(rightInts, length);
+         rightDoubles = Arrays.copyOf(rightDoubles, length);
+      }
+
+      operators[top] = operator;
+      precedence[top] = operator.getPrecedence();
+      if(top == base + 1)
+         minPrecedence[top] = precedence[top];
+      else if(top > base + 1)
+         minPrecedence[top] = Math.min(minPrecedence[top - 1], precedence[top]);
+      leftIsInt[top] = valueIsInt;
+      leftInts[top] = valueInt;
+      leftDoubles[top] = valueDouble;
+      hasRight[top] = false;
+      top++;
+   }
+
+   private void pushFrame(int openToken, int openPosition)
+   {
+      if(depth == frameBase.length)
+      {
+         int length = depth * 2;
+         frameBase = Arrays.copyOf(frameBase, length);
+         frameParens = Arrays.copyOf(frameParens, length);
+         frameRoot = Arrays.copyOf(frameRoot, length);
+         rootIsInt = Arrays.copyOf(rootIsInt, length);
+         rootInts = Arrays.copyOf(rootInts, length);
+         rootDoubles = Arrays.copyOf(rootDoubles, length);
+         frameOpenToken = Arrays.copyOf(frameOpenToken, length);
+         frameOpenPosition = Arrays.copyOf(frameOpenPosition, length);
+      }
+
+      frameBase[depth] = top;
+      frameParens[depth] = -1;
+      frameRoot[depth] = NO_ROOT;
+      frameOpenToken[depth] = openToken;
+      frameOpenPosition[depth] = openPosition;
+      depth++;
+   }
+}
@@ -1,5 +1,4 @@
 package mathTree;
-import java.util.HashSet;
 import java.util.LinkedList;
 
 /**
@@ -9,15 +8,24 @@ import java.util.LinkedList;
  */
 public class StringScanner implements Cloneable
 {
-   private LinkedList<String> tokenList = new LinkedList();
-   private HashSet<Character> delimSet = new HashSet(); //Set of delimiters
-   private HashSet<Character> specCharSet = new HashSet(); //Set of special characters
+   private CharClass delimSet = new CharClass(); //Set of delimiters
+   private CharClass specCharSet = new CharClass(); //Set of special characters
    private boolean skipWhitespace = false;
    
    /**
     * Sets delimiter to skip all chars according to the Character.isWhitespace() method.
+    * ASCII whitespace is added to the delimiter set so only other chars need the method call.
     */
-   public void skipWhitespace() { skipWhitespace = true; }
+   public void skipWhitespace() 
+   { 
+      skipWhitespace = true; 
+      
+      for(char ch = 0; ch < 128; ch++)
+      {
+         if(Character.isWhitespace(ch))
+            delimSet.add(ch);
+      }
+   }
    
    public void addDelimiter(char delim) { delimSet.add(delim); }
    public void addDelimiter(char[] delimArray) {
@@ -49,49 +57,63 @@ public class StringScanner implements Cloneable
     */
    public LinkedList<String> scan(String inputStr)
    {
+      TokenBuffer tokens = new TokenBuffer();
+      scan(inputStr, tokens);
+      
+      LinkedList<String> tokenList = new LinkedList();
+      for(int i = 0; i < tokens.size(); i++)
+         tokenList.add(tokens.getText(i));
+      
+      return tokenList;
+   }
+   
+   /**
+    * Scans the input the same way as scan(String) but writes the token offsets into
+    * the given buffer instead of creating Strings. The buffer is reset first.
+    * @param input
+    * @param tokens
+    */
+   public void scan(CharSequence input, TokenBuffer tokens)
+   {
+      tokens.reset(input);
+      
       char ch;
-      String token = "";
-      for(int i = 0; i < inputStr.length(); i++) {
-         ch = inputStr.charAt(i);
+      int tokenStart = 0;
+      int length = input.length();
+      for(int i = 0; i < length; i++) {
+         ch = input.charAt(i);
          
          if(isDelim(ch)) {
-            saveToken(token);
-            token = "";
-         } else if(specCharSet.contains(ch)) {
-            saveToken(token);
-            saveToken(Character.toString(ch));
-            token = "";
-         } else {
-            token = token + ch;
+            saveToken(tokens, tokenStart, i);
+            tokenStart = i + 1;
+         } else if(isSpecialChar(ch)) {
+            saveToken(tokens, tokenStart, i);
+            tokens.add(i, i + 1, TokenBuffer.SPECIAL);
+            tokenStart = i + 1;
          }
-            
       }
       
-      saveToken(token);
-      
-      LinkedList<String> copyTokenList = tokenList;
-      tokenList = new LinkedList();
-      
-      return copyTokenList;
+      saveToken(tokens, tokenStart, length);
    }
    
-   private boolean isDelim(char ch) 
+   boolean isDelim(char ch) 
    {
-      return (skipWhitespace && Character.isWhitespace(ch)) || delimSet.contains(ch);
+      return delimSet.contains(ch) || (skipWhitespace && ch >= 128 && Character.isWhitespace(ch));
    }
    
-   private void saveToken(String token) 
+   boolean isSpecialChar(char ch) { return specCharSet.contains(ch); }
+   
+   private void saveToken(TokenBuffer tokens, int start, int end) 
    {
-      if(token.isEmpty() == false)
-         tokenList.add(token);
+      if(start < end)
+         tokens.add(start, end, TokenBuffer.TEXT);
    }
    
    public Object clone() throws CloneNotSupportedException
    {
       StringScanner clone = (StringScanner) super.clone();
-      clone.tokenList = (LinkedList) tokenList.clone();
-      clone.delimSet = (HashSet) delimSet.clone(); 
-      clone.specCharSet = (HashSet) specCharSet.clone();
+      clone.delimSet = delimSet.copy(); 
+      clone.specCharSet = specCharSet.copy();
       
       return clone;
    }
@@ -0,0 +1,35 @@
+package mathTree;
+
+/**
+ * Decides when a PreparedExpression stops walking its tree and switches to compiled
+ * code. After it has been evaluated closureThreshold times it is compiled to lambdas
+ * with a mathNode.ClosureCompiler, and after bytecodeThreshold times to a hidden class
+ * with a mathNode.BytecodeCompiler. Each step costs more up front but calculates
+ * faster, so only expressions that are evaluated often pay for it. A closureThreshold
+ * that is not below the bytecodeThreshold skips the lambdas.
+ * @author kevinrobell
+ *
+ */
+public class TieringPolicy
+{
+   public static final TieringPolicy DEFAULT = new TieringPolicy(100, 100000);
+
+   private int closureThreshold;
+   private int bytecodeThreshold;
+
+   /**
+    * @param closureThreshold Number of evaluations before compiling to lambdas.
+    * @param bytecodeThreshold Number of evaluations before compiling to bytecode.
+    */
+   public TieringPolicy(int closureThreshold, int bytecodeThreshold)
+   {
+      if(closureThreshold < 1 || bytecodeThreshold < 1)
+         throw new IllegalArgumentException("Thresholds must be positive");
+
+      this.closureThreshold = closureThreshold;
+      this.bytecodeThreshold = bytecodeThreshold;
+   }
+
+   public int getClosureThreshold() { return closureThreshold; }
+   public int getBytecodeThreshold() { return bytecodeThreshold; }
+}
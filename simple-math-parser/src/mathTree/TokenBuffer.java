@@ -0,0 +1,104 @@
+package mathTree;
+import java.util.Arrays;
+
+/**
+ * A reusable list of tokens stored as offsets into the scanned CharSequence.
+ * No String is created for a token unless getText() is called. The arrays
+ * grow as needed and are kept between scans, so a warm buffer does not allocate.
+ * @author kevinrobell
+ *
+ */
+public class TokenBuffer
+{
+   public static final byte TEXT = 0; //Run of characters between delimiters and special characters
+   public static final byte SPECIAL = 1; //A single special character
+   public static final byte IMPLICIT_MULT = 2; //A '*' that is not in the source, start and end are -1
+
+   private CharSequence source = "";
+   private int[] start = new int[16];
+   private int[] end = new int[16];
+   private byte[] kind = new byte[16];
+   private int size = 0;
+
+   /**
+    * Empties the buffer and sets the CharSequence the offsets refer to.
+    * @param source
+    */
+   public void reset(CharSequence source)
+   {
+      this.source = source;
+      size = 0;
+   }
+
+   /**
+    * Adds a token. The token covers source characters from start up to but not including end.
+    * @param start
+    * @param end
+    * @param kind
+    */
+   public void add(int start, int end, byte kind)
+   {
+      if(size == this.kind.length)
+      {
+         int newLength = size * 2;
+         this.start = Arrays.copyOf(this.start, newLength);
+         this.end = Arrays.copyOf(this.end, newLength);
+         this.kind = Arrays.copyOf(this.kind, newLength);
+      }
+
+      this.start[size] = start;
+      this.end[size] = end;
+      this.kind[size] = kind;
+      size++;
+   }
+
+   public int size() { return size; }
+   public boolean isEmpty() { return size == 0; }
+   public CharSequence getSource() { return source; }
+
+   public int getStart(int index) { return start[index]; }
+   public int getEnd(int index) { return end[index]; }
+   public byte getKind(int index) { return kind[index]; }
+   public int length(int index) { return end[index] - start[index]; }
+
+   /**
+    * Returns the first character of the token.
+    * @param index
+    * @return char
+    */
+   public char charAt(int index)
+   {
+      if(kind[index] == IMPLICIT_MULT)
+         return '*';
+      else
+         return source.charAt(start[index]);
+   }
+
+   /**
+    * Checks if the token is exactly one character long and equal to ch.
+    * @param index
+    * @param ch
+    * @return boolean
+    */
+   public boolean isChar(int index, char ch)
+   {
+      if(kind[index] == IMPLICIT_MULT)
+         return ch == '*';
+      else
+         return end[index] - start[index] == 1 && source.charAt(start[index]) == ch;
+   }
+
+   /**
+    * Creates a String of the token. This allocates, so it is meant for error messages
+    * and the older List based methods.
+    * @param index
+    * @return String
+    */
+   public String getText(int index)
+   {
+      if(kind[index] == IMPLICIT_MULT)
+         return "*";
+      else
+         return source.subSequence(start[index], end[index]).toString();
+   }
+}
@@ -0,0 +1,317 @@
+package mathTree;
+import java.util.Arrays;
+
+import mathNode.Expression;
+import mathNode.Operator;
+
+/**
+ * Builds trees of math nodes from a TokenBuffer without recursion. It places nodes
+ * exactly like the old recursive buildTree() and insertNode() did, but keeps the right
+ * side of the tree on an explicit stack so that each token is placed in constant
+ * amortized time and parenthesis do not use the native stack.
+ * <p>
+ * Operators are placed by walking down the right side of the tree from the top and
+ * stopping at the first operator whose precedence is not higher than the new one.
+ * Parenthesis have precedence 0, so the walk never goes past one. The stack keeps the
+ * lowest precedence seen so far for every level, which lets the stop be found from the
+ * bottom of the stack while popping the levels the new operator replaces.
+ * <p>
+ * Errors are not printed. If the tokens are invalid, build() returns null and
+ * getDiagnostic() tells what is wrong.
+ * @author kevinrobell
+ *
+ */
+class TreeBuilder
+{
+   private mathNode.Factory nodeFactory;
+
+   //Operators on the right side of the tree, from the top of each group downwards.
+   private Operator[] spine = new Operator[16];
+   private int[] minPrecedence = new int[16]; //Lowest precedence below the group root up to this level
+   private int top = 0;
+   private int used = 0; //Highest top since the last build
+
+   //One frame for the whole statement and one for every open parenthesis.
+   private Expression[] frameRoot = new Expression[8];
+   private int[] frameBase = new int[8]; //Position of the frame root in spine
+   private int[] frameParens = new int[8]; //Position of the first closed parenthesis in spine or -1
+   private int[] frameOpen = new int[8]; //Token of the open parenthesis
+   private int depth = 0;
+
+   private TokenBuffer tokens;
+   private int token; //Token being placed
+   private int valueStart, valueEnd; //Characters of the last value that was placed
+   private Diagnostic diagnostic = null;
+   private boolean variables = false; //Whether names become Variables
+   private boolean hasVariables; //Whether the last tree has a Variable
+
+   public TreeBuilder(mathNode.Factory nodeFactory) { this.nodeFactory = nodeFactory; }
+
+   /**
+    * Sets whether names become Variables. If not, a name is an unknown token.
+    * @param variables
+    */
+   public void setVariables(boolean variables) { this.variables = variables; }
+
+   /**
+    * @return Whether names become Variables.
+    */
+   public boolean isVariables() { return variables; }
+
+   /**
+    * @return Whether the last tree that was built has a Variable.
+    */
+   public boolean hasVariables() { return hasVariables; }
+
+   /**
+    * Builds the tree for the tokens. Returns null if empty or invalid.
+    * @param tokens
+    * @return The root node of a new tree of math nodes.
+    */
+   public Expression build(TokenBuffer tokens)
+   {
+      this.tokens = tokens;
+      diagnostic = null;
+      hasVariables = false;
+      top = 0;
+      depth = 0;
+      pushFrame();
+
+      Expression rootNode = null;
+      if(buildTree())
+         rootNode = frameRoot[0];
+
+      //Do not hold on to the nodes.
+      Arrays.fill(spine, 0, used, null);
+      Arrays.fill(frameRoot, 0, depth, null);
+      used = 0;
+      this.tokens = null;
+
+      return rootNode;
+   }
+
+   /**
+    * @return Why the last build failed or null if it did not.
+    */
+   public Diagnostic getDiagnostic() { return diagnostic; }
+
+   private boolean buildTree()
+   {
+      for(token = 0; token < tokens.size(); token++)
+      {
+         //Handle closed parenthesis
+         if(tokens.isChar(token, ')'))
+         {
+            if(depth > 1 && frameRoot[depth - 1] == null)
+               return fail(Diagnostic.Code.EMPTY_PARENTHESIS, token);
+            else if(depth == 1)
+               return fail(Diagnostic.Code.MISSING_OPEN_PARENTHESIS, token);
+
+            //The spine of the group stays where it is and joins the spine of the outer frame.
+            depth--;
+            Expression group = frameRoot[depth];
+            group.setParens(true);
+            frameRoot[depth] = null;
+            
+            int groupTop = top;
+            top = frameBase[depth];
+            
+            if(!insertValue(group, tokens.getStart(frameOpen[depth]), tokens.getEnd(token)))
+               return false;
+            if(group instanceof Operator)
+               top = groupTop;
+            continue;
+         }
+
+         //Handle open parenthesis
+         if(tokens.isChar(token, '('))
+         {
+            pushFrame();
+            frameOpen[depth - 1] = token;
+            continue;
+         }
+
+         //Create new node and place it in the tree.
+         Expression newNode;
+         if(tokens.getKind(token) == TokenBuffer.IMPLICIT_MULT)
+            newNode = nodeFactory.buildNode('*');
+         else
+            newNode = nodeFactory.buildNode(tokens.getSource(), tokens.getStart(token), tokens.getEnd(token));
+
+         if(newNode instanceof mathNode.Variable)
+         {
+            if(variables)
+               hasVariables = true;
+            else
+               newNode = null;
+         }
+
+         if(newNode == null)
+         {
+            diagnostic = new Diagnostic(Diagnostic.Code.UNKNOWN_TOKEN, token, tokens.getStart(token),
+                  tokens.getSource().toString(), tokens.getStart(token), tokens.getEnd(token), -1, -1);
+            return false;
+         }
+
+         if(newNode instanceof Operator)
+         {
+            if(!insertOperator((Operator) newNode))
+               return false;
+         }
+         else if(!insertValue(newNode, tokens.getStart(token), tokens.getEnd(token)))
+            return false;
+      }
+
+      //Check if ending parenthesis is missing.
+      if(depth > 1)
+         return fail(Diagnostic.Code.MISSING_CLOSE_PARENTHESIS, frameOpen[depth - 1]);
+      else
+         return true;
+   }
+
+   private boolean fail(Diagnostic.Code code, int errorToken)
+   {
+      diagnostic = new Diagnostic(code, errorToken, position(errorToken), null);
+      return false;
+   }
+
+   /**
+    * @return The position of the token in the source. Implicit tokens take the position
+    * of the next token.
+    */
+   private int position(int errorToken)
+   {
+      for(int i = errorToken; i < tokens.size(); i++)
+      {
+         if(tokens.getStart(i) >= 0)
+            return tokens.getStart(i);
+      }
+
+      return tokens.getSource().length();
+   }
+
+   /**
+    * Places an operator without parenthesis in the current frame according to precedence.
+    */
+   private boolean insertOperator(Operator newOperator)
+   {
+      int frame = depth - 1;
+      int base = frameBase[frame];
+      Expression rootNode = frameRoot[frame];
+      int precedence = newOperator.getPrecedence();
+
+      //The new operator goes on top if the root is not an operator with higher precedence.
+      if(rootNode == null || !(rootNode instanceof Operator)
+            || ((Operator) rootNode).getPrecedence() <= precedence)
+      {
+         newOperator.setLeftNode(rootNode);
+         frameRoot[frame] = newOperator;
+         frameParens[frame] = -1;
+         top = base;
+         push(newOperator, base);
+         return true;
+      }
+
+      //Find the first operator below the root whose precedence is not higher. If there is
+      //none, it is the bottom one. Nothing past a closed parenthesis can be reached.
+      int stop = frameParens[frame] >= 0 ? frameParens[frame] : top - 1;
+      if(stop > base && minPrecedence[stop] <= precedence)
+      {
+         while(stop - 1 > base && minPrecedence[stop - 1] <= precedence)
+            stop--;
+      }
+
+      Operator parent = spine[stop];
+
+      //Check if value is missing between two operators.
+      if(parent.getRightNode() == null)
+         return fail(Diagnostic.Code.MISSING_VALUE, token);
+
+      newOperator.setLeftNode(parent.getRightNode());
+      parent.setRightNode(newOperator);
+
+      if(frameParens[frame] > stop)
+         frameParens[frame] = -1;
+      top = stop + 1;
+      push(newOperator, base);
+      return true;
+   }
+
+   /**
+    * Places Int, Dec, or parenthesis node in tree. It goes on the rightmost empty node
+    * of the current frame. If that node is filled, it means there are two numbers in a row
+    * and it is invalid. If the new node is a closed parenthesis, its own spine starts at top.
+    * The value is from the characters start up to but not including end.
+    */
+   private boolean insertValue(Expression newNode, int start, int end)
+   {
+      int frame = depth - 1;
+      int base = frameBase[frame];
+      Expression rootNode = frameRoot[frame];
+
+      if(rootNode == null)
+      {
+         frameRoot[frame] = newNode;
+      }
+      else if(!(rootNode instanceof Operator) || spine[top - 1].getRightNode() != null)
+      {
+         diagnostic = new Diagnostic(Diagnostic.Code.MISSING_OPERATOR, token, start,
+               tokens.getSource().toString(), valueStart, valueEnd, start, end);
+         return false;
+      }
+      else
+         spine[top - 1].setRightNode(newNode);
+
+      valueStart = start;
+      valueEnd = end;
+
+      //A parenthesis node has precedence 0, so operators never get past it.
+      if(newNode instanceof Operator && top > base)
+      {
+         if(frameParens[frame] < 0)
+            frameParens[frame] = top;
+         minPrecedence[top] = 0;
+      }
+
+      return true;
+   }
+
+   private void push(Operator operator, int base)
+   {
+      ensureSpine(top + 1);
+      spine[top] = operator;
+
+      if(top == base + 1)
+         minPrecedence[top] = operator.getPrecedence();
+      else if(top > base + 1)
+         minPrecedence[top] = Math.min(minPrecedence[top - 1], operator.getPrecedence());
+
+      top++;
+      used = Math.max(used, top);
+   }
+
+   private void pushFrame()
+   {
+      if(depth == frameRoot.length)
+      {
+         frameRoot = Arrays.copyOf(frameRoot, depth * 2);
+         frameBase = Arrays.copyOf(frameBase, depth * 2);
+         frameParens = Arrays.copyOf(frameParens, depth * 2);
+         frameOpen = Arrays.copyOf(frameOpen, depth * 2);
+      }
+
+      frameRoot[depth] = null;
+      frameBase[depth] = top;
+      frameParens[depth] = -1;
+      depth++;
+   }
+
+   private void ensureSpine(int length)
+   {
+      if(length > spine.length)
+      {
+         spine = Arrays.copyOf(spine, Math.max(length, spine.length * 2));
+         minPrecedence = Arrays.copyOf(minPrecedence, spine.length);
+      }
+   }
+}
@@ -0,0 +1,121 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.*;
+import mathTree.PreparedExpression;
+
+//Tests for the BatchEvaluator.java class in the mathNode package.
+
+class BatchEvaluatorTest
+{
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testRowByRow()
+   {
+      //(2147483647 + 1) * x is not folded, so the integer addition has to wrap.
+      Operator addNode = (Operator) nodeFactory.buildNode('+');
+      addNode.setLeftNode(nodeFactory.buildNode(2147483647));
+      addNode.setRightNode(nodeFactory.buildNode(1));
+      addNode.setParens(true);
+      Variable x = new Variable("x");
+      x.setSlot(0);
+      Operator multNode = (Operator) nodeFactory.buildNode('*');
+      multNode.setLeftNode(addNode);
+      multNode.setRightNode(x);
+
+      BatchEvaluator batch = new BatchEvaluator(multNode);
+      assertEquals(1, batch.getVariableCount());
+      double[] out = new double[2];
+      batch.evaluate(new double[][] {{1, -0.5}}, out, 0, 2);
+      assertArrayEquals(new double[] {-2147483648.0, 1073741824.0}, out);
+
+      //Variables need slots.
+      Operator unslotted = (Operator) nodeFactory.buildNode('*');
+      unslotted.setLeftNode(addNode);
+      unslotted.setRightNode(new Variable("y"));
+      assertThrows(IllegalArgumentException.class, () -> new BatchEvaluator(unslotted));
+   }
+
+   @Test
+   public void testVector()
+   {
+      String[] statements = {"-x", "x + y", "x - y * z", "x / -y", "(x + y) ^ 2", "(x - 1) ^ 3",
+            "x * x * x - y * y + z / x", "-x / (y - 0.5) + 3 * z"};
+      mathTree.MathTree calcTree = new mathTree.MathTree();
+      calcTree.setVariables(true);
+      Random random = new Random(16);
+      int rows = 2500;
+
+      double[][] columns = new double[3][rows];
+      for(double[] column : columns)
+      {
+         for(int i = 0; i < rows; i++)
+            column[i] = random.nextInt(5) == 0 ? random.nextInt(5) - 2 : random.nextGaussian() * 100;
+      }
+
+      for(String statement : statements)
+      {
+         assertTrue(calcTree.init(statement), statement);
+         PreparedExpression expr = calcTree.prepare("x", "y", "z");
+
+         //The Vector API gives exactly the same bits as the loops of the operators.
+         double[] scalar = new double[rows];
+         BatchEvaluator batch = new BatchEvaluator(expr.getTree(), false);
+         assertFalse(batch.isVectorized());
+         batch.evaluate(columns, scalar, 0, rows);
+
+         double[] vector = new double[rows];
+         batch = new BatchEvaluator(expr.getTree(), true);
+         assertEquals(BatchEvaluator.isVectorAvailable(), batch.isVectorized());
+         batch.evaluate(columns, vector, 3, rows);
+         for(int i = 3; i < rows; i++)
+            assertEquals(scalar[i], vector[i], statement + " row " + i);
+      }
+   }
+
+   @Test
+   public void testParallel()
+   {
+      mathTree.MathTree calcTree = new mathTree.MathTree();
+      calcTree.setVariables(true);
+      assertTrue(calcTree.init("(x - 1.5) / (y + 2) ^ 3 - -x * y"));
+      PreparedExpression expr = calcTree.prepare();
+
+      Random random = new Random(17);
+      int rows = 300001;
+      double[][] columns = new double[2][rows];
+      for(double[] column : columns)
+      {
+         for(int i = 0; i < rows; i++)
+            column[i] = random.nextGaussian() * 100;
+      }
+
+      double[] sequential = new double[rows];
+      expr.evaluateBatch(columns, sequential);
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try
+      {
+         double[] parallel = new double[rows];
+         expr.evaluateBatch(columns, parallel, pool);
+         assertArrayEquals(sequential, parallel);
+
+         //Part of the rows, split into several tasks.
+         double[] part = new double[rows];
+         new BatchEvaluator(expr.getTree()).evaluate(columns, part, 5, rows - 5, pool);
+         for(int i = 5; i < rows - 5; i++)
+            assertEquals(sequential[i], part[i], "row " + i);
+         assertEquals(0.0, part[rows - 1]);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+}
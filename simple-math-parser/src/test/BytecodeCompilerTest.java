@@ -0,0 +1,139 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.BytecodeCompiler;
+import mathNode.CompiledExpression;
+import mathNode.Expression;
+import mathTree.MathTree;
+import mathTree.PreparedExpression;
+
+//Tests for the BytecodeCompiler.java class in the mathNode package.
+
+class BytecodeCompilerTest
+{
+   MathTree calcTree = new MathTree();
+
+   @Test
+   public void testSimpleExpr()
+   {
+      assertCompiles("4 + 4", 8);
+      assertCompiles("5 - 6", -1);
+      assertCompiles("8 * 9", 72);
+      assertCompiles("5 / 2", 2.5);
+      assertCompiles("5 ^ 2", 25.0);
+      assertCompiles("7", 7);
+      assertCompiles("-0.0", -0.0);
+      assertCompiles("2147483647 + 1", Integer.MIN_VALUE);
+      assertCompiles("(5+5*2) 8*0.5 + 6^2(4)", 1679676.0);
+      assertCompiles("70000 * 3 - 1000 + -129 + 1.5", 208872.5);
+
+      calcTree.init("6 * 2.5");
+      CompiledExpression compiled = calcTree.compile();
+      assertFalse(compiled.isInt());
+      assertEquals(15.0, compiled.evalDouble());
+      assertThrows(UnsupportedOperationException.class, () -> compiled.evalInt());
+   }
+
+   @Test
+   public void testRandomExpr()
+   {
+      Random random = new Random(11);
+      String[] operators = {" + ", " - ", " * ", " / ", " ^ "};
+      String[] values = {"0", "1", "-1", "7", "-128", "300", "-40000", "2147483647", "0.5", "-2.25", "1e300", "0.0"};
+
+      for(int i = 0; i < 500; i++)
+      {
+         StringBuilder expr = new StringBuilder(values[random.nextInt(values.length)]);
+         int length = random.nextInt(12);
+         for(int k = 0; k < length; k++)
+         {
+            expr.append(operators[random.nextInt(operators.length)]);
+            if(random.nextInt(4) == 0)
+               expr.append('(').append(values[random.nextInt(values.length)])
+                     .append(operators[random.nextInt(operators.length)]).append(values[random.nextInt(values.length)]).append(')');
+            else
+               expr.append(values[random.nextInt(values.length)]);
+         }
+
+         assertTrue(calcTree.init(expr.toString()), expr.toString());
+         assertEquals(calcTree.solve(), calcTree.compile().calculate(), expr.toString());
+      }
+   }
+
+   @Test
+   public void testRandomTrees()
+   {
+      Random random = new Random(11);
+      BytecodeCompiler compiler = new BytecodeCompiler();
+      Number[] values = {0, 1, -1, 7, -128, 300, 40000, Integer.MAX_VALUE, 0.5, -2.25, 1e300, -0.0};
+
+      for(int i = 0; i < 1000; i++)
+      {
+         Expression rootNode = TestTrees.randomTree(random, values, 12);
+         assertEquals(rootNode.calculate(), compiler.compile(rootNode).calculate(), rootNode.toString());
+      }
+   }
+
+   @Test
+   public void testBigTree()
+   {
+      //Too much code for one method, so subtrees get their own.
+      StringBuilder flatExpr = new StringBuilder("1");
+      for(int i = 0; i < 50000; i++)
+         flatExpr.append(i % 3 == 0 ? " - " : " + ").append(i % 1000);
+      assertTrue(calcTree.init(flatExpr.toString()));
+      assertEquals(calcTree.solve(), calcTree.compile().calculate());
+
+      StringBuilder nestedExpr = new StringBuilder();
+      for(int i = 0; i < 20000; i++)
+         nestedExpr.append("1.000001 * (");
+      nestedExpr.append("1");
+      for(int i = 0; i < 20000; i++)
+         nestedExpr.append(")");
+      assertTrue(calcTree.init(nestedExpr.toString()));
+      assertEquals(calcTree.solve(), calcTree.compile().calculate());
+   }
+
+   @Test
+   public void testVariablesAndShared()
+   {
+      BytecodeCompiler compiler = new BytecodeCompiler();
+      MathTree variableTree = new MathTree();
+      variableTree.setVariables(true);
+
+      //The sum is shared and has too much code for one method.
+      StringBuilder sum = new StringBuilder("(x");
+      for(int i = 1; i < 3000; i++)
+         sum.append(i % 2 == 0 ? " + " : " - ").append("(x * ").append(i).append(" - -y ^ 2)");
+      sum.append(")");
+
+      String[] statements = {"x * 2 - -y", "(x + y) * (x + y) - (x + y) / -x",
+            "((x - 1) ^ 2 + y) * ((x - 1) ^ 2 + y) + (x - 1) ^ 2",
+            sum + " * " + sum + " + y / " + sum};
+      for(String statement : statements)
+      {
+         assertTrue(variableTree.init(statement));
+         PreparedExpression expression = variableTree.prepare("x", "y");
+         CompiledExpression compiled = compiler.compile(expression.getTree());
+         assertTrue(compiled.getClass().isHidden());
+         for(double[] values : new double[][] {{2, 3}, {-0.5, 0}, {1e300, -7}})
+            assertEquals(expression.solve(values), compiled.calculate(values));
+      }
+
+      //A Shared integer keeps its exact value: 2147483647 * 3 + 2147483647 * 3
+      CompiledExpression compiled = compiler.compile(TestTrees.sharedIntTree());
+      assertTrue(compiled.isInt());
+      assertEquals(Integer.MAX_VALUE * 3 * 2, compiled.evalInt());
+   }
+
+   private void assertCompiles(String statement, Number expected)
+   {
+      assertTrue(calcTree.init(statement), statement);
+      assertEquals(expected, calcTree.solve(), statement);
+      assertEquals(expected, calcTree.compile().calculate(), statement);
+   }
+}
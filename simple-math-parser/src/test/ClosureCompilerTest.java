@@ -0,0 +1,120 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.ClosureCompiler;
+import mathNode.CompiledExpression;
+import mathNode.Expression;
+import mathTree.MathTree;
+import mathTree.PreparedExpression;
+import mathTree.TieringPolicy;
+
+//Tests for the ClosureCompiler.java class in the mathNode package and tiering in PreparedExpression.
+
+class ClosureCompilerTest
+{
+   ClosureCompiler compiler = new ClosureCompiler();
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testOperandTypes()
+   {
+      int[] ints = {6, -7, Integer.MAX_VALUE};
+      double[] doubles = {4.5, -0.0, 1e300};
+      char[] operators = {'+', '-', '*', '/', '^'};
+
+      for(char operator : operators)
+      {
+         for(int i = 0; i < 3; i++)
+         {
+            Expression[] left = {nodeFactory.buildNode(ints[i]), nodeFactory.buildNode(doubles[i])};
+            Expression[] right = {nodeFactory.buildNode(ints[2 - i]), nodeFactory.buildNode(doubles[2 - i])};
+
+            for(Expression leftNode : left)
+            {
+               for(Expression rightNode : right)
+               {
+                  mathNode.Operator opNode = (mathNode.Operator) nodeFactory.buildNode(operator);
+                  opNode.setLeftNode(leftNode);
+                  opNode.setRightNode(rightNode);
+
+                  CompiledExpression compiled = compiler.compile(opNode);
+                  assertEquals(opNode.calculate(), compiled.calculate(), opNode.toString());
+                  assertEquals(opNode.calculate() instanceof Integer, compiled.isInt(), opNode.toString());
+               }
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testDepthLimit()
+   {
+      Expression rootNode = nodeFactory.buildNode(1);
+      for(int i = 0; i < ClosureCompiler.MAX_DEPTH; i++)
+      {
+         mathNode.Operator opNode = (mathNode.Operator) nodeFactory.buildNode('+');
+         opNode.setLeftNode(nodeFactory.buildNode(1));
+         opNode.setRightNode(rootNode);
+         rootNode = opNode;
+      }
+
+      assertNull(compiler.compile(rootNode));
+      assertEquals(ClosureCompiler.MAX_DEPTH, compiler.compile(((mathNode.Operator) rootNode).getRightNode()).calculate());
+   }
+
+   @Test
+   public void testVariablesAndShared()
+   {
+      MathTree calcTree = new MathTree();
+      calcTree.setVariables(true);
+      String[] statements = {"x * 2 - -y", "(x + y) * (x + y) - (x + y) / -x",
+            "((x - 1) ^ 2 + y) * ((x - 1) ^ 2 + y) + (x - 1) ^ 2"};
+
+      for(String statement : statements)
+      {
+         assertTrue(calcTree.init(statement), statement);
+         PreparedExpression expression = calcTree.prepare("x", "y");
+         CompiledExpression compiled = compiler.compile(expression.getTree());
+         for(double[] values : new double[][] {{2, 3}, {-0.5, 0}, {1e300, -7}})
+            assertEquals(expression.solve(values), compiled.calculate(values), statement);
+      }
+
+      //A Shared integer keeps its exact value: 2147483647 * 3 + 2147483647 * 3
+      Expression sharedTree = TestTrees.sharedIntTree();
+      assertTrue(((mathNode.Operator) sharedTree).getLeftNode() instanceof mathNode.Shared);
+      CompiledExpression compiled = compiler.compile(sharedTree);
+      assertTrue(compiled.isInt());
+      assertEquals(Integer.MAX_VALUE * 3 * 2, compiled.evalInt());
+   }
+
+   @Test
+   public void testTiering()
+   {
+      MathTree calcTree = new MathTree();
+      calcTree.setVariables(true);
+      calcTree.setTieringPolicy(new TieringPolicy(3, 6));
+      Random random = new Random(5);
+      String[] operators = {" + ", " - ", " * ", " / ", " ^ "};
+      String[] operands = {"x", "-y", "2", "-3", "7", "0.5", "-2.25", "40000"};
+
+      for(int i = 0; i < 200; i++)
+      {
+         StringBuilder expr = new StringBuilder(operands[random.nextInt(operands.length)]);
+         for(int k = random.nextInt(10); k > 0; k--)
+            expr.append(operators[random.nextInt(operators.length)]).append(operands[random.nextInt(operands.length)]);
+
+         calcTree.init(expr.toString());
+         PreparedExpression expression = calcTree.prepare("x", "y");
+         double[] values = {1.5, -4};
+         Number expected = expression.solve(values);
+
+         //Walks the tree, then uses lambdas, then bytecode.
+         for(int k = 0; k < 8; k++)
+            assertEquals(expected, expression.solve(values), expr.toString());
+      }
+   }
+}
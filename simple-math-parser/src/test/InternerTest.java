@@ -0,0 +1,99 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.*;
+import mathTree.MathTree;
+
+//Tests for the Interner.java class and structural equality in the mathNode package.
+
+class InternerTest
+{
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testEquals()
+   {
+      assertEquals(nodeFactory.buildNode("5"), nodeFactory.buildNode("5"));
+      assertEquals(nodeFactory.buildNode("-x"), nodeFactory.buildNode("-x"));
+      assertEquals(nodeFactory.buildNode(Double.NaN), nodeFactory.buildNode(Double.NaN));
+      assertNotEquals(nodeFactory.buildNode(0.0), nodeFactory.buildNode(-0.0));
+      assertNotEquals(nodeFactory.buildNode(5), nodeFactory.buildNode(5.0));
+      assertNotEquals(nodeFactory.buildNode("x"), nodeFactory.buildNode("-x"));
+
+      Expression parens = nodeFactory.buildNode(5);
+      parens.setParens(true);
+      assertNotEquals(nodeFactory.buildNode(5), parens);
+
+      Expression first = chain(1, '+', 2, '*', 3);
+      Expression second = chain(1, '+', 2, '*', 3);
+      assertNotSame(first, second);
+      assertEquals(first, second);
+      assertEquals(first.hashCode(), second.hashCode());
+      assertNotEquals(first, chain(1, '+', 2, '*', 4));
+      assertNotEquals(first, chain(1, '-', 2, '*', 3));
+
+      //Changing a side forgets the hash of that operator.
+      ((Operator) second).setRightNode(nodeFactory.buildNode(4));
+      assertNotEquals(first, second);
+      assertEquals(chain(1, '+', 2, '*', 4), second);
+      assertEquals(chain(1, '+', 2, '*', 4).hashCode(), second.hashCode());
+   }
+
+   @Test
+   public void testIntern()
+   {
+      Interner interner = new Interner();
+      MathTree calcTree = new MathTree();
+      calcTree.setInterner(interner);
+
+      //(x + 1) * 2 - (x + 1) has 4 different subtrees besides the root.
+      Expression rootNode = chain('x', '+', 1, '*', 2);
+      Operator sub = (Operator) nodeFactory.buildNode('-');
+      sub.setLeftNode(rootNode);
+      sub.setRightNode(chain('x', '+', 1, '*', 2));
+      Operator interned = (Operator) interner.intern(sub);
+      assertEquals(sub, interned);
+      assertSame(interned.getLeftNode(), interned.getRightNode());
+      assertSame(rootNode, interned.getLeftNode());
+      assertEquals(6, interner.size());
+
+      //Statements share their subtrees and still calculate the same.
+      assertTrue(calcTree.init("1 + 2 * 3 - 4 / 5"));
+      assertEquals(6.2, calcTree.solve());
+      int size = interner.size();
+      assertTrue(calcTree.init("1 + 2 * 3 - 4 / 5 + 6"));
+      assertEquals(12.2, calcTree.solve());
+      assertEquals(size + 2, interner.size());
+      assertEquals("1 + 2 * 3 - 4 / 5 + 6", calcTree.toString());
+
+      //Deep trees are hashed, compared and interned without recursion.
+      StringBuilder deep = new StringBuilder("1");
+      for(int i = 0; i < 100000; i++)
+         deep.append(" - 1");
+      assertTrue(calcTree.init(deep.toString()));
+      assertTrue(calcTree.init(deep.toString()));
+      assertEquals(-99999, calcTree.solve());
+
+      interner.clear();
+      assertEquals(0, interner.size());
+   }
+
+   /**
+    * @return The tree of a value, operator, value, operator, value, built left to right.
+    */
+   private Expression chain(Object first, char firstOperator, int second, char secondOperator, int third)
+   {
+      Expression leftNode = first instanceof Character ? nodeFactory.buildNode(first.toString())
+            : nodeFactory.buildNode((Integer) first);
+      Operator operator = (Operator) nodeFactory.buildNode(firstOperator);
+      operator.setLeftNode(leftNode);
+      operator.setRightNode(nodeFactory.buildNode(second));
+
+      Operator rootNode = (Operator) nodeFactory.buildNode(secondOperator);
+      rootNode.setLeftNode(operator);
+      rootNode.setRightNode(nodeFactory.buildNode(third));
+      return rootNode;
+   }
+}
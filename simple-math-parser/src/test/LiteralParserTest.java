@@ -0,0 +1,139 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.LiteralParser;
+
+//Tests for the LiteralParser.java class in the mathNode package.
+
+class LiteralParserTest
+{
+   LiteralParser parser = new LiteralParser();
+
+   String[] edgeCases = {"0", "-0", "+0", "1.5", "-1.5", ".5", "5.", "-.5", "+.5e-3", "1e-5", "1E5",
+         "1e5d", "1.5f", "1.5D", "NaN", "-NaN", "Infinity", "-Infinity", "0x1p3", "0x1.8p1", "0X.8P-1f",
+         "0e99999999999", "1e99999999999", "1e-99999999999", "4.9e-324", "2.4703282292062327e-324",
+         "2.4703282292062328e-324", "1.7976931348623157e308", "1.7976931348623159e308",
+         "2.2250738585072011e-308", "9007199254740993", "9007199254740992.5", "1e23", "8.41e21",
+         "7.2057594037927933e16", "123456789012345678901234567890", "1.00000000000000000000000000001",
+         "0.1", "\u00015", "5\u0001"};
+
+   String[] invalidCases = {"", "+", "-", ".", "1e", "1e+", "1.5x", "1.5ff", "Inf", "NaNa", "0x1", "0xp1",
+         "0x.p1", "1..5", "e5", "1L", "--5", "5-", "١٢.5"};
+
+   @Test
+   public void testIntegers()
+   {
+      assertEquals(LiteralParser.INT, parser.parse("2147483647", 0, 10));
+      assertEquals(Integer.MAX_VALUE, parser.getInt());
+
+      assertEquals(LiteralParser.INT, parser.parse("-2147483648", 0, 11));
+      assertEquals(Integer.MIN_VALUE, parser.getInt());
+
+      assertEquals(LiteralParser.INT, parser.parse("x+42)", 2, 4));
+      assertEquals(42, parser.getInt());
+
+      //Integer.parseInt() reads other Unicode digits.
+      assertEquals(LiteralParser.INT, parser.parse("١٢", 0, 2));
+      assertEquals(12, parser.getInt());
+
+      assertEquals(LiteralParser.LONG, parser.parse("2147483648", 0, 10));
+      assertEquals(2147483648L, parser.getLong());
+      assertEquals(2147483648.0, parser.getDouble());
+
+      assertEquals(LiteralParser.LONG, parser.parse("-9223372036854775808", 0, 20));
+      assertEquals(Long.MIN_VALUE, parser.getLong());
+
+      assertEquals(LiteralParser.DOUBLE, parser.parse("9223372036854775808", 0, 19));
+      assertEquals(9223372036854775808.0, parser.getDouble());
+   }
+
+   @Test
+   public void testEdgeCases()
+   {
+      for(String literal : edgeCases)
+         assertMatchesJava(literal);
+
+      for(String literal : invalidCases)
+         assertEquals(LiteralParser.INVALID, parser.parse(literal, 0, literal.length()), literal);
+   }
+
+   @Test
+   public void testRandomDoubles()
+   {
+      Random random = new Random(42);
+
+      for(int i = 0; i < 20000; i++)
+      {
+         double value = Double.longBitsToDouble(random.nextLong());
+         if(Double.isNaN(value))
+            continue;
+
+         assertMatchesJava(Double.toString(value));
+         assertMatchesJava(String.format("%.25e", value));
+         assertMatchesJava(new BigDecimal(value).toString());
+      }
+   }
+
+   @Test
+   public void testHalfwayDoubles()
+   {
+      Random random = new Random(7);
+
+      //Values exactly half way between two doubles must round to even.
+      for(int i = 0; i < 20000; i++)
+      {
+         double value = Math.abs(Double.longBitsToDouble(random.nextLong()));
+         if(!Double.isFinite(value) || value == Double.MAX_VALUE)
+            continue;
+
+         BigDecimal halfway = new BigDecimal(value).add(new BigDecimal(Math.nextUp(value)))
+               .divide(BigDecimal.valueOf(2));
+         assertMatchesJava(halfway.toString());
+      }
+   }
+
+   @Test
+   public void testRandomDigits()
+   {
+      Random random = new Random(3);
+
+      for(int i = 0; i < 20000; i++)
+      {
+         StringBuilder literal = new StringBuilder();
+         int length = 1 + random.nextInt(40);
+         for(int k = 0; k < length; k++)
+            literal.append((char) ('0' + random.nextInt(10)));
+
+         if(random.nextBoolean())
+            literal.insert(random.nextInt(literal.length() + 1), '.');
+         if(random.nextBoolean())
+            literal.append('e').append(random.nextInt(700) - 350);
+
+         assertMatchesJava(literal.toString());
+      }
+   }
+
+   /**
+    * Checks that the parser agrees with Integer.parseInt() and then Double.parseDouble().
+    */
+   private void assertMatchesJava(String literal)
+   {
+      int kind = parser.parse(literal, 0, literal.length());
+
+      try {
+         int expected = Integer.parseInt(literal);
+         assertEquals(LiteralParser.INT, kind, literal);
+         assertEquals(expected, parser.getInt(), literal);
+         return;
+      } catch(NumberFormatException e) {}
+
+      double expected = Double.parseDouble(literal);
+      assertTrue(kind == LiteralParser.LONG || kind == LiteralParser.DOUBLE, literal);
+      assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(parser.getDouble()), literal);
+   }
+}
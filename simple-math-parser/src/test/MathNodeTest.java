@@ -128,6 +128,93 @@ class MathNodeTest
       opNode.setRightNode(rightNode);
       
       assertEquals(91.125, opNode.calculate());
+      
+      //Integer powers are found by squaring and give the same bits as Math.pow().
+      double[] bases = {0.0, -0.0, 1, -1, 2, -2, 3, -7, 10, 1 << 26, 0x1p53, -0x1p53, 0x1p53 + 2, 2.5, Double.NaN};
+      double[] exponents = {0.0, -0.0, 1, 2, 3, 7, 30, 53, 54, 63, 64, 1000, -1, 0.5};
+      for(double base : bases)
+         for(double exponent : exponents)
+            assertEquals(Double.doubleToRawLongBits(Math.pow(base, exponent)),
+                  Double.doubleToRawLongBits(mathNode.Pow.power(base, exponent)), base + " ^ " + exponent);
+      assertEquals(9007199254740992.0, mathNode.Pow.power(2, 53));
+      assertEquals(-2187.0, mathNode.Pow.power(-3, 7));
    }
-
-}
\ No newline at end of file
+   
+   @Test
+   public void testEvaluator()
+   {
+      Evaluator evaluator = new Evaluator();
+      
+      //(6 + 2) * 4.5 / 2
+      opNode = new mathNode.Div();
+      Operator multNode = new mathNode.Mult();
+      Operator addNode = new mathNode.Add();
+      addNode.setLeftNode(nodeFactory.buildNode(testInts[0]));
+      addNode.setRightNode(nodeFactory.buildNode(testInts[1]));
+      multNode.setLeftNode(addNode);
+      multNode.setRightNode(nodeFactory.buildNode(testDoubles[0]));
+      opNode.setLeftNode(multNode);
+      opNode.setRightNode(nodeFactory.buildNode(testInts[1]));
+      
+      assertEquals(Evaluator.DOUBLE, evaluator.evaluate(opNode));
+      assertEquals(18.0, evaluator.getDouble());
+      
+      assertEquals(Evaluator.INT, evaluator.evaluate(addNode));
+      assertEquals(8, evaluator.getInt());
+      assertEquals(8.0, evaluator.getDouble());
+      
+      //Integer math wraps around like it does in calculate().
+      addNode.setLeftNode(nodeFactory.buildNode(Integer.MAX_VALUE));
+      assertEquals(Evaluator.INT, evaluator.evaluate(addNode));
+      assertEquals(Integer.MIN_VALUE + 1, evaluator.getInt());
+      assertEquals(Integer.MIN_VALUE + 1, addNode.calculate());
+      
+      assertEquals(Evaluator.INT, evaluator.evaluate(nodeFactory.buildNode(testInts[0])));
+      assertEquals(6, evaluator.getInt());
+      
+      //calculate() uses an Evaluator of the thread, even when a node in the tree calls
+      //calculate() on another tree while it is in use.
+      Operator innerNode = new mathNode.Mult();
+      innerNode.setLeftNode(nodeFactory.buildNode(testInts[0]));
+      innerNode.setRightNode(nodeFactory.buildNode(testDoubles[0]));
+      Expression customNode = new Expression()
+      {
+         public Number calculate() { return innerNode.calculate(); }
+         public boolean checkTree() { return true; }
+      };
+      Operator outerNode = new mathNode.Sub();
+      outerNode.setLeftNode(nodeFactory.buildNode(testInts[1]));
+      outerNode.setRightNode(customNode);
+      assertEquals(-25.0, outerNode.calculate());
+      assertEquals(-25.0, outerNode.calculate());
+      assertEquals(27.0, innerNode.calculate());
+   }
+   
+   @Test
+   public void testSealed() throws CloneNotSupportedException
+   {
+      //A tree that fails checkTree() can still be fixed.
+      opNode = new mathNode.Mult();
+      Operator addNode = new mathNode.Add();
+      addNode.setLeftNode(nodeFactory.buildNode(testInts[0]));
+      opNode.setLeftNode(addNode);
+      opNode.setRightNode(nodeFactory.buildNode(testInts[1]));
+      assertFalse(opNode.checkTree());
+      addNode.setRightNode(nodeFactory.buildNode(testInts[1]));
+      assertTrue(opNode.checkTree());
+      
+      //A checked tree may be shared, so none of its operators can change.
+      Operator sealedNode = opNode;
+      assertThrows(IllegalStateException.class, () -> sealedNode.setLeftNode(nodeFactory.buildNode(1)));
+      assertThrows(IllegalStateException.class, () -> addNode.setRightNode(nodeFactory.buildNode(1)));
+      assertThrows(IllegalStateException.class, () -> addNode.setParens(true));
+      assertEquals(16, opNode.calculate());
+      
+      //A clone can be changed.
+      Operator clone = (Operator) opNode.clone();
+      clone.setRightNode(nodeFactory.buildNode(testInts[0]));
+      ((Operator) clone.getLeftNode()).setParens(true);
+      assertEquals("(6 + 2) * 6", clone.toString());
+      assertEquals("6 + 2 * 2", opNode.toString());
+   }
+}
@@ -1,11 +1,14 @@
 package test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.LinkedList;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import mathTree.Diagnostic;
 import mathTree.MathTree;
 
 //Tests for the MathTree.java class in the mathTree package.
@@ -89,6 +92,31 @@ class MathTreeTest
       assertEquals(false, calcTree.init("6 ( + 7"));
       
       assertEquals(false, calcTree.init("- 6 + 7"));
+      
+      calcTree.init("((6 + 8)) 2");
+      assertEquals(28, calcTree.solve());
+   }
+   
+   @Test
+   public void testSecondPass()
+   {
+      //Cases from the "Second Pass" section of the README.
+      assertEquals(true, calcTree.init("5--5"));
+      assertEquals("5 - -5", calcTree.toString());
+      
+      assertEquals(true, calcTree.init("5- 5"));
+      assertEquals("5 - 5", calcTree.toString());
+      
+      assertEquals(false, calcTree.init("5 -5"));
+      
+      assertEquals(true, calcTree.init("5(6)"));
+      assertEquals("5 * (6)", calcTree.toString());
+      
+      assertEquals(true, calcTree.init("5+ (6)"));
+      assertEquals("5 + (6)", calcTree.toString());
+      
+      assertEquals(true, calcTree.init("(7+6) 4"));
+      assertEquals("(7 + 6) * 4", calcTree.toString());
    }
    
    @Test
@@ -106,4 +134,154 @@ class MathTreeTest
       calcTree.init("7^(8-2-4)+4--5*3");
       assertEquals(68.0, calcTree.solve());
    }
-}
\ No newline at end of file
+   
+   @Test
+   public void testDiagnostics()
+   {
+      assertEquals(true, calcTree.init("4 + 4"));
+      assertNull(calcTree.getDiagnostic());
+      
+      assertDiagnostic("5 7 2", Diagnostic.Code.MISSING_OPERATOR, 2, "Invalid: Missing operator between 5 and 7");
+      assertDiagnostic("5 -5", Diagnostic.Code.MISSING_OPERATOR, 2, "Invalid: Missing operator between 5 and -5");
+      assertDiagnostic(")5+6", Diagnostic.Code.MISSING_OPEN_PARENTHESIS, 0, "Invalid: Missing \"(\"");
+      assertDiagnostic("4 * (6 + 7", Diagnostic.Code.MISSING_CLOSE_PARENTHESIS, 4, "Invalid: Missing \")\"");
+      assertDiagnostic("5 * ^", Diagnostic.Code.MISSING_VALUE, 4, "Invalid: Missing value between two operators");
+      assertDiagnostic("5 + x", Diagnostic.Code.UNKNOWN_TOKEN, 4, "Invalid: Unknown expression \"x\"");
+      assertDiagnostic("2 ()", Diagnostic.Code.EMPTY_PARENTHESIS, 3, "Invalid: Empty parenthesis");
+      assertDiagnostic("5 +", Diagnostic.Code.INCOMPLETE_EXPRESSION, 3, "Invalid: Unknown expression");
+      assertDiagnostic(" ", Diagnostic.Code.EMPTY_STATEMENT, 0, "Invalid: Empty statement");
+   }
+   
+   private void assertDiagnostic(String statement, Diagnostic.Code code, int position, String message)
+   {
+      assertEquals(false, calcTree.init(statement));
+      assertEquals(code, calcTree.getDiagnostic().getCode(), statement);
+      assertEquals(position, calcTree.getDiagnostic().getPosition(), statement);
+      assertEquals(message, calcTree.getDiagnostic().getMessage(), statement);
+   }
+   
+   @Test
+   public void testManyTokens()
+   {
+      StringBuilder flatExpr = new StringBuilder("1");
+      for(int i = 0; i < 2000; i++)
+         flatExpr.append("+1");
+      
+      calcTree.init(flatExpr.toString());
+      assertEquals(2001, calcTree.solve());
+      
+      StringBuilder nestedExpr = new StringBuilder();
+      for(int i = 0; i < 500; i++)
+         nestedExpr.append("(1+");
+      nestedExpr.append("1");
+      for(int i = 0; i < 500; i++)
+         nestedExpr.append(")");
+      
+      calcTree.init(nestedExpr.toString());
+      assertEquals(501, calcTree.solve());
+   }
+   
+   @Test
+   public void testDeepTree() throws CloneNotSupportedException
+   {
+      //Both trees are far deeper than the thread stack would allow with recursion.
+      StringBuilder leftDeep = new StringBuilder("1");
+      for(int i = 0; i < 100000; i++)
+         leftDeep.append(" - 1");
+      
+      assertTrue(calcTree.init(leftDeep.toString()));
+      assertEquals(-99999, calcTree.solve());
+      assertEquals(leftDeep.toString(), calcTree.toString());
+      
+      StringBuilder rightDeep = new StringBuilder();
+      for(int i = 0; i < 100000; i++)
+         rightDeep.append("2.5 * (");
+      rightDeep.append("1");
+      for(int i = 0; i < 100000; i++)
+         rightDeep.append(")");
+      
+      assertTrue(calcTree.init(rightDeep.toString()));
+      assertEquals(Double.POSITIVE_INFINITY, calcTree.solve());
+      assertEquals(rightDeep.toString(), calcTree.toString());
+      
+      MathTree clone = (MathTree) calcTree.clone();
+      calcTree.init("1");
+      assertEquals(rightDeep.toString(), clone.toString());
+   }
+   
+   @Test
+   public void testRender() throws IOException
+   {
+      //Writing to a Writer gives the same text as toString().
+      String[] statements = {"5 - -5", "(7 + 6) * 4", "2 ^ (0.5) / (x)", "-y * (1 + (2 - 3))"};
+      MathTree variableTree = new MathTree();
+      variableTree.setVariables(true);
+      for(String statement : statements)
+      {
+         assertTrue(variableTree.init(statement));
+         StringWriter writer = new StringWriter();
+         variableTree.render(writer);
+         assertEquals(variableTree.toString(), writer.toString());
+      }
+      
+      //Every character of a deep tree is written once into the same buffer.
+      StringBuilder deep = new StringBuilder("1");
+      for(int i = 0; i < 100000; i++)
+         deep.append(" + (2 * 3.5)");
+      calcTree.init(deep.toString());
+      StringBuilder out = new StringBuilder("log: ");
+      calcTree.render(out);
+      assertEquals("log: " + deep, out.toString());
+      
+      calcTree.init("");
+      StringWriter empty = new StringWriter();
+      calcTree.render(empty);
+      assertEquals("", empty.toString());
+   }
+   
+   @Test
+   public void testSubstitute() throws CloneNotSupportedException
+   {
+      MathTree template = new MathTree();
+      template.setVariables(true);
+      assertTrue(template.init("price * (1 + -rate) + price"));
+      
+      //The template has no values, so it cannot be solved.
+      assertNull(template.solve());
+      assertEquals(Diagnostic.Code.UNBOUND_VARIABLE, template.getDiagnostic().getCode());
+      assertEquals(0, template.getDiagnostic().getPosition());
+      assertEquals("Invalid: Variable \"price\" has no value", template.getDiagnostic().getMessage());
+      
+      //The Diagnostic is found once by init(), not on every call.
+      Diagnostic unbound = template.getDiagnostic();
+      assertNull(template.compile());
+      assertNull(template.toProgram());
+      assertSame(unbound, template.getDiagnostic());
+      
+      //Clones share the template until they are changed.
+      MathTree first = (MathTree) template.clone();
+      MathTree second = (MathTree) template.clone();
+      assertTrue(first.substitute("price", 100));
+      assertNull(first.solve());
+      assertEquals(13, first.getDiagnostic().getPosition());
+      assertEquals("Invalid: Variable \"rate\" has no value", first.getDiagnostic().getMessage());
+      assertTrue(first.substitute("rate", 0.25));
+      assertFalse(first.substitute("tax", 1));
+      assertEquals("100 * (1 + -0.25) + 100", first.toString());
+      assertEquals(175.0, first.solve());
+      
+      assertTrue(second.substitute("price", 3));
+      assertTrue(second.substitute("rate", 0));
+      assertEquals(6, second.solve());
+      assertEquals("price * (1 + -rate) + price", template.toString());
+      
+      //Clones read names as variables like the template.
+      assertTrue(second.init("price - 1"));
+      assertNull(second.solve());
+      assertEquals(Diagnostic.Code.UNBOUND_VARIABLE, second.getDiagnostic().getCode());
+      
+      //An empty tree can be cloned.
+      template.init("");
+      assertEquals("", ((MathTree) template.clone()).toString());
+   }
+}
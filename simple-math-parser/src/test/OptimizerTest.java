@@ -0,0 +1,69 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.*;
+
+//Tests for the Optimizer.java class in the mathNode package.
+
+class OptimizerTest
+{
+   Optimizer optimizer = new Optimizer();
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testFolding()
+   {
+      //2 * 3.5 + 4
+      Operator multNode = (Operator) nodeFactory.buildNode('*');
+      multNode.setLeftNode(nodeFactory.buildNode(2));
+      multNode.setRightNode(nodeFactory.buildNode(3.5));
+      Operator addNode = (Operator) nodeFactory.buildNode('+');
+      addNode.setLeftNode(multNode);
+      addNode.setRightNode(nodeFactory.buildNode(4));
+
+      Expression optimized = optimizer.optimize(addNode);
+      assertTrue(optimized instanceof Dec);
+      assertEquals(11.0, optimized.calculate());
+
+      //The tree that was given does not change.
+      assertEquals("2 * 3.5 + 4", addNode.toString());
+
+      //Integer math stays integer math.
+      multNode.setLeftNode(nodeFactory.buildNode(Integer.MAX_VALUE));
+      multNode.setRightNode(nodeFactory.buildNode(2));
+      optimized = optimizer.optimize(addNode);
+      assertTrue(optimized instanceof Int);
+      assertEquals(2, optimized.calculate());
+
+      //x ^ 0 is 1.0 for every x, so it folds into the operator above.
+      Operator powNode = (Operator) nodeFactory.buildNode('^');
+      powNode.setLeftNode(nodeFactory.buildNode("x"));
+      powNode.setRightNode(nodeFactory.buildNode(0));
+      multNode = (Operator) nodeFactory.buildNode('*');
+      multNode.setLeftNode(nodeFactory.buildNode("y"));
+      multNode.setRightNode(powNode);
+      optimized = optimizer.optimize(multNode);
+      assertTrue(optimized instanceof Variable);
+      assertEquals("y", optimized.toString());
+
+      Expression leaf = nodeFactory.buildNode(7);
+      assertSame(leaf, optimizer.optimize(leaf));
+   }
+
+   @Test
+   public void testRandomTrees()
+   {
+      Random random = new Random(17);
+      Number[] values = {0, 1, 2, -1, 7, Integer.MAX_VALUE, 0.0, -0.0, 1.0, 2.0, 0.5, Double.NaN, 1e308};
+
+      for(int i = 0; i < 2000; i++)
+      {
+         Expression rootNode = TestTrees.randomTree(random, values, 10);
+         assertEquals(rootNode.calculate(), optimizer.optimize(rootNode).calculate(), rootNode.toString());
+      }
+   }
+}
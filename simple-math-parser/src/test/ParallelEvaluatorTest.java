@@ -0,0 +1,222 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.*;
+import mathTree.MathTree;
+import mathTree.PreparedExpression;
+
+//Tests for the ParallelEvaluator.java class in the mathNode package.
+
+class ParallelEvaluatorTest
+{
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testRandomTrees()
+   {
+      //Integers with wrapping math, then decimals where the order of additions matters.
+      assertRandomTree(true, Evaluator.INT);
+      assertRandomTree(false, Evaluator.DOUBLE);
+   }
+
+   @Test
+   public void testDeepTree()
+   {
+      //1 + 1 + 1 ... is one long chain, so only the bottom can be forked.
+      Expression rootNode = nodeFactory.buildNode(1);
+      for(int i = 0; i < 100000; i++)
+      {
+         Operator addNode = (Operator) nodeFactory.buildNode('+');
+         addNode.setLeftNode(rootNode);
+         addNode.setRightNode(nodeFactory.buildNode(i % 3 == 0 ? 0.5 : 1));
+         rootNode = addNode;
+      }
+
+      Evaluator evaluator = new Evaluator();
+      evaluator.evaluate(rootNode);
+
+      ForkJoinPool pool = new ForkJoinPool(2);
+      try
+      {
+         ParallelEvaluator parallel = new ParallelEvaluator(rootNode, 10);
+         assertEquals(Evaluator.DOUBLE, parallel.evaluate(pool));
+         assertEquals(evaluator.getDouble(), parallel.getDouble());
+
+         MathTree calcTree = new MathTree();
+         assertTrue(calcTree.init("(2 + 3) * 4.5 - 6"));
+         assertEquals(calcTree.solve(), calcTree.solve(pool));
+         assertTrue(calcTree.init("7"));
+         assertEquals(7, calcTree.solve(pool));
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+
+      Expression chain = rootNode;
+      assertThrows(IllegalArgumentException.class, () -> new ParallelEvaluator(chain, 0));
+   }
+
+   @Test
+   public void testLargeStatement()
+   {
+      //The optimizer would fold this to one number, so solve(pool) must cut the tree itself.
+      StringBuilder statement = new StringBuilder();
+      appendGroup(statement, 0, 1 << 17, "");
+
+      MathTree calcTree = new MathTree();
+      assertTrue(calcTree.init(statement.toString()));
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try
+      {
+         assertEquals(calcTree.solve(), calcTree.solve(pool));
+         assertTrue(pool.getStealCount() > 0);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
+   @Test
+   public void testFlatStatement()
+   {
+      //1 + 2 + 3 ... is one chain, so it is only cut into tasks once it is balanced.
+      StringBuilder statement = new StringBuilder("1");
+      for(int i = 1; i < 1 << 17; i++)
+         statement.append(" + ").append(i % 9 + 1);
+
+      MathTree calcTree = new MathTree();
+      assertTrue(calcTree.init(statement.toString()));
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try
+      {
+         assertEquals(calcTree.solve(), calcTree.solve(pool));
+         assertTrue(calcTree.getTaskCount() <= 1);
+
+         calcTree.setRebalancer(new Rebalancer());
+         assertEquals(0, calcTree.getTaskCount());
+         assertEquals(calcTree.solve(), calcTree.solve(pool));
+         assertTrue(calcTree.getTaskCount() > 1);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
+   @Test
+   public void testPreparedExpression()
+   {
+      StringBuilder statement = new StringBuilder();
+      appendGroup(statement, 0, 1 << 17, "x");
+
+      MathTree calcTree = new MathTree();
+      calcTree.setVariables(true);
+      assertTrue(calcTree.init(statement.toString()));
+      PreparedExpression expression = calcTree.prepare("x");
+
+      ParallelEvaluator parallel = new ParallelEvaluator(expression.getTree());
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try
+      {
+         for(double x : new double[] {0.5, 3, -7.25})
+         {
+            double[] values = {x};
+            assertEquals(expression.evaluate(values), expression.evaluate(values, pool));
+
+            parallel.evaluate(pool, values);
+            assertTrue(parallel.getTaskCount() > 1);
+            assertEquals(expression.evaluate(values), parallel.getDouble());
+         }
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
+   /**
+    * Appends a balanced statement with the numbers from first up to first + count. Every
+    * fourth number is variable if it is not empty.
+    */
+   private static void appendGroup(StringBuilder statement, int first, int count, String variable)
+   {
+      if(count == 1)
+      {
+         if(!variable.isEmpty() && first % 4 == 0)
+            statement.append(variable);
+         else
+            statement.append(first % 9 + 1);
+         return;
+      }
+
+      int half = count / 2;
+      statement.append('(');
+      appendGroup(statement, first, half, variable);
+      statement.append(first % 3 == 0 ? " * " : first % 3 == 1 ? " + " : " - ");
+      appendGroup(statement, first + half, count - half, variable);
+      statement.append(')');
+   }
+
+   private void assertRandomTree(boolean intsOnly, int type)
+   {
+      Random random = new Random(18);
+      char[] operators = intsOnly ? new char[] {'+', '-', '*'} : new char[] {'+', '-'};
+      ArrayList<Expression> nodes = new ArrayList<Expression>();
+      for(int i = 0; i < 100000; i++)
+      {
+         if(intsOnly)
+            nodes.add(nodeFactory.buildNode(random.nextInt(7) - 3));
+         else if(random.nextBoolean())
+            nodes.add(nodeFactory.buildNode(random.nextInt(3) + 1));
+         else
+            nodes.add(nodeFactory.buildNode(0.5 + random.nextDouble()));
+      }
+
+      //Join random pairs until one tree is left.
+      while(nodes.size() > 1)
+      {
+         int left = random.nextInt(nodes.size());
+         Expression leftNode = nodes.get(left);
+         nodes.set(left, nodes.get(nodes.size() - 1));
+         nodes.remove(nodes.size() - 1);
+
+         int right = random.nextInt(nodes.size());
+         Operator opNode = (Operator) nodeFactory.buildNode(operators[random.nextInt(operators.length)]);
+         opNode.setLeftNode(leftNode);
+         opNode.setRightNode(nodes.get(right));
+         nodes.set(right, opNode);
+      }
+      Expression rootNode = nodes.get(0);
+
+      Evaluator evaluator = new Evaluator();
+      assertEquals(type, evaluator.evaluate(rootNode));
+
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try
+      {
+         for(int threshold : new int[] {1, 100, ParallelEvaluator.DEFAULT_THRESHOLD, 1000000})
+         {
+            ParallelEvaluator parallel = new ParallelEvaluator(rootNode, threshold);
+            assertEquals(199999, parallel.getNodeCount());
+            assertEquals(type, parallel.evaluate(pool));
+            assertEquals(evaluator.getDouble(), parallel.getDouble());
+            if(type == Evaluator.INT)
+               assertEquals(evaluator.getInt(), parallel.getInt());
+         }
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+}
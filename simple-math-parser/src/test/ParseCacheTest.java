@@ -0,0 +1,119 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import mathTree.MathTree;
+import mathTree.ParseCache;
+
+//Tests for the ParseCache.java class in the mathTree package.
+
+class ParseCacheTest
+{
+   @Test
+   public void testHitsAndMisses()
+   {
+      ParseCache cache = new ParseCache(100);
+      MathTree calcTree = new MathTree(cache);
+
+      assertEquals(true, calcTree.init("4 + 4 * 2"));
+      assertEquals(12, calcTree.solve());
+      assertEquals(true, calcTree.init("4 + 4 * 2"));
+      assertEquals(12, calcTree.solve());
+      assertEquals("4 + 4 * 2", calcTree.toString());
+
+      //Invalid statements are not cached.
+      assertEquals(false, calcTree.init("5 7 2"));
+      assertEquals(false, calcTree.init("5 7 2"));
+      assertNotNull(calcTree.getDiagnostic());
+
+      //Other trees share the cache.
+      MathTree otherTree = new MathTree(cache);
+      assertEquals(true, otherTree.init("4 + 4 * 2"));
+      assertEquals(12, otherTree.solve());
+
+      assertEquals(2, cache.getHitCount());
+      assertEquals(3, cache.getMissCount());
+      assertEquals(1, cache.size());
+   }
+
+   @Test
+   public void testLeastRecentlyUsed()
+   {
+      ParseCache cache = new ParseCache(3, ParseCache.Policy.LRU);
+      MathTree calcTree = new MathTree(cache);
+
+      calcTree.init("1");
+      calcTree.init("2");
+      calcTree.init("3");
+      calcTree.init("1");
+      calcTree.init("4"); //Evicts "2"
+
+      assertEquals(3, cache.size());
+      assertEquals(1, cache.getEvictionCount());
+
+      long misses = cache.getMissCount();
+      calcTree.init("1");
+      calcTree.init("3");
+      calcTree.init("4");
+      assertEquals(misses, cache.getMissCount());
+      calcTree.init("2");
+      assertEquals(misses + 1, cache.getMissCount());
+   }
+
+   @Test
+   public void testFrequencyAdmission()
+   {
+      ParseCache cache = new ParseCache(10);
+      MathTree calcTree = new MathTree(cache);
+
+      //Statements that are only seen once do not push out the popular ones.
+      for(int round = 0; round < 50; round++)
+      {
+         for(int i = 0; i < 10; i++)
+            calcTree.init(i + " * 2");
+         for(int i = 0; i < 20; i++)
+            calcTree.init("1 + " + (round * 20 + i));
+      }
+
+      long hits = cache.getHitCount();
+      for(int i = 0; i < 10; i++)
+      {
+         calcTree.init(i + " * 2");
+         assertEquals(i * 2, calcTree.solve());
+      }
+      assertEquals(hits + 10, cache.getHitCount());
+      assertEquals(10, cache.size());
+   }
+
+   @Test
+   public void testThreads() throws InterruptedException
+   {
+      ParseCache cache = new ParseCache(64);
+      Thread[] threads = new Thread[4];
+      boolean[] failed = new boolean[threads.length];
+
+      for(int t = 0; t < threads.length; t++)
+      {
+         int id = t;
+         threads[t] = new Thread(() -> {
+            MathTree calcTree = new MathTree(cache);
+            for(int i = 0; i < 20000; i++)
+            {
+               int num = (i * 31 + id) % 200;
+               if(!calcTree.init(num + " + 1") || !calcTree.solve().equals(num + 1))
+                  failed[id] = true;
+            }
+         });
+         threads[t].start();
+      }
+
+      for(Thread thread : threads)
+         thread.join();
+
+      for(boolean fail : failed)
+         assertFalse(fail);
+      assertEquals(80000, cache.getHitCount() + cache.getMissCount());
+      assertTrue(cache.size() <= 64);
+   }
+}
@@ -0,0 +1,68 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.*;
+
+//Tests for the PathCopier.java class in the mathNode package.
+
+class PathCopierTest
+{
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testReplace()
+   {
+      //1 + 2 * x - 3
+      Operator mult = (Operator) nodeFactory.buildNode('*');
+      mult.setLeftNode(nodeFactory.buildNode(2));
+      mult.setRightNode(nodeFactory.buildNode("x"));
+      Operator add = (Operator) nodeFactory.buildNode('+');
+      add.setLeftNode(nodeFactory.buildNode(1));
+      add.setRightNode(mult);
+      Operator sub = (Operator) nodeFactory.buildNode('-');
+      sub.setLeftNode(add);
+      sub.setRightNode(nodeFactory.buildNode(3));
+
+      PathCopier copier = new PathCopier();
+      Expression newRoot = copier.replace(sub,
+            node -> node instanceof Variable ? nodeFactory.buildNode(4) : node);
+      assertEquals(1, copier.getReplaced());
+      assertEquals("1 + 2 * 4 - 3", newRoot.toString());
+      assertEquals("1 + 2 * x - 3", sub.toString());
+
+      //Only the operators above x are new.
+      Operator newAdd = (Operator) ((Operator) newRoot).getLeftNode();
+      Operator newMult = (Operator) newAdd.getRightNode();
+      assertNotSame(sub, newRoot);
+      assertNotSame(add, newAdd);
+      assertNotSame(mult, newMult);
+      assertSame(sub.getRightNode(), ((Operator) newRoot).getRightNode());
+      assertSame(add.getLeftNode(), newAdd.getLeftNode());
+      assertSame(mult.getLeftNode(), newMult.getLeftNode());
+
+      //Nothing replaced gives the same tree.
+      assertSame(sub, copier.replace(sub, node -> node));
+      assertEquals(0, copier.getReplaced());
+   }
+
+   @Test
+   public void testDeepTree()
+   {
+      //x + 1 + 1 + ... + 1 only copies the left side.
+      Expression rootNode = nodeFactory.buildNode("x");
+      for(int i = 0; i < 100000; i++)
+      {
+         Operator add = (Operator) nodeFactory.buildNode('+');
+         add.setLeftNode(rootNode);
+         add.setRightNode(nodeFactory.buildNode(1));
+         rootNode = add;
+      }
+
+      Expression newRoot = new PathCopier().replace(rootNode,
+            node -> node instanceof Variable ? nodeFactory.buildNode(0.5) : node);
+      assertEquals(100000.5, newRoot.calculate());
+      assertSame(((Operator) rootNode).getRightNode(), ((Operator) newRoot).getRightNode());
+   }
+}
@@ -0,0 +1,188 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import mathTree.*;
+
+//Tests for the PreparedExpression.java class in the mathTree package.
+
+class PreparedExpressionTest
+{
+   MathTree calcTree = new MathTree();
+
+   @BeforeEach
+   public void setUp()
+   {
+      calcTree.setVariables(true);
+   }
+
+   @Test
+   public void testSlots()
+   {
+      assertTrue(calcTree.init("price * (1 + rate) - discount"));
+
+      PreparedExpression expr = calcTree.prepare();
+      assertArrayEquals(new String[] {"price", "rate", "discount"}, expr.getVariableNames());
+      assertEquals(1, expr.getSlot("rate"));
+      assertEquals(-1, expr.getSlot("tax"));
+      assertEquals(115.0, expr.evaluate(new double[] {100, 0.2, 5}));
+      assertEquals(50.0, expr.evaluate(new double[] {50, 0, 0}));
+
+      expr = calcTree.prepare("discount", "price", "rate");
+      assertEquals(0, expr.getSlot("discount"));
+      assertEquals(115.0, expr.evaluate(new double[] {5, 100, 0.2}));
+
+      assertThrows(IllegalArgumentException.class, () -> calcTree.prepare("price", "rate"));
+      assertThrows(IllegalArgumentException.class, () -> calcTree.prepare("price", "price"));
+      assertThrows(IllegalArgumentException.class, () -> calcTree.prepare().evaluate(new double[2]));
+   }
+
+   @Test
+   public void testVariables()
+   {
+      assertTrue(calcTree.init("x * x - -x + _y2"));
+      assertEquals("x * x - -x + _y2", calcTree.toString());
+      PreparedExpression expr = calcTree.prepare("x", "_y2");
+      assertEquals(11.0, expr.evaluate(new double[] {2, 5}));
+      assertEquals(5.0, expr.solve(new double[] {0, 5}));
+
+      //Same variable more than once and implicit multiplication.
+      assertTrue(calcTree.init("2(x)x"));
+      assertEquals(18.0, calcTree.prepare().evaluate(new double[] {3}));
+
+      //Without variables it works like solve().
+      assertTrue(calcTree.init("2 + 3"));
+      assertEquals(0, calcTree.prepare().getVariableCount());
+      assertEquals(5, calcTree.prepare().solve(new double[0]));
+
+      //Variables need values.
+      assertTrue(calcTree.init("x + 1"));
+      assertNull(calcTree.solve());
+      assertEquals(Diagnostic.Code.UNBOUND_VARIABLE, calcTree.getDiagnostic().getCode());
+      assertNull(calcTree.compile());
+
+      //Without setVariables() a name is an unknown expression.
+      MathTree plainTree = new MathTree();
+      assertFalse(plainTree.init("x + 1"));
+      assertEquals(Diagnostic.Code.UNKNOWN_TOKEN, plainTree.getDiagnostic().getCode());
+
+      assertFalse(calcTree.init("2x"));
+      assertEquals(Diagnostic.Code.UNKNOWN_TOKEN, calcTree.getDiagnostic().getCode());
+   }
+
+   @Test
+   public void testOptimized()
+   {
+      //Variables are decimals, so their identity operations are removed.
+      assertTrue(calcTree.init("(2 + 3) * y ^ 2 + x * 1"));
+      PreparedExpression expr = calcTree.prepare();
+      assertEquals("5 * y * y + x", expr.toString());
+      assertEquals(21.0, expr.evaluate(new double[] {2, 1}));
+
+      //x + 0 stays because -0.0 + 0 is 0.0.
+      assertTrue(calcTree.init("-x + 0"));
+      expr = calcTree.prepare();
+      assertEquals("-x + 0", expr.toString());
+      assertEquals(0.0, expr.evaluate(new double[] {0.0}));
+      assertEquals(Double.doubleToRawLongBits(0.0),
+            Double.doubleToRawLongBits(expr.evaluate(new double[] {0.0})));
+
+      //The tree of the MathTree is not changed.
+      assertEquals("-x + 0", calcTree.toString());
+   }
+
+   @Test
+   public void testCompiled()
+   {
+      assertTrue(calcTree.init("(x - 1) * (x - 1) + y / 2"));
+      PreparedExpression expr = calcTree.prepare("x", "y");
+      double[] values = {4, -3};
+      assertEquals(7.5, expr.compile().evalDouble(values));
+      assertEquals(7.5, expr.toProgram().evalDouble(values));
+
+      //After the thresholds it uses lambdas, then bytecode.
+      calcTree.setTieringPolicy(new TieringPolicy(2, 4));
+      expr = calcTree.prepare("x", "y");
+      for(int i = 0; i < 6; i++)
+         assertEquals(7.5, expr.evaluate(values));
+
+      //A single variable is not compiled.
+      assertTrue(calcTree.init("x"));
+      expr = calcTree.prepare();
+      for(int i = 0; i < 6; i++)
+         assertEquals(-2.0, expr.evaluate(new double[] {-2}));
+   }
+
+   @Test
+   public void testRebalanced()
+   {
+      //A product of 16 variables plus 48 more.
+      StringBuilder statement = new StringBuilder("v0");
+      double[] values = new double[64];
+      values[0] = 1;
+      for(int i = 1; i < 64; i++)
+      {
+         statement.append(i < 16 ? " * v" : " + v").append(i);
+         values[i] = i % 3 + 1;
+      }
+      assertTrue(calcTree.init(statement.toString()));
+      PreparedExpression expr = calcTree.prepare();
+      assertEquals(63, TestTrees.depth(expr.getTree()));
+
+      //The values are small integers, so the new grouping gives the same result.
+      calcTree.setRebalancer(new mathNode.Rebalancer(true));
+      PreparedExpression balanced = calcTree.prepare();
+      assertEquals(10, TestTrees.depth(balanced.getTree()));
+      assertEquals(expr.evaluate(values), balanced.evaluate(values));
+   }
+
+   @Test
+   public void testBatch()
+   {
+      String[] statements = {"x", "-x", "7", "2.5", "-x * y + 3", "(x - 1.5) / (y + 2) ^ z",
+            "x ^ 2 + -y ^ 3 - 10 / z", "2147483647 + 1 + x", "x * x * x - y * y + z / x"};
+      Random random = new Random(15);
+
+      for(String statement : statements)
+      {
+         assertTrue(calcTree.init(statement), statement);
+         PreparedExpression expr = calcTree.prepare("x", "y", "z");
+
+         for(int rows : new int[] {0, 1, 1023, 1024, 2500})
+         {
+            double[][] columns = new double[3][rows];
+            for(double[] column : columns)
+            {
+               for(int i = 0; i < rows; i++)
+                  column[i] = random.nextInt(5) == 0 ? random.nextInt(5) - 2 : random.nextGaussian() * 100;
+            }
+
+            double[] out = new double[rows];
+            expr.evaluateBatch(columns, out);
+
+            //Exactly the same bits as one row at a time.
+            double[] values = new double[3];
+            for(int i = 0; i < rows; i++)
+            {
+               for(int slot = 0; slot < 3; slot++)
+                  values[slot] = columns[slot][i];
+               assertEquals(expr.evaluate(values), out[i], statement + " row " + i);
+            }
+         }
+      }
+
+      //Part of the rows.
+      assertTrue(calcTree.init("x + 1"));
+      PreparedExpression expr = calcTree.prepare();
+      double[] out = new double[4];
+      expr.evaluateBatch(new double[][] {{1, 2, 3, 4}}, out, 1, 3);
+      assertArrayEquals(new double[] {0, 3, 4, 0}, out);
+
+      assertThrows(IllegalArgumentException.class, () -> expr.evaluateBatch(new double[0][], out));
+      assertThrows(IndexOutOfBoundsException.class, () -> expr.evaluateBatch(new double[][] {{1}}, out));
+   }
+}
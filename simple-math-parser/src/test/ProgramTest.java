@@ -0,0 +1,139 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.Program;
+import mathTree.MathTree;
+import mathTree.PreparedExpression;
+
+//Tests for the Program.java class in the mathNode package.
+
+class ProgramTest
+{
+   MathTree calcTree = new MathTree();
+
+   @Test
+   public void testInstructions()
+   {
+      calcTree.init("2 * 3.5 + 4");
+      Program program = calcTree.toProgram();
+
+      int[] code = {Program.ICONST, 2, Program.DCONST, 0, Program.I2D_LEFT, Program.DMUL,
+            Program.ICONST, 4, Program.I2D, Program.DADD};
+      assertArrayEquals(code, program.getCode());
+      assertArrayEquals(new long[] {Double.doubleToRawLongBits(3.5)}, program.getConstants());
+      assertEquals(11.0, program.calculate());
+
+      calcTree.init("2147483647 + 1");
+      assertTrue(calcTree.toProgram().isInt());
+      assertEquals(Integer.MIN_VALUE, calcTree.toProgram().evalInt());
+   }
+
+   @Test
+   public void testVariablesAndShared()
+   {
+      //x + 1 is calculated once and loaded the second time.
+      calcTree.setVariables(true);
+      assertTrue(calcTree.init("(x + 1) * (x + 1) - -y"));
+      PreparedExpression expression = calcTree.prepare("x", "y");
+      Program program = new Program(expression.getTree());
+
+      int[] code = {Program.VAR, 0, Program.ICONST, 1, Program.I2D, Program.DADD, Program.STORE, 0,
+            Program.LOAD, 0, Program.DMUL, Program.NEG_VAR, 1, Program.DSUB};
+      assertArrayEquals(code, program.getCode());
+
+      String[] statements = {"x * 2 - -y", "(x + y) * (x + y) - (x + y) / -x",
+            "((x - 1) ^ 2 + y) * ((x - 1) ^ 2 + y) + (x - 1) ^ 2"};
+      for(String statement : statements)
+      {
+         assertTrue(calcTree.init(statement), statement);
+         expression = calcTree.prepare("x", "y");
+         program = new Program(expression.getTree());
+         for(double[] values : new double[][] {{2, 3}, {-0.5, 0}, {1e300, -7}})
+            assertEquals(expression.solve(values), program.calculate(values), statement);
+      }
+
+      //A Shared integer keeps its exact value: 2147483647 * 3 + 2147483647 * 3
+      program = new Program(TestTrees.sharedIntTree());
+      assertTrue(program.isInt());
+      assertEquals(Integer.MAX_VALUE * 3 * 2, program.evalInt());
+   }
+
+   @Test
+   public void testRandomExpr()
+   {
+      Random random = new Random(13);
+      String[] operators = {" + ", " - ", " * ", " / ", " ^ "};
+      String[] values = {"0", "1", "-1", "7", "-128", "40000", "2147483647", "0.5", "-2.25", "1e300", "-0.0"};
+
+      for(int i = 0; i < 500; i++)
+      {
+         StringBuilder expr = new StringBuilder(values[random.nextInt(values.length)]);
+         for(int k = random.nextInt(12); k > 0; k--)
+         {
+            expr.append(operators[random.nextInt(operators.length)]);
+            if(random.nextInt(4) == 0)
+               expr.append('(').append(values[random.nextInt(values.length)])
+                     .append(operators[random.nextInt(operators.length)]).append(values[random.nextInt(values.length)]).append(')');
+            else
+               expr.append(values[random.nextInt(values.length)]);
+         }
+
+         assertTrue(calcTree.init(expr.toString()), expr.toString());
+         assertEquals(calcTree.solve(), calcTree.toProgram().calculate(), expr.toString());
+      }
+   }
+
+   @Test
+   public void testRandomTrees()
+   {
+      Random random = new Random(13);
+      Number[] values = {0, 1, -1, 7, -128, 300, 40000, Integer.MAX_VALUE, 0.5, -2.25, 1e300, -0.0};
+
+      for(int i = 0; i < 1000; i++)
+      {
+         mathNode.Expression rootNode = TestTrees.randomTree(random, values, 12);
+         assertEquals(rootNode.calculate(), new Program(rootNode).calculate(), rootNode.toString());
+      }
+   }
+
+   @Test
+   public void testDeepTree()
+   {
+      StringBuilder nestedExpr = new StringBuilder();
+      for(int i = 0; i < 100000; i++)
+         nestedExpr.append("1 - (");
+      nestedExpr.append("0.5");
+      for(int i = 0; i < 100000; i++)
+         nestedExpr.append(")");
+
+      assertTrue(calcTree.init(nestedExpr.toString()));
+      assertEquals(0.5, calcTree.toProgram().calculate());
+   }
+
+   @Test
+   public void testSerialization() throws IOException, ClassNotFoundException
+   {
+      calcTree.init("(5+5*2) 8*0.5 + 6^2(4)");
+      Program program = calcTree.toProgram();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+         out.writeObject(program);
+      }
+
+      try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+         Program copy = (Program) in.readObject();
+         assertArrayEquals(program.getCode(), copy.getCode());
+         assertEquals(1679676.0, copy.calculate());
+      }
+   }
+}
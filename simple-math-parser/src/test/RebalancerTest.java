@@ -0,0 +1,116 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.*;
+import mathTree.MathTree;
+import mathTree.PreparedExpression;
+
+//Tests for the Rebalancer.java class in the mathNode package.
+
+class RebalancerTest
+{
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testIntegers()
+   {
+      //1 + 2 + 3 + 4
+      Expression rootNode = chain('+', nodeFactory.buildNode(1), 2, 3, 4);
+      Expression balanced = new Rebalancer().rebalance(rootNode);
+      assertEquals("1 + 2 + (3 + 4)", balanced.toString());
+      assertEquals(10, balanced.calculate());
+      assertEquals("1 + 2 + 3 + 4", rootNode.toString());
+
+      //A long sum that wraps around.
+      Expression sum = nodeFactory.buildNode(0);
+      for(int i = 1; i <= 100000; i++)
+         sum = chain('+', sum, i * 40000);
+      balanced = new Rebalancer().rebalance(sum);
+      assertEquals(100000, TestTrees.depth(sum));
+      assertEquals(17, TestTrees.depth(balanced));
+      assertEquals(sum.calculate(), balanced.calculate());
+
+      //Products of sums are balanced on their own.
+      Expression sumNode = chain('+', nodeFactory.buildNode(1), 2, 3);
+      sumNode.setParens(true);
+      Expression product = chain('*', sumNode, 4, 5, 6);
+      balanced = new Rebalancer().rebalance(product);
+      assertEquals("(1 + 2 + 3) * 4 * (5 * 6)", balanced.toString());
+      assertEquals(product.calculate(), balanced.calculate());
+   }
+
+   @Test
+   public void testDecimals()
+   {
+      //0.1 + 0.2 + 0.3 + 0.4 rounds differently in another grouping.
+      Expression rootNode = chain('+', nodeFactory.buildNode(0.1), 0.2, 0.3, 0.4);
+      assertSame(rootNode, new Rebalancer().rebalance(rootNode));
+      Expression balanced = new Rebalancer(true).rebalance(rootNode);
+      assertEquals("0.1 + 0.2 + (0.3 + 0.4)", balanced.toString());
+
+      //Integers and decimals are never regrouped.
+      rootNode = chain('+', nodeFactory.buildNode(2147483647), 1, 0.5, 2147483647, 1);
+      assertSame(rootNode, new Rebalancer(true).rebalance(rootNode));
+
+      //Sums of variables.
+      MathTree calcTree = new MathTree();
+      calcTree.setVariables(true);
+      calcTree.setRebalancer(new Rebalancer(true));
+      assertTrue(calcTree.init("a + b + c + d + e - f"));
+      PreparedExpression expr = calcTree.prepare();
+      assertEquals("a + b + (c + d) + e - f", expr.toString());
+      assertEquals(9.0, expr.evaluate(new double[] {1, 2, 3, 4, 5, 6}));
+   }
+
+   @Test
+   public void testMathTree()
+   {
+      //Integers are folded before they are balanced, so only runs with variables are left.
+      StringBuilder statement = new StringBuilder("x");
+      for(int i = 1; i < 5000; i++)
+         statement.append(i % 2 == 0 ? "+x" : "+2*x");
+
+      MathTree calcTree = new MathTree();
+      calcTree.setVariables(true);
+      calcTree.setRebalancer(new Rebalancer(true));
+      assertTrue(calcTree.init(statement.toString()));
+      PreparedExpression expr = calcTree.prepare();
+      assertEquals(14, TestTrees.depth(expr.getTree()));
+      assertEquals(3750.0, expr.evaluate(new double[] {0.5}));
+
+      //The tree as it was built keeps its runs of integers for compile() and toProgram().
+      MathTree sumTree = new MathTree();
+      sumTree.setRebalancer(new Rebalancer());
+      assertTrue(sumTree.init("1 + 2 + 3 + 4"));
+      MathTree groupedTree = new MathTree();
+      assertTrue(groupedTree.init("1 + 2 + (3 + 4)"));
+      assertArrayEquals(groupedTree.toProgram().getCode(), sumTree.toProgram().getCode());
+      assertEquals("1 + 2 + 3 + 4", sumTree.toString());
+
+      //A long sum that wraps around gives the same answer in every version.
+      statement = new StringBuilder("1");
+      for(int i = 1; i < 5000; i++)
+         statement.append(" + ").append(i * 40000);
+      assertTrue(sumTree.init(statement.toString()));
+      assertEquals(sumTree.solve(), sumTree.compile().calculate());
+      assertEquals(sumTree.solve(), sumTree.toProgram().calculate());
+   }
+
+   private Expression chain(char operator, Expression first, Number... values)
+   {
+      Expression rootNode = first;
+      for(Number value : values)
+      {
+         Operator opNode = (Operator) nodeFactory.buildNode(operator);
+         opNode.setLeftNode(rootNode);
+         if(value instanceof Integer)
+            opNode.setRightNode(nodeFactory.buildNode(value.intValue()));
+         else
+            opNode.setRightNode(nodeFactory.buildNode(value.doubleValue()));
+         rootNode = opNode;
+      }
+      return rootNode;
+   }
+}
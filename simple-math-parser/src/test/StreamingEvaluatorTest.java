@@ -0,0 +1,103 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.junit.jupiter.api.Test;
+
+import mathTree.Diagnostic;
+import mathTree.MathTree;
+import mathTree.StreamingEvaluator;
+
+//Tests for the StreamingEvaluator.java class in the mathTree package.
+
+class StreamingEvaluatorTest
+{
+   StreamingEvaluator evaluator = new StreamingEvaluator();
+
+   @Test
+   public void testSameAsMathTree()
+   {
+      MathTree calcTree = new MathTree();
+      String[] statements = {"5 + 2 * 3", "5 ^ 2", "(5 + 2) * 3", "2(3)(4)", "1 + (2 + 3) * 4",
+            "10 / 4 - 1", "2147483647 + 1", "-3 * -(2 - 0.5)", "((1 + 2) * (3 ^ 2)) / 3",
+            "5 + * 2", "5 *", "(5 + 2", "5 + 2)", "()", "5 2", "5 + $", "", "  ",
+            "5 + x", "x ^ 0", "x ^ 1", "2(-y)", "(1 + 2) z"};
+
+      for(String statement : statements)
+      {
+         Number answer = evaluator.evaluate(statement);
+         if(calcTree.init(statement))
+         {
+            assertEquals(calcTree.solve(), answer, statement);
+            assertNull(evaluator.getDiagnostic());
+         }
+         else
+         {
+            Diagnostic expected = calcTree.getDiagnostic();
+            Diagnostic diagnostic = evaluator.getDiagnostic();
+            assertNull(answer);
+            assertEquals(expected.getCode(), diagnostic.getCode(), statement);
+            assertEquals(expected.getToken(), diagnostic.getToken(), statement);
+            assertEquals(expected.getPosition(), diagnostic.getPosition(), statement);
+            assertEquals(expected.getMessage(), diagnostic.getMessage(), statement);
+         }
+      }
+   }
+
+   @Test
+   public void testLongStatement() throws IOException
+   {
+      //1 + 2 + ... + 100000, given a few characters at a time.
+      StringBuilder sum = new StringBuilder("1");
+      for(int i = 2; i <= 100000; i++)
+         sum.append(" + ").append(i);
+
+      assertEquals(705082704, evaluator.evaluate(new PieceReader(sum.toString(), 3)));
+      assertEquals(705082704, evaluator.evaluate(sum.toString()));
+
+      //Deep parenthesis.
+      StringBuilder nested = new StringBuilder();
+      for(int i = 0; i < 10000; i++)
+         nested.append("(1 + ");
+      nested.append('1');
+      for(int i = 0; i < 10000; i++)
+         nested.append(')');
+      assertEquals(10001, evaluator.evaluate(new PieceReader(nested.toString(), 7)));
+
+      //Errors are found at their position in the whole statement.
+      assertNull(evaluator.evaluate(new PieceReader(sum + " 5", 5)));
+      assertEquals(Diagnostic.Code.MISSING_OPERATOR, evaluator.getDiagnostic().getCode());
+      assertEquals(sum.length() + 1, evaluator.getDiagnostic().getPosition());
+   }
+
+   /**
+    * Gives at most size characters for each read.
+    */
+   private static class PieceReader extends Reader
+   {
+      private String text;
+      private int size;
+      private int pos = 0;
+
+      PieceReader(String text, int size)
+      {
+         this.text = text;
+         this.size = size;
+      }
+
+      public int read(char[] buffer, int off, int len)
+      {
+         if(pos == text.length())
+            return -1;
+
+         int count = Math.min(Math.min(len, size), text.length() - pos);
+         text.getChars(pos, pos + count, buffer, off);
+         pos += count;
+         return count;
+      }
+
+      public void close() {}
+   }
+}
@@ -7,6 +7,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import mathTree.StringScanner;
+import mathTree.TokenBuffer;
 
 //Tests for the StringScanner.java class in the mathTree package.
 
@@ -82,4 +83,46 @@ class StringScannerTest
       assertEquals(")", output.pollFirst());
    }
 
+   @Test
+   public void testTokenBuffer()
+   {
+      TokenBuffer tokens = new TokenBuffer();
+      scanner.scan(sentence4, tokens);
+      
+      assertEquals(10, tokens.size());
+      assertEquals(TokenBuffer.SPECIAL, tokens.getKind(0));
+      assertTrue(tokens.isChar(0, '('));
+      assertEquals(TokenBuffer.TEXT, tokens.getKind(1));
+      assertEquals(1, tokens.getStart(1));
+      assertEquals(3, tokens.getEnd(1));
+      assertEquals("world", tokens.getText(3));
+      assertTrue(tokens.isChar(9, ')'));
+      
+      //The buffer is reset and reused by the next scan.
+      scanner.scan(sentence2, tokens);
+      
+      assertEquals(4, tokens.size());
+      assertEquals("Welcome", tokens.getText(0));
+      assertEquals(".", tokens.getText(3));
+   }
+
+   @Test
+   public void testNonAsciiChars()
+   {
+      StringScanner unicodeScanner = new StringScanner();
+      unicodeScanner.skipWhitespace();
+      unicodeScanner.addSpecialChar('\u00d7');
+      unicodeScanner.addDelimiter('\u00b7');
+      
+      //Em space is whitespace outside of ASCII.
+      output = unicodeScanner.scan("3\u00d74\u2003x\u00b7y");
+      
+      assertEquals("3", output.pollFirst());
+      assertEquals("\u00d7", output.pollFirst());
+      assertEquals("4", output.pollFirst());
+      assertEquals("x", output.pollFirst());
+      assertEquals("y", output.pollFirst());
+      assertTrue(output.isEmpty());
+   }
+
 }
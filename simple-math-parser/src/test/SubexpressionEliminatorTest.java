@@ -0,0 +1,120 @@
+package test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import mathNode.*;
+import mathTree.MathTree;
+import mathTree.PreparedExpression;
+
+//Tests for the SubexpressionEliminator.java class in the mathNode package.
+
+class SubexpressionEliminatorTest
+{
+   mathNode.Factory nodeFactory = new mathNode.Factory();
+
+   @Test
+   public void testShared()
+   {
+      MathTree calcTree = new MathTree();
+      calcTree.setVariables(true);
+      assertTrue(calcTree.init("(a + b) * (a + b) - a"));
+      PreparedExpression expr = calcTree.prepare("a", "b");
+
+      //Both places of a + b are the same Shared node, and the text does not change.
+      Operator mult = (Operator) ((Operator) expr.getTree()).getLeftNode();
+      assertTrue(mult.getLeftNode() instanceof Shared);
+      assertSame(mult.getLeftNode(), mult.getRightNode());
+      assertEquals(0, ((Shared) mult.getLeftNode()).getIndex());
+      assertEquals("(a + b) * (a + b) - a", expr.toString());
+      assertEquals(8.0, expr.evaluate(new double[] {1, 2}));
+      assertEquals(1.0, expr.evaluate(new double[] {3, -1}));
+
+      //A subtree inside a shared one is only shared if it appears somewhere else too.
+      SubexpressionEliminator eliminator = new SubexpressionEliminator();
+      Expression rootNode = operator(operator(product(), '/', product()), '+', difference());
+      Expression shared = eliminator.eliminate(rootNode);
+      assertEquals(2, eliminator.getSharedCount());
+      assertEquals(rootNode.toString(), shared.toString());
+      assertNotSame(rootNode, shared);
+
+      //The two places of x * (y - 1) are one node, and so are the two places of y - 1.
+      Operator add = (Operator) shared;
+      Operator div = (Operator) add.getLeftNode();
+      Shared product = (Shared) div.getLeftNode();
+      assertSame(product, div.getRightNode());
+      assertSame(((Operator) product.getNode()).getRightNode(), add.getRightNode());
+      assertEquals(0, ((Shared) add.getRightNode()).getIndex());
+      assertEquals(1, product.getIndex());
+      assertEquals(rootNode.toString(), shared.toString());
+
+      //Nothing to share gives the same tree.
+      rootNode = operator(product(), '+', nodeFactory.buildNode("y"));
+      assertSame(rootNode, eliminator.eliminate(rootNode));
+      assertEquals(0, eliminator.getSharedCount());
+   }
+
+   private Expression operator(Expression leftNode, char symbol, Expression rightNode)
+   {
+      Operator operator = (Operator) nodeFactory.buildNode(symbol);
+      operator.setLeftNode(leftNode);
+      operator.setRightNode(rightNode);
+      return operator;
+   }
+
+   //x * (y - 1)
+   private Expression product()
+   {
+      return operator(nodeFactory.buildNode("x"), '*', difference());
+   }
+
+   //(y - 1)
+   private Expression difference()
+   {
+      Expression difference = operator(nodeFactory.buildNode("y"), '-', nodeFactory.buildNode(1));
+      difference.setParens(true);
+      return difference;
+   }
+
+   @Test
+   public void testBatch()
+   {
+      //A factor that is repeated many times is calculated once per row.
+      String factor = "(x - y) / (x ^ 2 + 1)";
+      StringBuilder statement = new StringBuilder(factor);
+      for(int i = 0; i < 20; i++)
+         statement.append(i % 2 == 0 ? " + " : " * ").append(factor);
+
+      MathTree calcTree = new MathTree();
+      calcTree.setVariables(true);
+      assertTrue(calcTree.init(statement.toString()));
+      PreparedExpression expr = calcTree.prepare("x", "y");
+
+      int rows = BatchEvaluator.CHUNK_SIZE + 5;
+      double[][] columns = new double[2][rows];
+      for(int row = 0; row < rows; row++)
+      {
+         columns[0][row] = row * 0.25;
+         columns[1][row] = 3 - row;
+      }
+
+      double[] out = new double[rows];
+      double[] scalar = new double[rows];
+      expr.evaluateBatch(columns, out);
+      new BatchEvaluator(expr.getTree(), false).evaluate(columns, scalar, 0, rows);
+      for(int row = 0; row < rows; row++)
+      {
+         //The same as substituting the values into the statement.
+         MathTree rowTree = new MathTree();
+         rowTree.setVariables(true);
+         rowTree.init(statement.toString());
+         rowTree.substitute("x", columns[0][row]);
+         rowTree.substitute("y", columns[1][row]);
+         double expected = rowTree.solve().doubleValue();
+
+         assertEquals(expected, expr.evaluate(new double[] {columns[0][row], columns[1][row]}));
+         assertEquals(expected, out[row]);
+         assertEquals(expected, scalar[row]);
+      }
+   }
+}
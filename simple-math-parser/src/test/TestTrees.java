@@ -0,0 +1,89 @@
+package test;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+//Trees built by hand for the tests of the mathNode package, because MathTree would fold
+//them into one number first, and the depth of the trees the tests get.
+
+class TestTrees
+{
+   private static final char[] OPERATORS = {'+', '-', '*', '/', '^'};
+
+   /**
+    * Builds a tree of up to maxOperators random operators. Each operator has the tree so
+    * far on a random side and a random value on the other.
+    */
+   static mathNode.Expression randomTree(Random random, Number[] values, int maxOperators)
+   {
+      mathNode.Factory nodeFactory = new mathNode.Factory();
+      mathNode.Expression rootNode = randomValue(nodeFactory, random, values);
+      for(int k = random.nextInt(maxOperators); k > 0; k--)
+      {
+         mathNode.Operator opNode = (mathNode.Operator) nodeFactory.buildNode(OPERATORS[random.nextInt(OPERATORS.length)]);
+         mathNode.Expression other = randomValue(nodeFactory, random, values);
+         opNode.setLeftNode(random.nextBoolean() ? rootNode : other);
+         opNode.setRightNode(opNode.getLeftNode() == rootNode ? other : rootNode);
+         rootNode = opNode;
+      }
+      return rootNode;
+   }
+
+   private static mathNode.Expression randomValue(mathNode.Factory nodeFactory, Random random, Number[] values)
+   {
+      Number value = values[random.nextInt(values.length)];
+      if(value instanceof Integer)
+         return nodeFactory.buildNode(value.intValue());
+      else
+         return nodeFactory.buildNode(value.doubleValue());
+   }
+
+   /**
+    * @return 2147483647 * 3 + 2147483647 * 3 with one Shared node for both products, so
+    * a Shared integer has to keep its exact value.
+    */
+   static mathNode.Expression sharedIntTree()
+   {
+      mathNode.Factory nodeFactory = new mathNode.Factory();
+      mathNode.Operator addNode = (mathNode.Operator) nodeFactory.buildNode('+');
+      addNode.setLeftNode(nodeFactory.buildNode('*'));
+      addNode.setRightNode(nodeFactory.buildNode('*'));
+      for(mathNode.Expression multNode : new mathNode.Expression[] {addNode.getLeftNode(), addNode.getRightNode()})
+      {
+         ((mathNode.Operator) multNode).setLeftNode(nodeFactory.buildNode(Integer.MAX_VALUE));
+         ((mathNode.Operator) multNode).setRightNode(nodeFactory.buildNode(3));
+      }
+      return new mathNode.SubexpressionEliminator().eliminate(addNode);
+   }
+
+   /**
+    * @return The number of operators on the longest path from rootNode to a leaf.
+    */
+   static int depth(mathNode.Expression rootNode)
+   {
+      int max = 0;
+      ArrayDeque<mathNode.Expression> nodes = new ArrayDeque<mathNode.Expression>();
+      ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+      nodes.push(rootNode);
+      depths.push(0);
+      while(!nodes.isEmpty())
+      {
+         mathNode.Expression node = nodes.pop();
+         int depth = depths.pop();
+         max = Math.max(max, depth);
+         if(node instanceof mathNode.Shared)
+         {
+            //Prepared trees share repeated subtrees.
+            nodes.push(((mathNode.Shared) node).getNode());
+            depths.push(depth);
+         }
+         else if(node instanceof mathNode.Operator)
+         {
+            nodes.push(((mathNode.Operator) node).getLeftNode());
+            depths.push(depth + 1);
+            nodes.push(((mathNode.Operator) node).getRightNode());
+            depths.push(depth + 1);
+         }
+      }
+      return max;
+   }
+}
@@ -0,0 +1,103 @@
+package mathNode;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BatchKernels on the JDK Vector API, which has to be added with
+ * --add-modules jdk.incubator.vector. It is kept out of src so the rest compiles
+ * without the module, and is compiled after it when the module is wanted. Vectors are
+ * the preferred size of the CPU it runs on, and the rows that do not fill a whole
+ * vector are done one by one. Add, Sub, Mult and Div are exact in every lane. Pow is
+ * not supported, because the vector pow does not always give the same bits as
+ * Math.pow().
+ * @author kevinrobell
+ *
+ */
+class VectorKernels implements BatchKernels
+{
+   private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+   public boolean combine(Operator operator, double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
+   {
+      Class<?> type = operator.getClass();
+      if(type == Add.class)
+         add(left, leftStart, right, rightStart, out, outStart, count);
+      else if(type == Sub.class)
+         sub(left, leftStart, right, rightStart, out, outStart, count);
+      else if(type == Mult.class)
+         mult(left, leftStart, right, rightStart, out, outStart, count);
+      else if(type == Div.class)
+         div(left, leftStart, right, rightStart, out, outStart, count);
+      else
+         return false;
+
+      return true;
+   }
+
+   public void negate(double[] in, int inStart, double[] out, int outStart, int count)
+   {
+      int i = 0;
+      for(int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length())
+         DoubleVector.fromArray(SPECIES, in, inStart + i).neg().intoArray(out, outStart + i);
+      for(; i < count; i++)
+         out[outStart + i] = -in[inStart + i];
+   }
+
+   //One loop for each operator, so the JIT sees which instruction to use.
+   private static void add(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
+   {
+      int i = 0;
+      for(int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length())
+      {
+         DoubleVector leftNums = DoubleVector.fromArray(SPECIES, left, leftStart + i);
+         DoubleVector rightNums = DoubleVector.fromArray(SPECIES, right, rightStart + i);
+         leftNums.add(rightNums).intoArray(out, outStart + i);
+      }
+      for(; i < count; i++)
+         out[outStart + i] = left[leftStart + i] + right[rightStart + i];
+   }
+
+   private static void sub(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
+   {
+      int i = 0;
+      for(int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length())
+      {
+         DoubleVector leftNums = DoubleVector.fromArray(SPECIES, left, leftStart + i);
+         DoubleVector rightNums = DoubleVector.fromArray(SPECIES, right, rightStart + i);
+         leftNums.sub(rightNums).intoArray(out, outStart + i);
+      }
+      for(; i < count; i++)
+         out[outStart + i] = left[leftStart + i] - right[rightStart + i];
+   }
+
+   private static void mult(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
+   {
+      int i = 0;
+      for(int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length())
+      {
+         DoubleVector leftNums = DoubleVector.fromArray(SPECIES, left, leftStart + i);
+         DoubleVector rightNums = DoubleVector.fromArray(SPECIES, right, rightStart + i);
+         leftNums.mul(rightNums).intoArray(out, outStart + i);
+      }
+      for(; i < count; i++)
+         out[outStart + i] = left[leftStart + i] * right[rightStart + i];
+   }
+
+   private static void div(double[] left, int leftStart, double[] right, int rightStart,
+         double[] out, int outStart, int count)
+   {
+      int i = 0;
+      for(int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length())
+      {
+         DoubleVector leftNums = DoubleVector.fromArray(SPECIES, left, leftStart + i);
+         DoubleVector rightNums = DoubleVector.fromArray(SPECIES, right, rightStart + i);
+         leftNums.div(rightNums).intoArray(out, outStart + i);
+      }
+      for(; i < count; i++)
+         out[outStart + i] = left[leftStart + i] / right[rightStart + i];
+   }
+}